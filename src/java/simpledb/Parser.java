@@ -5,6 +5,8 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -15,6 +17,8 @@ import simpledb.common.Type;
 import simpledb.execution.*;
 import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPoolStats;
+import simpledb.storage.HotPageList;
 import simpledb.storage.IntField;
 import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
@@ -361,13 +365,14 @@ public class Parser {
                     IntField f = new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (td.getFieldType(i) != Type.STRING_TYPE
+                            && td.getFieldType(i) != Type.VARCHAR_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
                                 + " is a string, expected an integer.");
                     }
                     StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
+                            Type.STRING_LEN, td.getFieldType(i));
                     t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
@@ -423,6 +428,51 @@ public class Parser {
 
     }
 
+    /**
+     * LOAD DATA INFILE 'file' INTO TABLE name [FIELDS TERMINATED BY 'c'],
+     * which ZQL does not know about
+     */
+    static final Pattern LOAD_STATEMENT = Pattern.compile(
+            "\\s*LOAD\\s+DATA\\s+INFILE\\s+'([^']*)'\\s+INTO\\s+TABLE\\s+(\\w+)"
+                    + "(?:\\s+FIELDS\\s+TERMINATED\\s+BY\\s+'(.)')?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    public Query handleLoadStatement(Matcher m, TransactionId tId)
+            throws DbException, simpledb.ParsingException {
+        int tableId;
+        try {
+            tableId = Database.getCatalog().getTableId(m.group(2));
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : "
+                    + m.group(2));
+        }
+        char separator = m.group(3) != null ? m.group(3).charAt(0) : ',';
+
+        Query q = new Query(tId);
+        q.setPhysicalPlan(new BulkLoad(tId, new File(m.group(1)), tableId,
+                separator));
+        return q;
+    }
+
+    /**
+     * SHOW BUFFERPOOL [RESET], which prints the buffer pool's counters per
+     * table and, with RESET, sets them back to zero afterwards
+     */
+    static final Pattern SHOW_BUFFERPOOL_STATEMENT = Pattern.compile(
+            "\\s*SHOW\\s+BUFFERPOOL(\\s+RESET)?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    public void handleShowBufferPoolStatement(Matcher m) {
+        BufferPoolStats stats = Database.getBufferPool().getStats();
+        System.out.println("Buffer pool: " + stats.getUsedFrames() + " of "
+                + stats.getCapacity() + " frames used");
+        for (BufferPoolStats.TableSnapshot t : stats.snapshot())
+            System.out.println(t);
+        System.out.println(stats.total());
+        if (m.group(1) != null)
+            stats.resetStats();
+    }
+
     public void handleTransactStatement(ZTransactStmt s)
             throws IOException,
             simpledb.ParsingException {
@@ -495,8 +545,24 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n; (n = is.read(buf)) > 0; )
+                text.write(buf, 0, n);
+            String statement = new String(text.toByteArray(), StandardCharsets.UTF_8);
+            Matcher show = SHOW_BUFFERPOOL_STATEMENT.matcher(statement);
+            if (show.matches()) {
+                handleShowBufferPoolStatement(show);
+                return;
+            }
+            Matcher load = LOAD_STATEMENT.matcher(statement);
+
+            ZStatement s = null;
+            if (!load.matches()) {
+                ZqlParser p = new ZqlParser(
+                        new ByteArrayInputStream(text.toByteArray()));
+                s = p.readStatement();
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -509,7 +575,9 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (s == null)
+                        query = handleLoadStatement(load, curtrans.getId());
+                    else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
@@ -566,7 +634,8 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "load data infile",
+            "show bufferpool" };
 
     public static void main(String[] argv) throws IOException {
 
@@ -583,7 +652,18 @@ public class Parser {
     static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
+    /** The pages resident in the buffer pool, saved for the next start. */
+    protected HotPageList hotPages;
+
     protected void shutdown() {
+        if (hotPages != null) {
+            hotPages.stop();
+            try {
+                hotPages.save(Database.getBufferPool());
+            } catch (IOException e) {
+                System.out.println("Unable to save the hot-page list: " + e.getMessage());
+            }
+        }
         System.out.println("Bye");
     }
 
@@ -592,6 +672,16 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
+
+        // read the pages that were hot when we last shut down back in while we start
+        hotPages = new HotPageList(HotPageList.forCatalog(new File(argv[0])));
+        try {
+            hotPages.warm(Database.getBufferPool());
+        } catch (IOException e) {
+            System.out.println("Unable to read the hot-page list: " + e.getMessage());
+        }
+        hotPages.saveEvery(Database.getBufferPool(), HotPageList.DEFAULT_INTERVAL_MILLIS);
+
         TableStats.computeStatistics();
 
         String queryFile = null;
@@ -1,4 +1,5 @@
 package simpledb;
+import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
@@ -15,7 +16,7 @@ public class SimpleDb {
         switch (args[0]) {
             case "convert":
                 try {
-                    if (args.length < 3 || args.length > 5) {
+                    if (args.length < 3 || args.length > 6) {
                         System.err.println("Unexpected number of arguments to convert ");
                         return;
                     }
@@ -41,17 +42,27 @@ public class SimpleDb {
                                 ts[index++] = Type.INT_TYPE;
                             else if (s.equalsIgnoreCase("string"))
                                 ts[index++] = Type.STRING_TYPE;
+                            else if (s.equalsIgnoreCase("varchar"))
+                                ts[index++] = Type.VARCHAR_TYPE;
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
                             }
                         }
-                        if (args.length == 5)
+                        if (args.length >= 5)
                             fieldSeparator = args[4].charAt(0);
                     }
+                    HeapFile.Format format = HeapFile.Format.FIXED;
+                    if (args.length == 6)
+                        format = HeapFile.Format.valueOf(args[5].toUpperCase());
 
-                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    // build the table with a bulk load, a batch of whole pages at a time
+                    targetDatFile.delete();
+                    FreeSpaceMap.sideFile(targetDatFile).delete();
+                    HeapFile hf = new HeapFile(targetDatFile, new TupleDesc(ts), format);
+                    TransactionId tid = new TransactionId();
+                    BulkLoader.load(tid, hf, sourceTxtFile, fieldSeparator);
+                    Database.getBufferPool().transactionComplete(tid);
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
@@ -1,6 +1,8 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.CompressedHeapFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
@@ -11,6 +13,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -107,6 +110,17 @@ public class Catalog {
         return df;
     }
 
+    /**
+     * Returns the page size of the specified table, or
+     * {@link BufferPool#getPageSize()} if there is no such table.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     */
+    public int getPageSize(int tableid) {
+        DbFile df = this.dbFiles.get(tableid);
+        return df == null ? BufferPool.getPageSize() : df.getPageSize();
+    }
+
     public String getPrimaryKey(int tableid) {
         String pk = this.primaryKeys.get(tableid);
         if(pk == null) throw new NoSuchElementException();
@@ -132,6 +146,14 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes one table as
+     * <pre>
+     *     name (field type [pk], field type [pk], ...) [fixed|slotted|pax] [compressed] [pagesize=bytes]
+     * </pre>
+     * where a type is int, string or varchar. The optional words after the
+     * field list pick the {@link HeapFile.Format} of the table's pages (fixed
+     * by default), whether the table is a {@link CompressedHeapFile}, and
+     * the size of its pages ({@link BufferPool#getPageSize()} by default).
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -156,6 +178,8 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().equalsIgnoreCase("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -172,14 +196,42 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                HeapFile.Format format = HeapFile.Format.FIXED;
+                boolean compressed = false;
+                int pageSize = 0;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                for (String option : options.isEmpty() ? new String[0] : options.split("\\s+")) {
+                    if (option.equalsIgnoreCase("slotted"))
+                        format = HeapFile.Format.SLOTTED;
+                    else if (option.equalsIgnoreCase("pax"))
+                        format = HeapFile.Format.PAX;
+                    else if (option.equalsIgnoreCase("fixed"))
+                        format = HeapFile.Format.FIXED;
+                    else if (option.equalsIgnoreCase("compressed"))
+                        compressed = true;
+                    else if (option.toLowerCase().startsWith("pagesize=")) {
+                        pageSize = Integer.parseInt(option.substring("pagesize=".length()));
+                        if (pageSize < t.getSize() + 1) {
+                            System.out.println("Page size " + pageSize + " too small for table " + name);
+                            System.exit(0);
+                        }
+                    }
+                    else {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf = compressed
+                        ? new CompressedHeapFile(tabFile, t, format, Deflater.DEFAULT_COMPRESSION, pageSize)
+                        : new HeapFile(tabFile, t, false, format, pageSize);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
-        } catch (IndexOutOfBoundsException e) {
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
         }
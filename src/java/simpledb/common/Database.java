@@ -27,6 +27,7 @@ public class Database {
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _bufferpool.getStats().register();
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -43,7 +44,11 @@ public class Database {
         return _instance.get()._logfile;
     }
 
-    /** Return the buffer pool of the static Database instance */
+    /**
+     * Return the buffer pool of the static Database instance. Its counters
+     * are registered with the platform MBean server as
+     * {@link simpledb.storage.BufferPoolStats#OBJECT_NAME}.
+     */
     public static BufferPool getBufferPool() {
         return _instance.get()._bufferpool;
     }
@@ -62,7 +67,9 @@ public class Database {
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            BufferPool pool = new BufferPool(pages);
+            bufferPoolF.set(_instance.get(), pool);
+            pool.getStats().register();
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,231 @@
+package simpledb.common;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DeadlockDetector finds and breaks deadlocks among the transactions
+ * waiting in a LockManager, off the path of lock requests.
+ * <p>
+ * Every interval, the detector builds the waits-for graph from the lock
+ * table and the wait queues: a waiting transaction waits for the holders of
+ * conflicting locks on its page or table and for the conflicting requests
+ * queued ahead of it. Each cycle in the graph is a deadlock. The detector breaks
+ * it by aborting the waits of one transaction on the cycle, which then
+ * get a DeadlockException. The victim is the transaction holding the
+ * fewest locks, as the one with the least work to undo and redo, and the
+ * youngest of those on a tie.
+ * <p>
+ * The detector thread is started on demand by {@link #wakeup}, which the
+ * lock manager calls when a request starts waiting, and exits after a
+ * number of passes without waiters.
+ *
+ * @Threadsafe
+ */
+public class DeadlockDetector {
+    /** How often the detector looks for deadlocks, in milliseconds. */
+    public static final long DEFAULT_INTERVAL_MILLIS = 50;
+    /** Passes without waiting transactions after which the thread exits. */
+    private static final int IDLE_PASSES = 20;
+
+    private final LockManager lockManager;
+    private final long intervalMillis;
+
+    private final LongAdder passes = new LongAdder();
+    private final LongAdder passNanos = new LongAdder();
+    private final LongAdder victims = new LongAdder();
+    private final LongAdder cycleEdges = new LongAdder();
+    private final AtomicLong longestCycle = new AtomicLong();
+
+    /** the detector thread, or null when it is not running; guarded by this */
+    private Thread thread;
+
+    /**
+     * Creates a detector for the given lock manager. The thread is not
+     * started until the first {@link #wakeup}.
+     *
+     * @param lockManager the lock manager to watch
+     * @param intervalMillis how often the waits-for graph is checked
+     */
+    public DeadlockDetector(LockManager lockManager, long intervalMillis) {
+        if (intervalMillis <= 0)
+            throw new IllegalArgumentException("intervalMillis must be positive");
+        this.lockManager = lockManager;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Starts the detector thread if it is not running.
+     */
+    public synchronized void wakeup() {
+        if (thread == null) {
+            thread = new Thread(this::run, "simpledb-deadlock-detector");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Returns true if the detector thread is running.
+     */
+    public synchronized boolean isRunning() {
+        return thread != null;
+    }
+
+    private void run() {
+        int idle = 0;
+        while (true) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    thread = null;
+                }
+                return;
+            }
+
+            boolean waiting = detect() > 0;
+
+            synchronized (this) {
+                // a request counts itself as waiting before it calls
+                // wakeup(), which blocks until this check is done, so it is
+                // either seen here or starts a new thread
+                idle = waiting ? 0 : idle + 1;
+                if (idle >= IDLE_PASSES && !lockManager.hasWaiters()) {
+                    thread = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs one detection pass in the calling thread, breaking every
+     * deadlock it finds.
+     *
+     * @return the number of transactions that were waiting
+     */
+    public int detect() {
+        long start = System.nanoTime();
+        int waiting = lockManager.withAllShards(() -> {
+            Map<TransactionId, Set<TransactionId>> graph = lockManager.waitsForGraph();
+            int n = graph.size();
+            List<TransactionId> cycle;
+            while ((cycle = findCycle(graph)) != null) {
+                TransactionId victim = chooseVictim(cycle);
+                lockManager.abortDeadlocked(victim);
+                graph.remove(victim);
+                victims.increment();
+                cycleEdges.add(cycle.size());
+                longestCycle.accumulateAndGet(cycle.size(), Math::max);
+            }
+            return n;
+        });
+        passes.increment();
+        passNanos.add(System.nanoTime() - start);
+        return waiting;
+    }
+
+    /**
+     * Returns the transactions on some cycle of the graph, in waiting
+     * order, or null if the graph has no cycle. Edges to nodes that are
+     * not in the graph, because they do not wait, are ignored.
+     */
+    static List<TransactionId> findCycle(Map<TransactionId, Set<TransactionId>> graph) {
+        Set<TransactionId> done = new HashSet<>();
+        for (TransactionId root : graph.keySet()) {
+            if (done.contains(root))
+                continue;
+
+            // iterative depth-first search; path holds the nodes on the stack
+            List<TransactionId> path = new ArrayList<>();
+            List<Iterator<TransactionId>> edges = new ArrayList<>();
+            Map<TransactionId, Integer> onPath = new HashMap<>();
+            path.add(root);
+            edges.add(graph.get(root).iterator());
+            onPath.put(root, 0);
+            while (!path.isEmpty()) {
+                Iterator<TransactionId> it = edges.get(edges.size() - 1);
+                if (!it.hasNext()) {
+                    TransactionId node = path.remove(path.size() - 1);
+                    edges.remove(edges.size() - 1);
+                    onPath.remove(node);
+                    done.add(node);
+                    continue;
+                }
+                TransactionId next = it.next();
+                Integer index = onPath.get(next);
+                if (index != null)
+                    return new ArrayList<>(path.subList(index, path.size()));
+                Set<TransactionId> out = graph.get(next);
+                if (out == null || done.contains(next))
+                    continue;
+                onPath.put(next, path.size());
+                path.add(next);
+                edges.add(out.iterator());
+            }
+        }
+        return null;
+    }
+
+    private TransactionId chooseVictim(List<TransactionId> cycle) {
+        TransactionId victim = null;
+        int victimLocks = 0;
+        for (TransactionId tid : cycle) {
+            int locks = lockManager.getPids(tid).size();
+            if (victim == null || locks < victimLocks
+                    || (locks == victimLocks && tid.getId() > victim.getId())) {
+                victim = tid;
+                victimLocks = locks;
+            }
+        }
+        return victim;
+    }
+
+    /** Returns how often the detector looks for deadlocks, in milliseconds. */
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /** Returns the number of detection passes run so far. */
+    public long getPasses() {
+        return passes.sum();
+    }
+
+    /**
+     * Returns the mean time a detection pass took, in microseconds, or 0
+     * if none has run yet.
+     */
+    public double getMeanPassMicros() {
+        long n = getPasses();
+        return n == 0 ? 0 : passNanos.sum() / 1e3 / n;
+    }
+
+    /** Returns the number of transactions aborted to break deadlocks. */
+    public long getVictims() {
+        return victims.sum();
+    }
+
+    /**
+     * Returns the mean number of transactions on the deadlock cycles found,
+     * or 0 if none was found yet.
+     */
+    public double getMeanCycleLength() {
+        long n = getVictims();
+        return n == 0 ? 0 : (double) cycleEdges.sum() / n;
+    }
+
+    /** Returns the number of transactions on the longest deadlock cycle found. */
+    public long getLongestCycle() {
+        return longestCycle.get();
+    }
+}
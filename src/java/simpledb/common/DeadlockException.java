@@ -1,9 +1,13 @@
 package simpledb.common;
 
-import java.lang.Exception;
+import simpledb.transaction.TransactionAbortedException;
 
-/** Exception that is thrown when a deadlock occurs. */
-public class DeadlockException extends Exception {
+/**
+ * Exception that is thrown when a deadlock occurs. The transaction it is
+ * thrown to was chosen to break the deadlock and has to abort, like after
+ * any other TransactionAbortedException.
+ */
+public class DeadlockException extends TransactionAbortedException {
     private static final long serialVersionUID = 1L;
 
     public DeadlockException() {
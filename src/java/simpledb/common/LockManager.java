@@ -1,124 +1,733 @@
 package simpledb.common;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-
-import javax.print.attribute.standard.Sides;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 import simpledb.storage.PageId;
+import simpledb.storage.TableLockId;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+/**
+ * LockManager keeps the locks of transactions on pages and whole tables.
+ * Locks are held until the transaction releases them all at once, as
+ * strict two-phase locking requires.
+ * <p>
+ * Locks are taken at two granularities. A table, named by a TableLockId,
+ * can be locked in any {@link LockMode}; a page only shared (S) or
+ * exclusive (X). Before locking a page, a transaction takes an intention
+ * lock on its table, IS for a shared page lock and IX for an exclusive one,
+ * so that a table lock conflicts with the page locks of other transactions
+ * without looking at them. A transaction that holds its table S, SIX or X
+ * needs no shared page locks: a scan locks the table once rather than each
+ * of its pages. Under a table X lock it needs no page locks at all.
+ * <p>
+ * A transaction that takes more than the escalation threshold of page locks
+ * on one table has them escalated: its intention lock on the table becomes
+ * S, or X if it has written pages, and the page locks are dropped. That
+ * only happens if the table lock can be granted without waiting; if not,
+ * escalation is tried again each time the transaction has taken as many
+ * page locks more.
+ * <p>
+ * The lock table is split by PageId hash into SHARDS shards, each latched
+ * by its own monitor, so requests for pages in different shards never wait
+ * for each other. The locks a transaction holds are also kept with the
+ * transaction, so a lock it already holds is found without latching any
+ * shard, and releasing its locks latches each of their shards in turn
+ * rather than the whole table.
+ * <p>
+ * Under the WAIT policy, a request that conflicts with locks held by other
+ * transactions waits in a FIFO queue for its page or table. When locks are
+ * released, requests are granted from the head of the queue for as long as
+ * they are compatible with the locks held, so a run of shared requests is
+ * granted together. A new request also queues behind waiting ones, even if
+ * it could be granted right away, so that a stream of readers cannot starve
+ * a writer. Upgrades of a lock the transaction already holds go to the head
+ * of the queue; an upgrade that conflicts both ways with the upgrade at the
+ * head would wait for it forever, so it aborts at once.
+ * Waiters sleep on their shard's monitor. A DeadlockDetector breaks
+ * deadlocks among them by aborting one waiting transaction of each with a
+ * DeadlockException; as a backstop, a request that waits longer than the
+ * timeout aborts its transaction with a TransactionAbortedException.
+ * <p>
+ * Under the NO_WAIT policy, any conflict aborts the requesting transaction
+ * at once.
+ *
+ * @Threadsafe
+ */
 public class LockManager {
-    private Map<TransactionId, Set<PageId>> txn2page;
-    private Map<PageId, TransactionId> page2txn_ex; // exclude
-    private Map<PageId, Set<TransactionId>> page2txn_sh; // share
+    /** What a request does when it conflicts with locks held by other transactions. */
+    public enum WaitPolicy {
+        /** Wait in the page's queue until the lock is granted or the timeout passes. */
+        WAIT,
+        /** Abort the requesting transaction. */
+        NO_WAIT
+    }
 
-    public LockManager() {
-        txn2page = new ConcurrentHashMap<>();
-        page2txn_ex = new ConcurrentHashMap<>();
-        page2txn_sh = new ConcurrentHashMap<>();
+    /**
+     * The modes a lock is held in. Pages are only locked S or X; the
+     * intention modes say what a transaction locks within a table.
+     */
+    public enum LockMode {
+        /** intention to lock pages of the table shared */
+        IS,
+        /** intention to lock pages of the table exclusive */
+        IX,
+        /** shared */
+        S,
+        /** shared, with the intention to lock pages exclusive: S and IX at once */
+        SIX,
+        /** exclusive */
+        X;
+
+        private static final boolean[][] COMPATIBLE = {
+                //  IS     IX     S      SIX    X
+                { true,  true,  true,  true,  false }, // IS
+                { true,  true,  false, false, false }, // IX
+                { true,  false, true,  false, false }, // S
+                { true,  false, false, false, false }, // SIX
+                { false, false, false, false, false }, // X
+        };
+
+        /** Returns the mode of a lock taken with the given permissions. */
+        public static LockMode of(Permissions perm) {
+            return perm == Permissions.READ_ONLY ? S : X;
+        }
+
+        /** Returns true if two transactions may hold the lock in this mode and other. */
+        public boolean compatibleWith(LockMode other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        /** Returns true if holding the lock in this mode grants all that other does. */
+        public boolean covers(LockMode other) {
+            return this == other || this == X || (this == SIX && other != X)
+                    || ((this == IX || this == S) && other == IS);
+        }
+
+        /** Returns the weakest mode that grants all that this mode and other do. */
+        public LockMode join(LockMode other) {
+            if (covers(other))
+                return this;
+            return other.covers(this) ? other : SIX;
+        }
+
+        /** Returns the intention mode a table is locked in before a page is locked in this mode. */
+        LockMode intention() {
+            return this == S || this == IS ? IS : IX;
+        }
     }
 
-    public synchronized void lock(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
-        if(perm == Permissions.READ_ONLY) {
-            _sLock(tid, pid); // S-lock
-        } else {
-            _xLock(tid, pid); // X-lock
+    private static final LockMode[] MODES = LockMode.values();
+
+    /** System property that sets the policy of managers created without an explicit choice. */
+    public static final String POLICY_PROPERTY = "simpledb.common.LockManager.waitPolicy";
+
+    /**
+     * Shortest time a request waits before its transaction is aborted, in
+     * milliseconds. Deadlocks are broken by the detector much sooner; this
+     * only catches transactions that hold their locks for too long.
+     */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5_000;
+
+    /** System property that sets the escalation threshold of managers created without an explicit one. */
+    public static final String ESCALATION_PROPERTY = "simpledb.common.LockManager.escalationThreshold";
+
+    /** Page locks on one table a transaction may take before they are escalated to a table lock. */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 1_000;
+
+    /** Number of shards of the lock table; a power of two. */
+    public static final int SHARDS = 64;
+
+    /** A request waiting for a lock on a page or table. */
+    private static class Request {
+        final TransactionId tid;
+        final TxnLocks txn;
+        final PageId pid;
+        /** the mode asked for, joined with the mode already held */
+        final LockMode mode;
+        /** the mode already held, or null */
+        final LockMode held;
+        boolean granted = false;
+        /** set when the transaction was released while the request waited */
+        boolean cancelled = false;
+        /** set when the request was cancelled to break a deadlock */
+        boolean deadlocked = false;
+
+        Request(TransactionId tid, TxnLocks txn, PageId pid, LockMode mode, LockMode held) {
+            this.tid = tid;
+            this.txn = txn;
+            this.pid = pid;
+            this.mode = mode;
+            this.held = held;
         }
 
-        Set<PageId> pids = txn2page.getOrDefault(tid, new HashSet<>());
-        pids.add(pid);
-        txn2page.put(tid, pids);
+        boolean isUpgrade() {
+            return held != null;
+        }
     }
 
-    private synchronized void _sLock (TransactionId tid, PageId pid) throws TransactionAbortedException {
-        // check X-lock
-        TransactionId xtid = _getXLock(pid);
-        if (xtid != null) {
-            if (xtid.equals(tid) == false)
-                throw new TransactionAbortedException();
+    /** The holders of the lock on one page or table, and its waiters. */
+    private static class LockState {
+        final Map<TransactionId, LockMode> holders = new HashMap<>();
+        /** the number of holders in each mode */
+        final int[] counts = new int[MODES.length];
+        /** requests waiting, in grant order; null when there are none */
+        ArrayDeque<Request> queue;
+    }
 
-            return;
+    /**
+     * The locks and wait queues of the pages and tables that hash to one
+     * shard. All fields, and those of the shard's lock states and requests,
+     * are guarded by the shard.
+     */
+    private static class Shard {
+        /** the lock state of every page or table locked or waited for */
+        final Map<PageId, LockState> locks = new HashMap<>();
+    }
+
+    /** The locks one transaction holds and the requests it waits on. */
+    private static class TxnLocks {
+        /** the pages and tables locked, with the mode they are held in */
+        final Map<PageId, LockMode> locks = new ConcurrentHashMap<>();
+        /** the number of page locks held on each table, by table id */
+        final Map<Integer, Integer> tablePages = new ConcurrentHashMap<>();
+        /** guarded by this */
+        final List<Request> waiting = new ArrayList<>();
+    }
+
+    private final Shard[] shards = new Shard[SHARDS];
+    private final Map<TransactionId, TxnLocks> txn2page = new ConcurrentHashMap<>();
+
+    private final WaitPolicy policy;
+    private final long timeoutMillis;
+    private final int escalationThreshold;
+    /** null under NO_WAIT, where nothing waits */
+    private final DeadlockDetector detector;
+
+    private final AtomicInteger waitingRequests = new AtomicInteger();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder aborts = new LongAdder();
+    private final LongAdder escalations = new LongAdder();
+
+    /**
+     * Creates a lock manager with the policy set by the POLICY_PROPERTY
+     * system property, WAIT by default, the escalation threshold set by the
+     * ESCALATION_PROPERTY system property, and the default timeout and
+     * detection interval.
+     */
+    public LockManager() {
+        this(WaitPolicy.valueOf(System.getProperty(POLICY_PROPERTY, "WAIT").toUpperCase()),
+                DEFAULT_TIMEOUT_MILLIS, DeadlockDetector.DEFAULT_INTERVAL_MILLIS,
+                Integer.getInteger(ESCALATION_PROPERTY, DEFAULT_ESCALATION_THRESHOLD));
+    }
+
+    /**
+     * Creates a lock manager with the default escalation threshold.
+     *
+     * @see #LockManager(WaitPolicy, long, long, int)
+     */
+    public LockManager(WaitPolicy policy, long timeoutMillis, long detectIntervalMillis) {
+        this(policy, timeoutMillis, detectIntervalMillis, DEFAULT_ESCALATION_THRESHOLD);
+    }
+
+    /**
+     * Creates a lock manager.
+     *
+     * @param policy what conflicting requests do
+     * @param timeoutMillis how long a request waits at least before its
+     *                      transaction is aborted; each wait is stretched by
+     *                      up to half of this at random, so that transactions
+     *                      caught in the same deadlock do not all give up
+     *                      together
+     * @param detectIntervalMillis how often the deadlock detector looks for
+     *                             deadlocks while requests wait
+     * @param escalationThreshold how many page locks on one table a
+     *                            transaction may take before they are
+     *                            escalated to a table lock; 0 turns
+     *                            escalation off
+     */
+    public LockManager(WaitPolicy policy, long timeoutMillis, long detectIntervalMillis, int escalationThreshold) {
+        for (int i = 0; i < SHARDS; i++)
+            shards[i] = new Shard();
+        this.policy = policy;
+        this.timeoutMillis = timeoutMillis;
+        this.escalationThreshold = escalationThreshold;
+        this.detector = policy == WaitPolicy.WAIT ? new DeadlockDetector(this, detectIntervalMillis) : null;
+    }
+
+    public WaitPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns the deadlock detector, for its metrics, or null under NO_WAIT.
+     */
+    public DeadlockDetector getDeadlockDetector() {
+        return detector;
+    }
+
+    public void lock(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
+        lock(tid, pid, LockMode.of(perm));
+    }
+
+    /**
+     * Locks a page or table in the given mode, after taking the intention
+     * lock a page needs on its table. Waits under the WAIT policy until the
+     * lock is granted.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page, or the TableLockId of the table, to lock
+     * @param mode the mode to lock it in; S or X for a page
+     * @throws TransactionAbortedException if the lock cannot be granted
+     */
+    public void lock(TransactionId tid, PageId pid, LockMode mode) throws TransactionAbortedException {
+        _lock(tid, pid, mode, true);
+    }
+
+    /**
+     * Grants a lock if that is possible without waiting, whatever the policy.
+     *
+     * @return true if the transaction holds the lock now
+     */
+    public boolean tryLock(TransactionId tid, PageId pid, Permissions perm) {
+        return tryLock(tid, pid, LockMode.of(perm));
+    }
+
+    /**
+     * Grants a lock in the given mode if that is possible without waiting,
+     * whatever the policy.
+     *
+     * @return true if the transaction holds the lock now
+     */
+    public boolean tryLock(TransactionId tid, PageId pid, LockMode mode) {
+        try {
+            return _lock(tid, pid, mode, false);
+        } catch (TransactionAbortedException e) {
+            // only a request that may wait aborts
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private boolean _lock(TransactionId tid, PageId pid, LockMode mode, boolean wait)
+            throws TransactionAbortedException {
+        TxnLocks txn = _txn(tid);
+        if (_holds(txn, pid, mode))
+            return true;
+
+        if (pid instanceof TableLockId)
+            return _acquire(txn, tid, pid, mode, wait);
+
+        TableLockId table = new TableLockId(pid.getTableId());
+        LockMode tableMode = txn.locks.get(table);
+        if (tableMode != null && tableMode.covers(mode))
+            return true;
+        if (tableMode == null || !tableMode.covers(mode.intention())) {
+            if (!_acquire(txn, tid, table, mode.intention(), wait))
+                return false;
+        }
+        boolean fresh = !txn.locks.containsKey(pid);
+        if (!_acquire(txn, tid, pid, mode, wait))
+            return false;
+        if (fresh) {
+            int pages = txn.tablePages.merge(table.getTableId(), 1, Integer::sum);
+            if (escalationThreshold > 0 && pages > escalationThreshold && (pages - 1) % escalationThreshold == 0)
+                _escalate(txn, tid, table);
         }
+        return true;
+    }
+
+    /**
+     * Replaces the transaction's page locks on a table with a table lock,
+     * S if it only read pages and X otherwise, if that lock can be granted
+     * right away.
+     */
+    private void _escalate(TxnLocks txn, TransactionId tid, TableLockId table) {
+        LockMode target = txn.locks.get(table) == LockMode.IS ? LockMode.S : LockMode.X;
+        if (!tryLock(tid, table, target))
+            return;
 
-        Set<TransactionId> stids = _getSLock(pid);
-        stids.add(tid);
-        page2txn_sh.put(pid, stids);
+        int released = 0;
+        for (PageId pid : txn.locks.keySet()) {
+            if (pid.getTableId() != table.getTableId() || pid instanceof TableLockId)
+                continue;
+            txn.locks.remove(pid);
+            Shard shard = _shardOf(pid);
+            synchronized (shard) {
+                _release(shard, tid, pid);
+            }
+            released++;
+        }
+        txn.tablePages.remove(table.getTableId());
+        escalations.increment();
+        Debug.log("escalated %d page locks of transaction %d to a %s lock on table %d",
+                released, tid.getId(), target, table.getTableId());
     }
 
-    private synchronized void _xLock (TransactionId tid, PageId pid) throws TransactionAbortedException {
-        // check X-lock
-        TransactionId xtid = _getXLock(pid);
-        if (xtid != null) {
-            if (xtid.equals(tid) == false)
+    /**
+     * Grants a lock on pid alone, waiting for it if wait is set.
+     *
+     * @return true if the transaction holds the lock now
+     */
+    private boolean _acquire(TxnLocks txn, TransactionId tid, PageId pid, LockMode mode, boolean wait)
+            throws TransactionAbortedException {
+        if (_holds(txn, pid, mode))
+            return true;
+
+        Shard shard = _shardOf(pid);
+        synchronized (shard) {
+            LockState state = shard.locks.get(pid);
+            if (state == null) {
+                state = new LockState();
+                shard.locks.put(pid, state);
+            }
+            LockMode held = state.holders.get(tid);
+            LockMode target = held == null ? mode : held.join(mode);
+            boolean queued = state.queue != null;
+            if ((held != null || !queued) && _grantable(state, tid, held, target)) {
+                _grant(state, txn, tid, pid, target);
+                return true;
+            }
+            if (!wait)
+                return false;
+
+            if (policy == WaitPolicy.NO_WAIT || (held != null && queued
+                    && _upgradesConflict(state.queue.peekFirst(), held, target))) {
+                aborts.increment();
                 throw new TransactionAbortedException();
+            }
+            _await(shard, state, new Request(tid, txn, pid, target, held));
+            return true;
+        }
+    }
 
-            return;
+    /**
+     * Returns true if an upgrade from held to target and the request q, if
+     * it is an upgrade too, would each wait for the lock the other holds.
+     */
+    private static boolean _upgradesConflict(Request q, LockMode held, LockMode target) {
+        return q.isUpgrade() && !q.mode.compatibleWith(held) && !target.compatibleWith(q.held);
+    }
+
+    /** Queues a request and waits until it is granted; must hold shard. */
+    private void _await(Shard shard, LockState state, Request r) throws TransactionAbortedException {
+        if (state.queue == null)
+            state.queue = new ArrayDeque<>();
+        if (r.isUpgrade())
+            state.queue.addFirst(r);
+        else
+            state.queue.addLast(r);
+        synchronized (r.txn) {
+            r.txn.waiting.add(r);
         }
+        waits.increment();
+        waitingRequests.incrementAndGet();
+        detector.wakeup();
 
-        Set<TransactionId> stids = _getSLock(pid);
-        // more than 1 S-lock
-        if (stids.size() > 1)
+        long deadline = System.currentTimeMillis() + timeoutMillis
+                + ThreadLocalRandom.current().nextLong(timeoutMillis / 2 + 1);
+        try {
+            while (!r.granted) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (r.cancelled || remaining <= 0) {
+                    aborts.increment();
+                    throw r.deadlocked ? new DeadlockException() : new TransactionAbortedException();
+                }
+                shard.wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            aborts.increment();
             throw new TransactionAbortedException();
+        } finally {
+            waitingRequests.decrementAndGet();
+            synchronized (r.txn) {
+                r.txn.waiting.remove(r);
+            }
+            if (!r.granted)
+                _dequeue(shard, r);
+        }
+    }
 
-        // check upgrade
-        if (stids.size() == 1 && stids.contains(tid) == false)
-            throw new TransactionAbortedException();
+    /** Takes an ungranted request out of its queue; must hold shard. */
+    private void _dequeue(Shard shard, Request r) {
+        LockState state = shard.locks.get(r.pid);
+        if (state == null || state.queue == null || !state.queue.remove(r))
+            return;
+        if (state.queue.isEmpty())
+            state.queue = null;
+        // whoever waited behind it may go now
+        _grantWaiters(shard, r.pid, state);
+    }
 
-        stids.clear();
+    private Shard _shardOf(PageId pid) {
+        int h = pid.hashCode();
+        return shards[(h ^ (h >>> 16)) & (SHARDS - 1)];
+    }
 
-        page2txn_ex.put(pid, tid);
+    private TxnLocks _txn(TransactionId tid) {
+        TxnLocks txn = txn2page.get(tid);
+        return txn != null ? txn : txn2page.computeIfAbsent(tid, k -> new TxnLocks());
     }
 
-    public synchronized void unLock(TransactionId tid, PageId pid) {
-        if(hasLock(tid, pid) == false) return;
+    /** Returns true if the transaction holds a lock on pid that covers the request. */
+    private static boolean _holds(TxnLocks txn, PageId pid, LockMode mode) {
+        LockMode held = txn.locks.get(pid);
+        return held != null && held.covers(mode);
+    }
+
+    /**
+     * Returns true if no other transaction holds a lock that conflicts with
+     * target, given that tid holds the lock in mode held, or null; must
+     * hold shard.
+     */
+    private static boolean _grantable(LockState state, TransactionId tid, LockMode held, LockMode target) {
+        for (LockMode m : MODES) {
+            int others = state.counts[m.ordinal()] - (m == held ? 1 : 0);
+            if (others > 0 && !m.compatibleWith(target))
+                return false;
+        }
+        return true;
+    }
 
-        Set<PageId> pids = txn2page.get(tid);
-        pids.remove(pid);
+    /** Records a granted lock, replacing the one tid held; must hold shard. */
+    private static void _grant(LockState state, TxnLocks txn, TransactionId tid, PageId pid, LockMode target) {
+        LockMode held = state.holders.put(tid, target);
+        if (held != null)
+            state.counts[held.ordinal()]--;
+        state.counts[target.ordinal()]++;
+        txn.locks.put(pid, target);
+    }
 
-        // release X-lock
-        if (page2txn_ex.containsKey(pid) ) {
-            page2txn_ex.remove(pid);
-        } else {
-        // release S-lock
-            Set<TransactionId> tids = page2txn_sh.get(pid);
-            tids.remove(tid);
+    /**
+     * Grants the requests at the head of pid's queue for as long as they
+     * no longer conflict, and drops the lock state once nothing holds or
+     * waits for it. Must hold shard.
+     */
+    private static void _grantWaiters(Shard shard, PageId pid, LockState state) {
+        boolean granted = false;
+        while (state.queue != null) {
+            Request r = state.queue.peekFirst();
+            if (!_grantable(state, r.tid, r.held, r.mode))
+                break;
+            state.queue.pollFirst();
+            if (state.queue.isEmpty())
+                state.queue = null;
+            _grant(state, r.txn, r.tid, pid, r.mode);
+            r.granted = true;
+            granted = true;
         }
+        if (state.queue == null && state.holders.isEmpty())
+            shard.locks.remove(pid);
+        if (granted)
+            shard.notifyAll();
     }
 
-    public synchronized boolean hasLock(TransactionId tid, PageId pid) {
-        Set<PageId> pids = txn2page.get(tid);
+    /** Drops tid's lock on pid from the lock table; must hold shard. */
+    private static void _release(Shard shard, TransactionId tid, PageId pid) {
+        LockState state = shard.locks.get(pid);
+        if (state == null)
+            return;
+        LockMode held = state.holders.remove(tid);
+        if (held != null)
+            state.counts[held.ordinal()]--;
+        _grantWaiters(shard, pid, state);
+    }
 
-        if (txn2page.get(tid) == null)
+    public void unLock(TransactionId tid, PageId pid) {
+        TxnLocks txn = txn2page.get(tid);
+        if (txn == null || txn.locks.remove(pid) == null)
+            return;
+
+        Shard shard = _shardOf(pid);
+        synchronized (shard) {
+            _release(shard, tid, pid);
+        }
+        if (!(pid instanceof TableLockId)) {
+            txn.tablePages.computeIfPresent(pid.getTableId(), (k, n) -> n > 1 ? n - 1 : null);
+            _releaseIntention(txn, tid, pid.getTableId());
+        }
+    }
+
+    /**
+     * Drops the transaction's intention lock on a table once it holds no
+     * page lock of the table that needs it.
+     */
+    private void _releaseIntention(TxnLocks txn, TransactionId tid, int tableId) {
+        TableLockId table = new TableLockId(tableId);
+        LockMode mode = txn.locks.get(table);
+        if ((mode == LockMode.IS || mode == LockMode.IX) && !txn.tablePages.containsKey(tableId))
+            unLock(tid, table);
+    }
+
+    /**
+     * Returns true if the transaction holds a lock on pid, or, for a page,
+     * a lock on its table that lets it read the page.
+     */
+    public boolean hasLock(TransactionId tid, PageId pid) {
+        TxnLocks txn = txn2page.get(tid);
+        if (txn == null)
+            return false;
+        if (txn.locks.containsKey(pid))
+            return true;
+        if (pid instanceof TableLockId)
             return false;
+        LockMode table = txn.locks.get(new TableLockId(pid.getTableId()));
+        return table != null && table.covers(LockMode.S);
+    }
 
-        return pids.contains(pid);
+    /**
+     * Returns the mode the transaction holds its own lock on pid in, or
+     * null if it holds none.
+     */
+    public LockMode getLockMode(TransactionId tid, PageId pid) {
+        TxnLocks txn = txn2page.get(tid);
+        return txn == null ? null : txn.locks.get(pid);
     }
 
-    public synchronized void releaseLocksOnTransaction(TransactionId tid) {
-        Set<PageId> pids = txn2page.get(tid);
-        if (pids == null)
+    /**
+     * Releases every lock of a transaction, and aborts the requests it is
+     * still waiting on, for instance in another thread.
+     */
+    public void releaseLocksOnTransaction(TransactionId tid) {
+        TxnLocks txn = txn2page.remove(tid);
+        if (txn == null)
             return;
 
-        Set<PageId> toRelease = new HashSet<>(pids);
+        _cancel(txn, false);
+        for (PageId pid : txn.locks.keySet()) {
+            Shard shard = _shardOf(pid);
+            synchronized (shard) {
+                _release(shard, tid, pid);
+            }
+        }
+        txn.locks.clear();
+    }
+
+    /** Aborts the requests a transaction is waiting on. */
+    private void _cancel(TxnLocks txn, boolean deadlocked) {
+        List<Request> pending;
+        synchronized (txn) {
+            if (txn.waiting.isEmpty())
+                return;
+            pending = new ArrayList<>(txn.waiting);
+            txn.waiting.clear();
+        }
+        for (Request r : pending) {
+            Shard shard = _shardOf(r.pid);
+            synchronized (shard) {
+                if (r.granted)
+                    continue;
+                r.cancelled = true;
+                r.deadlocked = deadlocked;
+                _dequeue(shard, r);
+                shard.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Aborts the requests a transaction is waiting on with a
+     * DeadlockException, to break a deadlock it is part of.
+     */
+    void abortDeadlocked(TransactionId tid) {
+        TxnLocks txn = txn2page.get(tid);
+        if (txn != null)
+            _cancel(txn, true);
+    }
+
+    /** Returns true if any request is waiting. */
+    boolean hasWaiters() {
+        return waitingRequests.get() > 0;
+    }
+
+    /**
+     * Runs an action with every shard latched, in shard order, so that it
+     * sees and changes the whole lock table at one point in time.
+     */
+    <T> T withAllShards(Supplier<T> action) {
+        return _withShards(0, action);
+    }
+
+    private <T> T _withShards(int i, Supplier<T> action) {
+        if (i == SHARDS)
+            return action.get();
+        synchronized (shards[i]) {
+            return _withShards(i + 1, action);
+        }
+    }
+
+    /**
+     * Builds the waits-for graph: each waiting transaction maps to the
+     * transactions it waits for, which are the holders of locks that
+     * conflict with its requests and the transactions with conflicting
+     * requests queued ahead of them. Must be called within
+     * {@link #withAllShards}.
+     */
+    Map<TransactionId, Set<TransactionId>> waitsForGraph() {
+        Map<TransactionId, Set<TransactionId>> graph = new HashMap<>();
+        for (Shard shard : shards) {
+            for (LockState state : shard.locks.values()) {
+                if (state.queue == null)
+                    continue;
+                List<Request> ahead = new ArrayList<>();
+                for (Request r : state.queue) {
+                    Set<TransactionId> out = graph.computeIfAbsent(r.tid, k -> new HashSet<>());
+                    for (Map.Entry<TransactionId, LockMode> h : state.holders.entrySet()) {
+                        if (!h.getValue().compatibleWith(r.mode))
+                            out.add(h.getKey());
+                    }
+                    for (Request a : ahead) {
+                        if (!a.mode.compatibleWith(r.mode))
+                            out.add(a.tid);
+                    }
+                    out.remove(r.tid);
+                    ahead.add(r);
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Returns the pages a transaction holds locks on. The set is a live
+     * view, safe to iterate while locks are taken and released.
+     */
+    public Set<PageId> getPids(TransactionId tid) {
+        TxnLocks txn = txn2page.get(tid);
+        if (txn == null)
+            return Collections.emptySet();
+        return Collections.unmodifiableSet(txn.locks.keySet());
+    }
 
-        for(PageId pid : toRelease)
-            unLock(tid, pid);
+    /** Returns the number of requests that had to wait. */
+    public long getWaits() {
+        return waits.sum();
     }
 
-    private synchronized Set<TransactionId> _getSLock(PageId pid) {
-        return page2txn_sh.getOrDefault(pid, new HashSet<>());
+    /** Returns the number of requests that aborted their transaction, at once or after waiting. */
+    public long getAborts() {
+        return aborts.sum();
     }
 
-    private synchronized TransactionId _getXLock(PageId pid) {
-        return page2txn_ex.getOrDefault(pid, null);
+    /** Returns how many page locks on one table a transaction may take before they are escalated. */
+    public int getEscalationThreshold() {
+        return escalationThreshold;
     }
 
-    public synchronized Set<PageId> getPids(TransactionId tid) {
-        Set<PageId> pids = txn2page.getOrDefault(tid, new HashSet<>());
-        return pids;
+    /** Returns the number of times page locks were escalated to a table lock. */
+    public long getEscalations() {
+        return escalations.sum();
     }
 }
@@ -6,6 +6,8 @@ import simpledb.storage.IntField;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -28,6 +30,15 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                return new IntField(buf.getInt());
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,15 +57,83 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            int start = buf.position();
+            try {
+                int strLen = buf.getInt();
+                if (strLen < 0 || strLen > STRING_LEN)
+                    throw new ParseException("bad string length " + strLen, start);
+                byte[] bs = new byte[strLen];
+                buf.get(bs);
+                buf.position(start + getLen());
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new ParseException("couldn't parse", start);
+            }
+        }
+    }, VARCHAR_TYPE() {
+        /**
+         * A VARCHAR takes four bytes for its length plus one per character,
+         * up to STRING_LEN characters; this returns the most it can take.
+         */
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public int getLen(byte[] raw, int offset) {
+            return 4 + ByteBuffer.wrap(raw).getInt(offset);
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readInt();
+                if (strLen < 0 || strLen > STRING_LEN)
+                    throw new ParseException("bad string length " + strLen, 0);
+                byte[] bs = new byte[strLen];
+                dis.readFully(bs);
+                return new StringField(new String(bs), STRING_LEN, VARCHAR_TYPE);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            int start = buf.position();
+            try {
+                int strLen = buf.getInt();
+                if (strLen < 0 || strLen > STRING_LEN)
+                    throw new ParseException("bad string length " + strLen, start);
+                byte[] bs = new byte[strLen];
+                buf.get(bs);
+                return new StringField(new String(bs), STRING_LEN, VARCHAR_TYPE);
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", start);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
 
   /**
-   * @return the number of bytes required to store a field of this type.
+   * @return the number of bytes required to store a field of this type, or
+   *   for a variable-length type, the most a field of it can take.
    */
     public abstract int getLen();
 
+  /**
+   * @return the number of bytes taken by the field of this type that is
+   *   encoded at the given offset of raw.
+   */
+    public int getLen(byte[] raw, int offset) {
+        return getLen();
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
@@ -64,4 +143,15 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the current position of the specified buffer. The position
+   *   is advanced past the field, by {@link #getLen()} bytes for a type of
+   *   fixed length.
+   * @param buf The buffer to read from
+   * @throws ParseException if the data read from the buffer is not
+   *   of the appropriate type.
+   */
+    public abstract Field parse(ByteBuffer buf) throws ParseException;
+
 }
@@ -52,7 +52,7 @@ public class Aggregate extends Operator {
 
         if(agtype == Type.INT_TYPE) {
             agg = new IntegerAggregator(gfield, gbtype, afield, aop);
-        } else if (agtype == Type.STRING_TYPE) {
+        } else if (agtype == Type.STRING_TYPE || agtype == Type.VARCHAR_TYPE) {
             agg = new StringAggregator(gfield, gbtype, afield, aop);
         } 
     }
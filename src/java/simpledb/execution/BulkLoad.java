@@ -0,0 +1,109 @@
+package simpledb.execution;
+
+import java.io.File;
+import java.io.IOException;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.BulkLoader;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Loads the lines of a text file into the tableId specified in the
+ * constructor with a BulkLoader, which appends whole pages to the table's
+ * file instead of inserting tuple by tuple. This is the operator behind
+ * LOAD DATA INFILE statements.
+ *
+ * @see BulkLoader#load
+ */
+public class BulkLoad extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final File source;
+    private final int tableId;
+    private final char separator;
+    private final TupleDesc td;
+    private boolean hasBeenCalled;
+
+    /**
+     * Constructor.
+     *
+     * @param t
+     *            The transaction running the load.
+     * @param source
+     *            The text file to load, one tuple per line.
+     * @param tableId
+     *            The table in which to load tuples.
+     * @param separator
+     *            The character between the fields of a line.
+     * @throws DbException
+     *             if the table is not stored in a HeapFile.
+     */
+    public BulkLoad(TransactionId t, File source, int tableId, char separator)
+            throws DbException {
+        if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile))
+            throw new DbException("bulk loads only go into heap files");
+        this.tid = t;
+        this.source = source;
+        this.tableId = tableId;
+        this.separator = separator;
+        this.td = new TupleDesc(new Type[]{Type.INT_TYPE});
+        this.hasBeenCalled = false;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        this.hasBeenCalled = false;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.hasBeenCalled = false;
+    }
+
+    /**
+     * Loads the source file into the table.
+     *
+     * @return A 1-field tuple containing the number of loaded records, or
+     *         null if called more than once.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (this.hasBeenCalled)
+            return null;
+
+        this.hasBeenCalled = true;
+
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tableId);
+        int count;
+        try {
+            count = BulkLoader.load(this.tid, (HeapFile) file, this.source, this.separator);
+        } catch (IOException e) {
+            throw new DbException("Load failed: " + e.getMessage());
+        }
+
+        Tuple loadResults = new Tuple(this.td);
+        loadResults.setField(0, new IntField(count));
+        return loadResults;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
@@ -22,7 +22,10 @@ public class IntegerAggregator implements Aggregator {
     private Type gbfieldtype;
     private int afield;
     private Op what;
-    private HashMap<Field, ArrayList<Integer>> groups;
+    /** The running count, sum, minimum and maximum of each group. */
+    private HashMap<Field, int[]> groups;
+
+    private static final int COUNT = 0, SUM = 1, MIN = 2, MAX = 3;
 
     /**
      * Aggregate constructor
@@ -44,7 +47,7 @@ public class IntegerAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        this.groups = new HashMap<Field, ArrayList<Integer>>();
+        this.groups = new HashMap<Field, int[]>();
     }
 
     /**
@@ -57,19 +60,19 @@ public class IntegerAggregator implements Aggregator {
     public void mergeTupleIntoGroup(Tuple tup) {
         // 1. get gbfield, agfield
         Field gbf = this.gbfield == NO_GROUPING ? null : tup.getField(this.gbfield);
-        Field agf = tup.getField(this.afield);
+        int agv = tup.getTupleDesc().getFieldType(this.afield) == Type.INT_TYPE ? tup.getInt(this.afield) : 0;
 
         // 2. add to groups
-        ArrayList<Integer> arr = this.groups.get(gbf);
-        if (arr == null) {
-            arr = new ArrayList<Integer>();
-            this.groups.put(gbf, arr);
+        int[] agg = this.groups.get(gbf);
+        if (agg == null) {
+            agg = new int[] { 0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE };
+            this.groups.put(gbf, agg);
         }
 
-        if (agf.getType() == Type.INT_TYPE)
-            arr.add(((IntField)(agf)).getValue());
-        else
-            arr.add(0);
+        agg[COUNT]++;
+        agg[SUM] += agv;
+        agg[MIN] = Math.min(agg[MIN], agv);
+        agg[MAX] = Math.max(agg[MAX], agv);
     }
 
     /**
@@ -88,35 +91,28 @@ public class IntegerAggregator implements Aggregator {
             td = new TupleDesc(new Type []{this.gbfieldtype, Type.INT_TYPE});
 
         ArrayList<Tuple> tuples = new ArrayList<>();
-        for (Map.Entry<Field, ArrayList<Integer>> entry : this.groups.entrySet()) {
+        for (Map.Entry<Field, int[]> entry : this.groups.entrySet()) {
 
             Field f = entry.getKey();
-            ArrayList<Integer> arr = entry.getValue();
+            int[] agg = entry.getValue();
 
             int val = 0;
 
             switch (this.what) {
                 case AVG:
-                    for (int i : arr) val += i;
-                    val /= arr.size();
+                    val = agg[SUM] / agg[COUNT];
                     break;
                 case MAX:
-                    int max = Integer.MIN_VALUE;
-                    for (int i : arr)
-                        max = Math.max(max, i);
-                    val = max;
+                    val = agg[MAX];
                     break;
                 case MIN:
-                    int min = Integer.MAX_VALUE;
-                    for (int i : arr)
-                        min = Math.min(min, i);
-                    val = min;
+                    val = agg[MIN];
                     break;
                 case SUM:
-                    for (int i : arr) val += i;
+                    val = agg[SUM];
                     break;
                 case COUNT:
-                    val = arr.size();
+                    val = agg[COUNT];
                     break;
                 case SC_AVG:
                     break;
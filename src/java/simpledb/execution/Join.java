@@ -72,25 +72,15 @@ public class Join extends Operator {
         return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
-    private Tuple MergeTuple(Tuple t1, Tuple t2) {
-        Tuple t3 = new Tuple(this.getTupleDesc());
-
-        int n1 = child1.getTupleDesc().numFields();
-        int n2 = child2.getTupleDesc().numFields();
-
-        // merge tuple
-        for (int i = 0; i < n1; ++i)
-            t3.setField(i, t1.getField(i));
-
-        for (int i = 0; i < n2; ++i)
-            t3.setField(n1 + i, t2.getField(i));
-
-        return t3;
+    private Tuple MergeTuple(TupleDesc td, Tuple t1, Tuple t2) {
+        // refers to t1 and t2 instead of copying their fields
+        return new Tuple(td, t1, t2);
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         this.child1.open();
+        TupleDesc td = this.getTupleDesc();
 
         while (this.child1.hasNext()) {
             Tuple t1 = this.child1.next();
@@ -99,7 +89,7 @@ public class Join extends Operator {
             while(this.child2.hasNext()) {
                 Tuple t2 = this.child2.next();
                 if(this.getJoinPredicate().filter(t1, t2) == true) {
-                    this.childTups.add(this.MergeTuple(t1, t2));
+                    this.childTups.add(this.MergeTuple(td, t1, t2));
                 }
             }
         }
@@ -1,6 +1,8 @@
 package simpledb.execution;
 
+import simpledb.common.Type;
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 
 import java.io.Serializable;
@@ -44,6 +46,8 @@ public class JoinPredicate implements Serializable {
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
+        if (t1.getTupleDesc().getFieldType(this.field1) == Type.INT_TYPE)
+            return IntField.compare(t1.getInt(this.field1), this.op, t2.getInt(this.field2));
         Field f1 = t1.getField(this.getField1());
         Field f2 = t2.getField(this.getField2());
         return f1.compare(this.getOperator(), f2);
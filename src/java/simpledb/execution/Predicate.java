@@ -1,6 +1,7 @@
 package simpledb.execution;
 
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 
 import java.io.Serializable;
@@ -102,6 +103,8 @@ public class Predicate implements Serializable {
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {
+        if (this.operand instanceof IntField)
+            return IntField.compare(t.getInt(this.field), this.op, ((IntField) this.operand).getValue());
         return t.getField(this.getField()).compare(this.getOp(), this.getOperand());
     }
 
@@ -16,7 +16,7 @@ public class Project extends Operator {
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Integer> outFieldIds;
+    private final int[] outFields;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -34,12 +34,13 @@ public class Project extends Operator {
     public Project(List<Integer> fieldList, Type[] types,
                    OpIterator child) {
         this.child = child;
-        outFieldIds = fieldList;
+        outFields = new int[fieldList.size()];
         String[] fieldAr = new String[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
 
         for (int i = 0; i < fieldAr.length; i++) {
             fieldAr[i] = childtd.getFieldName(fieldList.get(i));
+            outFields[i] = fieldList.get(i);
         }
         td = new TupleDesc(types, fieldAr);
     }
@@ -72,13 +73,8 @@ public class Project extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         if (!child.hasNext()) return null;
-        Tuple t = child.next();
-        Tuple newTuple = new Tuple(td);
-        newTuple.setRecordId(t.getRecordId());
-        for (int i = 0; i < td.numFields(); i++) {
-            newTuple.setField(i, t.getField(outFieldIds.get(i)));
-        }
-        return newTuple;
+        // refers to the child's tuple instead of copying its fields
+        return new Tuple(td, child.next(), outFields);
     }
 
     @Override
@@ -1,10 +1,12 @@
 package simpledb.execution;
 
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.BufferRing;
 import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
@@ -26,6 +28,8 @@ public class SeqScan implements OpIterator {
     private String tableAlias;
     private DbFile file;
     private DbFileIterator iter;
+    private boolean ringScan;
+    private boolean tableLock;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -44,11 +48,56 @@ public class SeqScan implements OpIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, false);
+    }
+
+    /**
+     * Creates a sequential scan over the specified table that optionally
+     * reads through a private {@link BufferRing}. A ring scan recycles a few
+     * frames of its own instead of evicting the rest of the buffer pool, which
+     * is what a scan over a table larger than the pool should do.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     * @param ringScan
+     *            whether to read the table through a buffer ring
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, boolean ringScan) {
+        this(tid, tableid, tableAlias, ringScan, false);
+    }
+
+    /**
+     * Creates a sequential scan over the specified table that optionally
+     * reads through a private {@link BufferRing} and optionally locks the
+     * whole table shared when it opens. A table-locked scan takes one lock
+     * instead of one per page, at the price of keeping out writers of pages
+     * it has not reached yet.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     * @param ringScan
+     *            whether to read the table through a buffer ring
+     * @param tableLock
+     *            whether to lock the table instead of each page
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, boolean ringScan, boolean tableLock) {
         this.tid = tid;
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.ringScan = ringScan;
+        this.tableLock = tableLock;
         this.file = Database.getCatalog().getDatabaseFile(tableid);
-        this.iter = file.iterator(tid);
+        this.iter = ringScan
+                ? file.iterator(tid, Database.getBufferPool().newBufferRing())
+                : file.iterator(tid);
     }
 
     /**
@@ -60,6 +109,20 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(this.tableid);
     }
 
+    /**
+     * @return true if this scan reads the table through a buffer ring
+     * */
+    public boolean isRingScan() {
+        return this.ringScan;
+    }
+
+    /**
+     * @return true if this scan locks the whole table rather than its pages
+     * */
+    public boolean isTableLocked() {
+        return this.tableLock;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -89,6 +152,8 @@ public class SeqScan implements OpIterator {
     }
 
     public void open() throws DbException, TransactionAbortedException {
+        if (this.tableLock)
+            Database.getBufferPool().lockTable(this.tid, this.tableid, Permissions.READ_ONLY);
         this.iter.open();
     }
 
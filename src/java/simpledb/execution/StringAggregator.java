@@ -50,7 +50,6 @@ public class StringAggregator implements Aggregator {
     public void mergeTupleIntoGroup(Tuple tup) {
         // 1. get gbfield, agfield
         Field gbf = this.gbfield == NO_GROUPING ? null : tup.getField(this.gbfield);
-        Field agf = tup.getField(this.afield);
 
         // 2. add to groups
         int v = this.groups.getOrDefault(gbf, 0);
@@ -1,6 +1,7 @@
 package simpledb.index;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import simpledb.common.Database;
@@ -32,6 +33,9 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private final DbFileChannel channel;
+	/** The size of this file's pages other than the root pointer page, or 0 to follow BufferPool.getPageSize(). */
+	private final int pageSize;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -42,10 +46,27 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, 0);
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file, whose pages are
+	 * pageSize bytes long instead of BufferPool.getPageSize().
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param pageSize - the size of the file's pages in bytes, or 0 for
+	 *            BufferPool.getPageSize()
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, int pageSize) {
 		this.f = f;
+		this.pageSize = pageSize;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.channel = new DbFileChannel(f);
 	}
 
 	/**
@@ -68,6 +89,11 @@ public class BTreeFile implements DbFile {
 		return tableid;
 	}
 
+	// see DbFile.java for javadocs
+	public int getPageSize() {
+		return pageSize > 0 ? pageSize : BufferPool.getPageSize();
+	}
+
 	/**
 	 * Returns the TupleDesc of the table stored in this DbFile.
 	 * 
@@ -87,49 +113,52 @@ public class BTreeFile implements DbFile {
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
-            if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-                byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                return new BTreeRootPtrPage(id, pageBuf);
-            } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        // Close the file on success or error
-        // Ignore failures closing the file
-    }
+		try {
+			if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+				byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
+				readPageData(pageBuf, 0);
+				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+				return new BTreeRootPtrPage(id, pageBuf);
+			} else {
+				byte[] pageBuf = new byte[getPageSize()];
+				readPageData(pageBuf, pageOffset(id.getPageNumber()));
+				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+				if (id.pgcateg() == BTreePageId.INTERNAL) {
+					return new BTreeInternalPage(id, pageBuf, keyField);
+				} else if (id.pgcateg() == BTreePageId.LEAF) {
+					return new BTreeLeafPage(id, pageBuf, keyField);
+				} else { // id.pgcateg() == BTreePageId.HEADER
+					return new BTreeHeaderPage(id, pageBuf);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Fill pageBuf with the bytes at the given offset of the file
+	 *
+	 * @throws IllegalArgumentException if the file does not hold a whole page at offset
+	 */
+	private void readPageData(byte[] pageBuf, long offset) throws IOException {
+		int retval = channel.read(pageBuf, offset);
+		if (retval == -1) {
+			throw new IllegalArgumentException("Read past end of table");
+		}
+		if (retval < pageBuf.length) {
+			throw new IllegalArgumentException("Unable to read "
+					+ pageBuf.length + " bytes from BTreeFile");
+		}
+	}
+
+	/**
+	 * Returns the file offset of the given page number. Page 0 is the root
+	 * pointer page, which is smaller than the other pages.
+	 */
+	private long pageOffset(int pageNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNo - 1) * getPageSize();
+	}
 
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
@@ -140,17 +169,32 @@ public class BTreeFile implements DbFile {
 	public void writePage(Page page) throws IOException {
 		BTreePageId id = (BTreePageId) page.getId();
 		
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
+		ByteBuffer data = PageBuffers.encode(page);
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			channel.write(data, 0);
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			channel.write(data, pageOffset(page.getId().getPageNumber()));
+		}
+	}
+
+	/**
+	 * Write several pages to disk, ordered by page number, merging pages that
+	 * are adjacent in the file into single writes. This should not be called
+	 * directly but should be called from the BufferPool when pages are flushed
+	 * to disk
+	 * 
+	 * @param pages - the pages to write to disk
+	 * @return the number of write calls issued
+	 */
+	public int writePages(List<Page> pages) throws IOException {
+		long[] offsets = new long[pages.size()];
+		for (int i = 0; i < pages.size(); i++) {
+			BTreePageId id = (BTreePageId) pages.get(i).getId();
+			offsets[i] = id.pgcateg() == BTreePageId.ROOT_PTR ? 0 : pageOffset(id.getPageNumber());
 		}
+		ByteBuffer[] blocks = PageBuffers.encode(pages);
+		return channel.write(offsets, blocks);
 	}
 	
 	/**
@@ -158,7 +202,7 @@ public class BTreeFile implements DbFile {
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ getPageSize());
 	}
 
 	/**
@@ -1008,13 +1052,10 @@ public class BTreeFile implements DbFile {
 		synchronized(this) {
 			if(f.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData(getPageSize());
+				channel.write(emptyRootPtrData, 0);
+				channel.write(emptyLeafData, emptyRootPtrData.length);
 			}
 		}
 
@@ -1061,7 +1102,7 @@ public class BTreeFile implements DbFile {
 				headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
 				int emptySlot = headerPage.getEmptySlot();
 				headerPage.markSlotUsed(emptySlot, true);
-				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots() + emptySlot;
+				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots(getPageSize()) + emptySlot;
 			}
 		}
 
@@ -1070,11 +1111,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				byte[] emptyData = BTreeInternalPage.createEmptyPageData(getPageSize());
+				channel.write(emptyData, channel.size());
 				emptyPageNo = numPages();
 			}
 		}
@@ -1105,10 +1143,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		channel.write(BTreePage.createEmptyPageData(getPageSize()), pageOffset(emptyPageNo));
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1173,7 +1208,7 @@ public class BTreeFile implements DbFile {
 
 		// iterate through all the existing header pages to find the one containing the slot
 		// corresponding to emptyPageNo
-		while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots(getPageSize()) < emptyPageNo) {
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
 			prevId = headerId;
 			headerId = headerPage.getNextPageId();
@@ -1183,7 +1218,7 @@ public class BTreeFile implements DbFile {
 		// at this point headerId should either be null or set with 
 		// the headerPage containing the slot corresponding to emptyPageNo.
 		// Add header pages until we have one with a slot corresponding to emptyPageNo
-		while((headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		while((headerPageCount + 1) * BTreeHeaderPage.getNumSlots(getPageSize()) < emptyPageNo) {
 			BTreeHeaderPage prevPage = (BTreeHeaderPage) getPage(tid, dirtypages, prevId, Permissions.READ_WRITE);
 			
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
@@ -1199,7 +1234,7 @@ public class BTreeFile implements DbFile {
 		// now headerId should be set with the headerPage containing the slot corresponding to 
 		// emptyPageNo
 		BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
-		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots();
+		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots(getPageSize());
 		headerPage.markSlotUsed(emptySlot, false);
 	}
 
@@ -1226,7 +1261,20 @@ public class BTreeFile implements DbFile {
 	 * @return an iterator for all the tuples in this file
 	 */
 	public DbFileIterator iterator(TransactionId tid) {
-		return new BTreeFileIterator(this, tid);
+		return new BTreeFileIterator(this, tid, null);
+	}
+
+	/**
+	 * Get an iterator for all tuples in this B+ tree file in sorted order that reads
+	 * the leaf pages through the given buffer ring, for scans too large for the
+	 * shared buffer pool.
+	 * 
+	 * @param tid - the transaction id
+	 * @param ring - the buffer ring the scan recycles
+	 * @return an iterator for all the tuples in this file
+	 */
+	public DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+		return new BTreeFileIterator(this, tid, ring);
 	}
 
 }
@@ -1238,18 +1286,22 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	ReadAhead readAhead = null;
 
 	final TransactionId tid;
 	final BTreeFile f;
+	final BufferRing ring;
 
 	/**
 	 * Constructor for this iterator
 	 * @param f - the BTreeFile containing the tuples
 	 * @param tid - the transaction id
+	 * @param ring - the buffer ring to read leaf pages through, or null
 	 */
-	public BTreeFileIterator(BTreeFile f, TransactionId tid) {
+	public BTreeFileIterator(BTreeFile f, TransactionId tid, BufferRing ring) {
 		this.f = f;
 		this.tid = tid;
+		this.ring = ring;
 	}
 
 	/**
@@ -1261,6 +1313,15 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		BTreePageId root = rootPtr.getRootId();
 		curp = f.findLeafPage(tid, root, null);
 		it = curp.iterator();
+		readAhead = new ReadAhead(BTreeFileIterator::rightSibling, ring);
+		readAhead.pageRead(curp);
+	}
+
+	/**
+	 * Successor function for read-ahead: leaves are scanned left to right
+	 */
+	static PageId rightSibling(Page p) {
+		return ((BTreeLeafPage) p).getRightSiblingId();
 	}
 
 	/**
@@ -1280,8 +1341,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 				curp = null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				curp = (BTreeLeafPage) readAhead.getPage(tid, nextp, Permissions.READ_ONLY);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1308,6 +1368,10 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		super.close();
 		it = null;
 		curp = null;
+		if (readAhead != null) {
+			readAhead.close();
+			readAhead = null;
+		}
 	}
 }
 
@@ -1319,6 +1383,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	ReadAhead readAhead = null;
 
 	final TransactionId tid;
 	final BTreeFile f;
@@ -1352,6 +1417,27 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 			curp = f.findLeafPage(tid, root, null);
 		}
 		it = curp.iterator();
+		readAhead = new ReadAhead(this::nextLeaf);
+		readAhead.pageRead(curp);
+	}
+
+	/**
+	 * Successor function for read-ahead: the right sibling, unless the largest
+	 * key on the page already ends the search, so that read-ahead does not read
+	 * leaves the scan will never visit
+	 */
+	PageId nextLeaf(Page p) {
+		BTreeLeafPage leaf = (BTreeLeafPage) p;
+		Iterator<Tuple> last = leaf.reverseIterator();
+		if (last.hasNext()) {
+			Field key = last.next().getField(f.keyField());
+			Op op = ipred.getOp();
+			if ((op == Op.LESS_THAN && !key.compare(Op.LESS_THAN, ipred.getField()))
+					|| ((op == Op.LESS_THAN_OR_EQ || op == Op.EQUALS)
+						&& key.compare(Op.GREATER_THAN, ipred.getField())))
+				return null;
+		}
+		return leaf.getRightSiblingId();
 	}
 
 	/**
@@ -1389,8 +1475,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 				return null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				curp = (BTreeLeafPage) readAhead.getPage(tid, nextp, Permissions.READ_ONLY);
 				it = curp.iterator();
 			}
 		}
@@ -1412,5 +1497,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		if (readAhead != null) {
+			readAhead.close();
+			readAhead = null;
+		}
 	}
 }
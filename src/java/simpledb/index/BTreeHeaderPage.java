@@ -4,12 +4,11 @@ import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Type;
 import simpledb.storage.BufferPool;
-import simpledb.storage.Field;
-import simpledb.storage.IntField;
 import simpledb.storage.Page;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -29,6 +28,8 @@ public class BTreeHeaderPage implements Page {
 	final BTreePageId pid;
 	final byte[] header;
 	final int numSlots;
+	/** The size of the pages of this page's table. */
+	private final int pageSize;
 
 	private int nextPage; // next header page or 0
 	private int prevPage; // previous header page or 0
@@ -46,32 +47,23 @@ public class BTreeHeaderPage implements Page {
 	 */
 	public BTreeHeaderPage(BTreePageId id, byte[] data) throws IOException {
 		this.pid = id;
-		this.numSlots = getNumSlots();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		this.pageSize = BufferPool.getPageSize(id.getTableId());
+		this.numSlots = getNumSlots(pageSize);
+		ByteBuffer buf = ByteBuffer.wrap(data);
 
 		// Read the next and prev pointers
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.nextPage = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.prevPage = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
+		this.nextPage = buf.getInt();
+		this.prevPage = buf.getInt();
 
 		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		header = new byte[getHeaderSize(pageSize)];
+		buf.get(header);
 
-		dis.close();
-
-		setBeforeImage();
+		// the page was just decoded from data, so data is its before image
+		synchronized(oldDataLock)
+		{
+			oldData = Arrays.copyOf(data, pageSize);
+		}
 	}
 
 	/**
@@ -84,17 +76,25 @@ public class BTreeHeaderPage implements Page {
 	/**
 	 * Computes the number of bytes in the header while saving room for pointers
 	 */
-	private static int getHeaderSize() {        
+	private static int getHeaderSize(int pageSize) {        
 		// pointerBytes: nextPage and prevPage pointers
 		int pointerBytes = 2 * INDEX_SIZE; 
-		return BufferPool.getPageSize() - pointerBytes;
+		return pageSize - pointerBytes;
 	}
 
 	/**
 	 * Computes the number of slots in the header
 	 */
 	public static int getNumSlots() {        
-		return getHeaderSize() * 8;
+		return getNumSlots(BufferPool.getPageSize());
+	}
+
+	/**
+	 * Computes the number of slots in the header of a table whose pages are
+	 * pageSize bytes long
+	 */
+	public static int getNumSlots(int pageSize) {        
+		return getHeaderSize(pageSize) * 8;
 	}
 
 	/** Return a view of this page before it was modified
@@ -118,7 +118,7 @@ public class BTreeHeaderPage implements Page {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = getPageData();
 		}
 	}
 
@@ -141,41 +141,17 @@ public class BTreeHeaderPage implements Page {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		// write out the next and prev pointers
-		try {
-			dos.writeInt(nextPage);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			dos.writeInt(prevPage);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		// create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		byte[] data = new byte[pageSize];
+		getPageData(ByteBuffer.wrap(data));
+		return data;
+	}
 
-		return baos.toByteArray();
+	// see Page.java for javadocs
+	public void getPageData(ByteBuffer dst) {
+		// write out the next and prev pointers, then the header of the page
+		dst.putInt(nextPage);
+		dst.putInt(prevPage);
+		dst.put(header);
 	}
 
 	/**
@@ -2,16 +2,15 @@ package simpledb.index;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import simpledb.common.Catalog;
 import simpledb.common.Database;
-import simpledb.common.Type;
 import simpledb.execution.Predicate.Op;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
-import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
 
 /**
@@ -54,7 +53,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * has m+1 pointers to children), and the category of all child pages (either 
 	 * leaf or internal).
 	 *  Specifically, the number of entries is equal to: <p>
-	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (entry size * 8 + 1))
+	 *          floor((page size*8 - extra bytes*8) / (entry size * 8 + 1))
 	 * <p> where entry size is the size of entries in this index node
 	 * (key + child pointer), which can be determined via the key field and 
 	 * {@link Catalog#getTupleDesc}.
@@ -73,23 +72,17 @@ public class BTreeInternalPage extends BTreePage {
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
 		this.numSlots = getMaxEntries() + 1;
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		ByteBuffer buf = ByteBuffer.wrap(data);
 
 		// Read the parent pointer
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.parent = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
+		this.parent = buf.getInt();
 
 		// read the child page category
-		childCategory = dis.readByte();
+		childCategory = buf.get();
 
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		buf.get(header);
 
 		keys = new Field[numSlots];
 		try{
@@ -98,7 +91,7 @@ public class BTreeInternalPage extends BTreePage {
 			// since a node with m keys has m+1 pointers
 			keys[0] = null;
 			for (int i=1; i<keys.length; i++)
-				keys[i] = readNextKey(dis,i);
+				keys[i] = readNextKey(buf,i);
 		}catch(NoSuchElementException e){
 			e.printStackTrace();
 		}
@@ -107,13 +100,16 @@ public class BTreeInternalPage extends BTreePage {
 		try{
 			// allocate and read the child pointers of this page
 			for (int i=0; i<children.length; i++)
-				children[i] = readNextChild(dis,i);
+				children[i] = readNextChild(buf,i);
 		}catch(NoSuchElementException e){
 			e.printStackTrace();
 		}
-		dis.close();
 
-		setBeforeImage();
+		// the page was just decoded from data, so data is its before image
+		synchronized(oldDataLock)
+		{
+			oldData = Arrays.copyOf(data, pageSize);
+		}
 	}
 
 	/** 
@@ -125,7 +121,7 @@ public class BTreeInternalPage extends BTreePage {
 		// extraBits are: one parent pointer, 1 byte for child page category, 
 		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
 		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1;
-        return (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader;
+        return (pageSize*8 - extraBits) / bitsPerEntryIncludingHeader;
 	}
 
 	/**
@@ -161,67 +157,42 @@ public class BTreeInternalPage extends BTreePage {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = getPageData();
 		}
 	}
 
 	/**
 	 * Read keys from the source file.
 	 */
-	private Field readNextKey(DataInputStream dis, int slotId) throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next key, and
-		// return null.
-		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getFieldType(keyField).getLen(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty key");
-				}
-			}
-			return null;
-		}
+	private Field readNextKey(ByteBuffer buf, int slotId) throws NoSuchElementException {
+		int start = buf.position();
+		int len = td.getFieldType(keyField).getLen();
 
-		// read the key field
+		// if associated bit is not set, skip to the next key, and
+		// return null.
 		Field f = null;
-		try {
-			f = td.getFieldType(keyField).parse(dis);
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-			throw new NoSuchElementException("parsing error!");
+		if (isSlotUsed(slotId)) {
+			// read the key field
+			try {
+				f = td.getFieldType(keyField).parse(buf);
+			} catch (java.text.ParseException e) {
+				e.printStackTrace();
+				throw new NoSuchElementException("parsing error!");
+			}
 		}
 
+		buf.position(start + len);
 		return f;
 	}
 
 	/**
 	 * Read child pointers from the source file.
 	 */
-	private int readNextChild(DataInputStream dis, int slotId) throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next child pointer, and
+	private int readNextChild(ByteBuffer buf, int slotId) throws NoSuchElementException {
+		// if associated bit is not set, skip to the next child pointer, and
 		// return -1.
-		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<INDEX_SIZE; i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty child pointer");
-				}
-			}
-			return -1;
-		}
-
-		// read child pointer
-		int child = -1;
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			child = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-			throw new NoSuchElementException("parsing error!");
-		}
-
-		return child;
+		int child = buf.getInt();
+		return isSlotUsed(slotId) ? child : -1;
 	}
 
 	/**
@@ -236,105 +207,48 @@ public class BTreeInternalPage extends BTreePage {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		// write out the parent pointer
-		try {
-			dos.writeInt(parent);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		// write out the child page category
-		try {
-			dos.writeByte((byte) childCategory);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		byte[] data = new byte[pageSize];
+		getPageData(ByteBuffer.wrap(data));
+		return data;
+	}
 
-		// create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+	// see Page.java for javadocs
+	public void getPageData(ByteBuffer dst) {
+		int start = dst.position();
+		int len = pageSize;
+		int keyLen = td.getFieldType(keyField).getLen();
+		int keysStart = start + INDEX_SIZE + 1 + header.length;
+		int childrenStart = keysStart + keyLen * (keys.length - 1);
+
+		// dst may hold an earlier page; empty slots and padding are zeroes
+		int zeroed = 0;
+		for (; zeroed + 8 <= len; zeroed += 8)
+			dst.putLong(start + zeroed, 0L);
+		for (; zeroed < len; zeroed++)
+			dst.put(start + zeroed, (byte) 0);
+
+		// write out the parent pointer, the child page category and the header
+		dst.putInt(parent);
+		dst.put((byte) childCategory);
+		dst.put(header);
 
 		// create the keys
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
 		for (int i=1; i<keys.length; i++) {
-
-			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
+			if (isSlotUsed(i)) {
+				dst.position(keysStart + (i - 1) * keyLen);
+				keys[i].serialize(dst);
 			}
-
-			// non-empty slot
-			try {
-				keys[i].serialize(dos);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
 		}
 
 		// create the child pointers
 		for (int i=0; i<children.length; i++) {
-
-			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j=0; j<INDEX_SIZE; j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
-			try {
-				dos.writeInt(children[i]);
-
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-
-		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
+			if (isSlotUsed(i))
+				dst.putInt(childrenStart + i * INDEX_SIZE, children[i]);
 		}
 
-		return baos.toByteArray();
+		dst.position(start + len);
 	}
 
 	/**
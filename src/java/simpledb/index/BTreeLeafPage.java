@@ -10,19 +10,33 @@ import simpledb.storage.*;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A BTreeLeafPage keeps its header and tuple slots in the on-disk format and
+ * works on those bytes in place, so getPageData is a copy rather than a
+ * re-encoding. A slot's tuple is created the first time it is asked for and
+ * decodes each field only when that field is asked for; key comparisons
+ * during inserts decode just the key. The page keeps handing out the same
+ * Tuple object for a slot, and moving a record updates its RecordId. The
+ * before image is only copied out when the page is first changed.
  *
  * @see BTreeFile
  * @see BufferPool
  *
  */
 public class BTreeLeafPage extends BTreePage {
-	private final byte[] header;
-	private final Tuple[] tuples;
+	/** the page as stored on disk; the pointers at its start are kept in fields */
+	private final byte[] data;
 	private final int numSlots;
+	private final int headerSize;
+	/** offset of the key field within a tuple */
+	private final int keyOffset;
+	/** the tuple of each slot, or null if the slot is empty or was not asked for yet */
+	private final Tuple[] tuples;
 	
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
@@ -50,7 +64,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * the slots of the page that are in use, and some number of tuple slots, 
 	 * as well as some extra bytes for the parent and sibling pointers.
 	 *  Specifically, the number of tuples is equal to: <p>
-	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (tuple size * 8 + 1))
+	 *          floor((page size*8 - extra bytes*8) / (tuple size * 8 + 1))
 	 * <p> where tuple size is the size of tuples in this
 	 * database table, which can be determined via {@link Catalog#getTupleDesc}.
 	 * The number of 8-bit header words is equal to:
@@ -68,46 +82,23 @@ public class BTreeLeafPage extends BTreePage {
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
 		this.numSlots = getMaxTuples();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		this.headerSize = getHeaderSize();
+		if (data.length < 3 * INDEX_SIZE + headerSize + numSlots * td.getSize())
+			throw new IOException("page data too short");
+		// the caller owns data and may reuse the array
+		this.data = Arrays.copyOf(data, pageSize);
 
 		// Read the parent and sibling pointers
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.parent = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.leftSibling = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.rightSibling = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
-
-		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
-
-		tuples = new Tuple[numSlots];
-		try{
-			// allocate and read the actual records of this page
-			for (int i=0; i<tuples.length; i++)
-				tuples[i] = readNextTuple(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
-		}
-		dis.close();
-
-		setBeforeImage();
+		ByteBuffer buf = ByteBuffer.wrap(this.data);
+		this.parent = buf.getInt(0);
+		this.leftSibling = buf.getInt(INDEX_SIZE);
+		this.rightSibling = buf.getInt(2 * INDEX_SIZE);
+
+		int offset = 0;
+		for (int i = 0; i < key; i++)
+			offset += td.getFieldType(i).getLen();
+		this.keyOffset = offset;
+		this.tuples = new Tuple[numSlots];
 	}
 
 	/** 
@@ -117,7 +108,7 @@ public class BTreeLeafPage extends BTreePage {
 		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
 		// extraBits are: left sibling pointer, right sibling pointer, parent pointer
 		int extraBits = 3 * INDEX_SIZE * 8;
-        return (BufferPool.getPageSize()*8 - extraBits) / bitsPerTupleIncludingHeader;
+        return (pageSize*8 - extraBits) / bitsPerTupleIncludingHeader;
 	}
 
 	/**
@@ -138,7 +129,7 @@ public class BTreeLeafPage extends BTreePage {
 			byte[] oldDataRef = null;
 			synchronized(oldDataLock)
 			{
-				oldDataRef = oldData;
+				oldDataRef = oldData != null ? oldData : getPageData();
 			}
 			return new BTreeLeafPage(pid,oldDataRef,keyField);
 		} catch (IOException e) {
@@ -152,42 +143,41 @@ public class BTreeLeafPage extends BTreePage {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			// copied again on the next change
+			oldData = null;
 		}
 	}
 
 	/**
-	 * Read tuples from the source file.
+	 * Saves the before image if it is still identical to the page. Called
+	 * before every change.
 	 */
-	private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next tuple, and
-		// return null.
-		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getSize(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty tuple");
-				}
-			}
-			return null;
+	private void prepareForChange() {
+		synchronized(oldDataLock)
+		{
+			if (oldData == null)
+				oldData = getPageData();
 		}
+	}
 
-		// read fields in the tuple
-		Tuple t = new Tuple(td);
-		RecordId rid = new RecordId(pid, slotId);
-		t.setRecordId(rid);
+	/**
+	 * Returns the offset of a tuple slot within the page data.
+	 */
+	private int slotOffset(int slotId) {
+		return 3 * INDEX_SIZE + headerSize + slotId * td.getSize();
+	}
+
+	/**
+	 * Decodes just the key field of the tuple in a slot that is in use.
+	 */
+	private Field getKey(int slotId) {
+		Type type = td.getFieldType(keyField);
 		try {
-			for (int j=0; j<td.numFields(); j++) {
-				Field f = td.getFieldType(j).parse(dis);
-				t.setField(j, f);
-			}
+			return type.parse(ByteBuffer.wrap(data, slotOffset(slotId) + keyOffset, type.getLen()));
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
 			throw new NoSuchElementException("parsing error!");
 		}
-
-		return t;
 	}
 
 	/**
@@ -202,84 +192,23 @@ public class BTreeLeafPage extends BTreePage {
 	 * @return A byte array corresponding to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
+		byte[] copy = data.clone();
 
 		// write out the parent and sibling pointers
-		try {
-			dos.writeInt(parent);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			dos.writeInt(leftSibling);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			dos.writeInt(rightSibling);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		// create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-		// create the tuples
-		for (int i=0; i<tuples.length; i++) {
-
-			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getSize(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
-			for (int j=0; j<td.numFields(); j++) {
-				Field f = tuples[i].getField(j);
-				try {
-					f.serialize(dos);
-
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-
-		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		ByteBuffer buf = ByteBuffer.wrap(copy);
+		buf.putInt(0, parent);
+		buf.putInt(INDEX_SIZE, leftSibling);
+		buf.putInt(2 * INDEX_SIZE, rightSibling);
+		return copy;
+	}
 
-		return baos.toByteArray();
+	// see Page.java for javadocs
+	public void getPageData(ByteBuffer dst) {
+		int start = dst.position();
+		dst.put(data);
+		dst.putInt(start, parent);
+		dst.putInt(start + INDEX_SIZE, leftSibling);
+		dst.putInt(start + 2 * INDEX_SIZE, rightSibling);
 	}
 
 	/**
@@ -297,7 +226,10 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("tried to delete tuple on invalid page or table");
 		if (!isSlotUsed(rid.getTupleNumber()))
 			throw new DbException("tried to delete null tuple.");
+		prepareForChange();
 		markSlotUsed(rid.getTupleNumber(), false);
+		Arrays.fill(data, slotOffset(rid.getTupleNumber()), slotOffset(rid.getTupleNumber() + 1), (byte) 0);
+		tuples[rid.getTupleNumber()] = null;
 		t.setRecordId(null);
 	}
 
@@ -325,12 +257,14 @@ public class BTreeLeafPage extends BTreePage {
 		if (emptySlot == -1)
 			throw new DbException("called addTuple on page with no empty slots.");
 
+		prepareForChange();
+
 		// find the last key less than or equal to the key being inserted
 		int lessOrEqKey = -1;
 		Field key = t.getField(keyField);
 		for (int i=0; i<numSlots; i++) {
 			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
+				if(getKey(i).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
 					lessOrEqKey = i;
 				else
 					break;	
@@ -356,6 +290,9 @@ public class BTreeLeafPage extends BTreePage {
 		// insert new record into the correct spot in sorted order
 		markSlotUsed(goodSlot, true);
 		Debug.log(1, "BTreeLeafPage.insertTuple: new tuple, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.getPageNumber(), goodSlot);
+		ByteBuffer buf = ByteBuffer.wrap(data, slotOffset(goodSlot), td.getSize());
+		for (int j=0; j<td.numFields(); j++)
+			t.getField(j).serialize(buf);
 		RecordId rid = new RecordId(pid, goodSlot);
 		t.setRecordId(rid);
 		tuples[goodSlot] = t;
@@ -368,9 +305,12 @@ public class BTreeLeafPage extends BTreePage {
 	private void moveRecord(int from, int to) {
 		if(!isSlotUsed(to) && isSlotUsed(from)) {
 			markSlotUsed(to, true);
-			RecordId rid = new RecordId(pid, to);
+			System.arraycopy(data, slotOffset(from), data, slotOffset(to), td.getSize());
+			Arrays.fill(data, slotOffset(from), slotOffset(from + 1), (byte) 0);
 			tuples[to] = tuples[from];
-			tuples[to].setRecordId(rid);
+			tuples[from] = null;
+			if (tuples[to] != null)
+				tuples[to].setRecordId(new RecordId(pid, to));
 			markSlotUsed(from, false);
 		}
 	}
@@ -404,6 +344,7 @@ public class BTreeLeafPage extends BTreePage {
 	 */
 	public void setLeftSiblingId(BTreePageId id) throws DbException {
 		if(id == null) {
+			prepareForChange();
 			leftSibling = 0;
 		}
 		else {
@@ -413,6 +354,7 @@ public class BTreeLeafPage extends BTreePage {
 			if(id.pgcateg() != BTreePageId.LEAF) {
 				throw new DbException("leftSibling must be a leaf node");
 			}
+			prepareForChange();
 			leftSibling = id.getPageNumber();
 		}
 	}
@@ -424,6 +366,7 @@ public class BTreeLeafPage extends BTreePage {
 	 */
 	public void setRightSiblingId(BTreePageId id) throws DbException {
 		if(id == null) {
+			prepareForChange();
 			rightSibling = 0;
 		}
 		else {
@@ -433,10 +376,17 @@ public class BTreeLeafPage extends BTreePage {
 			if(id.pgcateg() != BTreePageId.LEAF) {
 				throw new DbException("rightSibling must be a leaf node");
 			}
+			prepareForChange();
 			rightSibling = id.getPageNumber();
 		}
 	}
 
+	@Override
+	public void setParentId(BTreePageId id) throws DbException {
+		prepareForChange();
+		super.setParentId(id);
+	}
+
 	/**
 	 * Returns the number of tuples currently stored on this page
 	 */
@@ -460,8 +410,8 @@ public class BTreeLeafPage extends BTreePage {
 	 */
 	public boolean isSlotUsed(int i) {
 		int headerbit = i % 8;
-		int headerbyte = (i - headerbit) / 8;
-		return (header[headerbyte] & (1 << headerbit)) != 0;
+		int headerbyte = 3 * INDEX_SIZE + (i - headerbit) / 8;
+		return (data[headerbyte] & (1 << headerbit)) != 0;
 	}
 
 	/**
@@ -469,13 +419,13 @@ public class BTreeLeafPage extends BTreePage {
 	 */
 	private void markSlotUsed(int i, boolean value) {
 		int headerbit = i % 8;
-		int headerbyte = (i - headerbit) / 8;
+		int headerbyte = 3 * INDEX_SIZE + (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeLeafPage.setSlot: setting slot %d to %b", i, value);
 		if(value)
-			header[headerbyte] |= 1 << headerbit;
+			data[headerbyte] |= 1 << headerbit;
 		else
-			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+			data[headerbyte] &= (0xFF ^ (1 << headerbit));
 	}
 
 	/**
@@ -495,28 +445,30 @@ public class BTreeLeafPage extends BTreePage {
 	}
 
 	/**
-	 * protected method used by the iterator to get the ith tuple out of this page
+	 * protected method used by the iterator to get the ith tuple out of this page.
+	 * The first call for a slot creates its tuple from a copy of the slot's bytes.
 	 * @param i - the index of the tuple
 	 * @return the ith tuple in the page
 	 * @throws NoSuchElementException
 	 */
 	Tuple getTuple(int i) throws NoSuchElementException {
 
-		if (i >= tuples.length)
+		if (i < 0 || i >= numSlots)
 			throw new NoSuchElementException();
 
-		try {
-			if(!isSlotUsed(i)) {
-				Debug.log(1, "BTreeLeafPage.getTuple: slot %d in %d:%d is not used", i, pid.getTableId(), pid.getPageNumber());
-				return null;
-			}
-
-			Debug.log(1, "BTreeLeafPage.getTuple: returning tuple %d", i);
-			return tuples[i];
+		if(!isSlotUsed(i)) {
+			Debug.log(1, "BTreeLeafPage.getTuple: slot %d in %d:%d is not used", i, pid.getTableId(), pid.getPageNumber());
+			return null;
+		}
 
-		} catch (ArrayIndexOutOfBoundsException e) {
-			throw new NoSuchElementException();
+		Debug.log(1, "BTreeLeafPage.getTuple: returning tuple %d", i);
+		Tuple t = tuples[i];
+		if (t == null) {
+			t = new Tuple(td, Arrays.copyOfRange(data, slotOffset(i), slotOffset(i + 1)));
+			t.setRecordId(new RecordId(pid, i));
+			tuples[i] = t;
 		}
+		return t;
 	}
 }
 
@@ -26,6 +26,8 @@ public abstract class BTreePage implements Page {
 	protected final BTreePageId pid;
 	protected final TupleDesc td;
 	protected final int keyField;
+	/** The size of the pages of this page's table. */
+	protected final int pageSize;
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
@@ -39,10 +41,11 @@ public abstract class BTreePage implements Page {
 	 * has m+1 pointers to children), and the category of all child pages (either 
 	 * leaf or internal).
 	 *  Specifically, the number of entries is equal to: <p>
-	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (entry size * 8 + 1))
+	 *          floor((page size*8 - extra bytes*8) / (entry size * 8 + 1))
 	 * <p> where entry size is the size of entries in this index node
 	 * (key + child pointer), which can be determined via the key field and 
-	 * {@link Catalog#getTupleDesc}.
+	 * {@link Catalog#getTupleDesc}, and page size is the table's, from
+	 * {@link Catalog#getPageSize}.
 	 * The number of 8-bit header words is equal to:
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
@@ -58,6 +61,7 @@ public abstract class BTreePage implements Page {
 		this.pid = id;
 		this.keyField = key;
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.pageSize = BufferPool.getPageSize(id.getTableId());
 	}
 
 	/**
@@ -81,6 +85,14 @@ public abstract class BTreePage implements Page {
 		return new byte[len]; //all 0
 	}
 
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * BTreePage of a table whose pages are pageSize bytes long.
+	 */
+	public static byte[] createEmptyPageData(int pageSize) {
+		return new byte[pageSize]; //all 0
+	}
+
 	/**
 	 * Get the parent id of this page
 	 * @return the parent id
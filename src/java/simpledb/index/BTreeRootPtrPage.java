@@ -6,6 +6,8 @@ import simpledb.storage.Page;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * BTreeRootPtrPage stores the pointer to the root node used in the B+ tree and
@@ -39,20 +41,21 @@ public class BTreeRootPtrPage implements Page {
 	 */
 	public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
 		this.pid = id;
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		ByteBuffer buf = ByteBuffer.wrap(data);
 
 		// read in the root pointer
-		root = dis.readInt();
-		rootCategory = dis.readByte();
+		root = buf.getInt();
+		rootCategory = buf.get();
 
 		// read in the header pointer
-		header = dis.readInt();
-		
-		setBeforeImage();
+		header = buf.getInt();
+
+		// the page was just decoded from data, so data is its before image
+		oldData = Arrays.copyOf(data, PAGE_SIZE);
 	}
 
 	public void setBeforeImage() {
-		oldData = getPageData().clone();
+		oldData = getPageData();
 	}
 
 	/**
@@ -82,37 +85,19 @@ public class BTreeRootPtrPage implements Page {
 	 * @return A byte array corresponding to the bytes of this root pointer page.
 	 */
 	public byte[] getPageData(){
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(PAGE_SIZE);
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		// write out the root pointer (page number of the root page)
-		try{
-			dos.writeInt(root);
-		}catch(IOException e){
-			e.printStackTrace();
-		}
-
-		// write out the category of the root page (leaf or internal)
-		try{
-			dos.writeByte((byte) rootCategory);
-		}catch(IOException e){
-			e.printStackTrace();
-		}
-
-		// write out the header pointer (page number of the first header page)
-		try{
-			dos.writeInt(header);
-		}catch(IOException e){
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		}catch(IOException e) {
-			e.printStackTrace();
-		}
+		byte[] data = new byte[PAGE_SIZE];
+		getPageData(ByteBuffer.wrap(data));
+		return data;
+	}
 
-		return baos.toByteArray();
+	// see Page.java for javadocs
+	public void getPageData(ByteBuffer dst) {
+		// write out the root pointer (page number of the root page), the
+		// category of the root page (leaf or internal), and the header
+		// pointer (page number of the first header page)
+		dst.putInt(root);
+		dst.put((byte) rootCategory);
+		dst.putInt(header);
 	}
 
 	/**
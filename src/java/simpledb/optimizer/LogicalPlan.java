@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -25,6 +26,13 @@ import java.io.File;
  * best implementations for joins.
  */
 public class LogicalPlan {
+    /**
+     * Tables with more pages than this fraction of the buffer pool are
+     * scanned through a buffer ring, so that the scan does not evict the
+     * pool's working set.
+     */
+    public static final double RING_SCAN_THRESHOLD = 0.25;
+
     private List<LogicalJoinNode> joins;
     private final List<LogicalScanNode> tables;
     private final List<LogicalFilterNode> filters;
@@ -274,6 +282,22 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Returns true if a sequential scan of the given file should read it
+     * through a buffer ring, because the file is large compared to the
+     * buffer pool.
+     */
+    public static boolean useBufferRing(DbFile file) {
+        int numPages;
+        if (file instanceof HeapFile)
+            numPages = ((HeapFile) file).numPages();
+        else if (file instanceof BTreeFile)
+            numPages = ((BTreeFile) file).numPages();
+        else
+            return false;
+        return numPages > RING_SCAN_THRESHOLD * Database.getBufferPool().getNumPages();
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -297,7 +321,9 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                 // a full scan reads every page, so one table lock does for all of them
+                 ss = new SeqScan(t, file.getId(), table.alias, useBufferRing(file), true);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -70,6 +70,16 @@ public class TableStats {
         System.out.println("Done.");
     }
 
+    /**
+     * Recomputes the statistics of a table whose contents changed wholesale,
+     * such as after a bulk load, reading the table as part of the given
+     * transaction so the new contents are seen.
+     */
+    public static void refreshStatistics(TransactionId tid, int tableid) {
+        setTableStats(Database.getCatalog().getTableName(tableid),
+                new TableStats(tid, tableid, IOCOSTPERPAGE));
+    }
+
     /**
      * Number of bins for the histogram. Feel free to increase this value over
      * 100, though our tests assume that you have at least 100 bins in your
@@ -88,6 +98,14 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
+        this(null, tableid, ioCostPerPage);
+    }
+
+    /**
+     * Create a new TableStats object by reading the table as part of the
+     * given transaction, or of a transaction of its own if tid is null.
+     */
+    private TableStats(TransactionId tid, int tableid, int ioCostPerPage) {
         // For this function, you'll have to get the
         // DbFile for the table in question,
         // then scan through its tuples and calculate
@@ -110,7 +128,10 @@ public class TableStats {
         int[] maxs = new int[tupleDesc.numFields()];
         Arrays.fill(mins, Integer.MAX_VALUE);
         Arrays.fill(maxs, Integer.MIN_VALUE);
-        DbFileIterator it = Database.getCatalog().getDatabaseFile(tableid).iterator(new TransactionId());
+        // read through a buffer ring, so computing statistics does not flush the pool
+        TransactionId scanTid = tid != null ? tid : new TransactionId();
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(tableid)
+                .iterator(scanTid, Database.getBufferPool().newBufferRing());
         try {
             it.open();
             while (it.hasNext()) {
@@ -154,6 +175,11 @@ public class TableStats {
             }
         } catch (NoSuchElementException | DbException | TransactionAbortedException e) {
             e.printStackTrace();
+        } finally {
+            // let go of the table, so later writers are not refused its locks
+            it.close();
+            if (tid == null)
+                Database.getBufferPool().transactionComplete(scanTid);
         }
 
     }
@@ -0,0 +1,47 @@
+package simpledb.storage;
+
+import java.util.List;
+
+/**
+ * The management interface of a BufferPool, registered with the platform
+ * MBean server under {@link BufferPoolStats#OBJECT_NAME} for the pool of the
+ * Database instance, so that jconsole and other JMX clients can watch it.
+ * Counters accumulate from the creation of the pool or the last
+ * {@link #resetStats()}.
+ *
+ * @see BufferPoolStats
+ */
+public interface BufferPoolMXBean {
+    /** Returns the number of frames of the pool. */
+    int getCapacity();
+
+    /** Returns the number of frames holding a page or claimed for one. */
+    int getUsedFrames();
+
+    /** Returns the number of getPage calls that found the page resident. */
+    long getHits();
+
+    /** Returns the number of getPage calls that had to read the page. */
+    long getMisses();
+
+    /** Returns the fraction of getPage calls that were hits, or 0 if there were none. */
+    double getHitRatio();
+
+    /** Returns the number of pages evicted to make room for others. */
+    long getEvictions();
+
+    /** Returns the number of evictions that had to write back dirty pages first. */
+    long getDirtyEvictions();
+
+    /** Returns the number of page requests that failed because every resident page was dirty. */
+    long getNoMemoryFailures();
+
+    /** Returns the counters of all tables added together. */
+    BufferPoolStats.TableSnapshot getTotal();
+
+    /** Returns the counters of each table the pool has worked on. */
+    List<BufferPoolStats.TableSnapshot> getTables();
+
+    /** Sets every counter back to zero. */
+    void resetStats();
+}
@@ -0,0 +1,386 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BufferPoolStats counts what a BufferPool does, per table: getPage hits
+ * and misses, evictions, pages that could not be brought in, and how long
+ * getPage, reading pages from disk and writing them back take. Counters are
+ * LongAdders and latencies go to {@link LatencyHistogram}s, so recording
+ * stays cheap with many threads using the pool and can be left on.
+ * <p>
+ * getPage latencies cover the pool's own work once the page lock is held:
+ * waits for locks are not part of them. A miss includes finding a frame
+ * and reading the page. Hits take a fraction of a microsecond, about as
+ * long as reading the clock twice, so only one in {@link #HIT_SAMPLE} of
+ * them, picked at random, is timed; all of them are counted.
+ * <p>
+ * {@link #snapshot()} and {@link #total()} return the counters at one point
+ * in time, for the Parser shell's SHOW BUFFERPOOL statement and for tests;
+ * the same numbers are available over JMX through {@link BufferPoolMXBean}.
+ *
+ * @Threadsafe
+ */
+public class BufferPoolStats implements BufferPoolMXBean {
+    /** The name the Database's pool is registered under with the platform MBean server. */
+    public static final String OBJECT_NAME = "simpledb:type=BufferPool";
+
+    /** One in this many getPage hits is timed. */
+    public static final int HIT_SAMPLE = 16;
+
+    /** The counters of one table. */
+    static final class Counters {
+        final int tableId;
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+        final LongAdder dirtyEvictions = new LongAdder();
+        final LongAdder noMemoryFailures = new LongAdder();
+        final LongAdder pagesWritten = new LongAdder();
+        final LatencyHistogram hitLatency = new LatencyHistogram();
+        final LatencyHistogram missLatency = new LatencyHistogram();
+        final LatencyHistogram readLatency = new LatencyHistogram();
+        final LatencyHistogram writeLatency = new LatencyHistogram();
+
+        Counters(int tableId) {
+            this.tableId = tableId;
+        }
+    }
+
+    private final BufferPool pool;
+    /**
+     * The counters of each table, in an open-addressing hash table keyed by
+     * table id that is replaced, never changed, when a table is added, so
+     * that looking up a table neither locks nor boxes its id.
+     */
+    private volatile Counters[] tables = new Counters[16];
+    /** Number of tables in tables; guarded by this. */
+    private int numTables = 0;
+
+    BufferPoolStats(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    private static int slot(Counters[] table, int tableId) {
+        int h = tableId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (table.length - 1);
+    }
+
+    private static Counters find(Counters[] table, int tableId) {
+        for (int i = slot(table, tableId); ; i = (i + 1) & (table.length - 1)) {
+            Counters c = table[i];
+            if (c == null || c.tableId == tableId)
+                return c;
+        }
+    }
+
+    private static void insert(Counters[] table, Counters counters) {
+        int i = slot(table, counters.tableId);
+        while (table[i] != null)
+            i = (i + 1) & (table.length - 1);
+        table[i] = counters;
+    }
+
+    private Counters table(int tableId) {
+        Counters counters = find(tables, tableId);
+        return counters != null ? counters : addTable(tableId);
+    }
+
+    private synchronized Counters addTable(int tableId) {
+        Counters counters = find(tables, tableId);
+        if (counters != null)
+            return counters;
+
+        counters = new Counters(tableId);
+        Counters[] old = tables;
+        // keep the table at most half full
+        Counters[] grown = new Counters[numTables + 1 > old.length / 2 ? old.length * 2 : old.length];
+        for (Counters c : old) {
+            if (c != null)
+                insert(grown, c);
+        }
+        insert(grown, counters);
+        numTables++;
+        tables = grown;
+        return counters;
+    }
+
+    /** Returns true if the caller should time the getPage call it is making. */
+    static boolean sampleHit() {
+        return ThreadLocalRandom.current().nextInt(HIT_SAMPLE) == 0;
+    }
+
+    /**
+     * Counts a getPage hit.
+     *
+     * @param nanos how long the call took, or -1 if it was not timed
+     */
+    void recordHit(int tableId, long nanos) {
+        Counters counters = table(tableId);
+        counters.hits.increment();
+        if (nanos >= 0)
+            counters.hitLatency.record(nanos);
+    }
+
+    void recordMiss(int tableId, long nanos) {
+        Counters counters = table(tableId);
+        counters.misses.increment();
+        counters.missLatency.record(nanos);
+    }
+
+    void recordRead(int tableId, long nanos) {
+        table(tableId).readLatency.record(nanos);
+    }
+
+    /**
+     * Counts one write call that wrote the given number of pages of a table.
+     */
+    void recordWrite(int tableId, int pages, long nanos) {
+        Counters counters = table(tableId);
+        counters.pagesWritten.add(pages);
+        counters.writeLatency.record(nanos);
+    }
+
+    /**
+     * Counts the eviction of a page of a table.
+     *
+     * @param dirty whether dirty pages had to be written back to find the victim
+     */
+    void recordEviction(int tableId, boolean dirty) {
+        Counters counters = table(tableId);
+        counters.evictions.increment();
+        if (dirty)
+            counters.dirtyEvictions.increment();
+    }
+
+    void recordNoMemory(int tableId) {
+        table(tableId).noMemoryFailures.increment();
+    }
+
+    /**
+     * Registers this as the MXBean of the Database's pool, replacing the
+     * pool registered before it.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            synchronized (BufferPoolStats.class) {
+                if (server.isRegistered(name))
+                    server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the counters of each table the pool has worked on, ordered by
+     * table id.
+     */
+    public List<TableSnapshot> snapshot() {
+        List<TableSnapshot> snapshot = new ArrayList<>();
+        for (Counters c : tables) {
+            if (c != null)
+                snapshot.add(new TableSnapshot(c.tableId, c));
+        }
+        snapshot.sort(Comparator.comparingInt(TableSnapshot::getTableId));
+        return snapshot;
+    }
+
+    /**
+     * Returns the counters of all tables added together.
+     */
+    public TableSnapshot total() {
+        TableSnapshot total = new TableSnapshot(-1, new Counters(-1));
+        for (TableSnapshot t : snapshot())
+            total = total.plus(t);
+        return total;
+    }
+
+    @Override
+    public int getCapacity() {
+        return pool.getNumPages();
+    }
+
+    @Override
+    public int getUsedFrames() {
+        return pool.getUsedFrames();
+    }
+
+    @Override
+    public long getHits() {
+        return total().getHits();
+    }
+
+    @Override
+    public long getMisses() {
+        return total().getMisses();
+    }
+
+    @Override
+    public double getHitRatio() {
+        return total().getHitRatio();
+    }
+
+    @Override
+    public long getEvictions() {
+        return total().getEvictions();
+    }
+
+    @Override
+    public long getDirtyEvictions() {
+        return total().getDirtyEvictions();
+    }
+
+    @Override
+    public long getNoMemoryFailures() {
+        return total().getNoMemoryFailures();
+    }
+
+    @Override
+    public TableSnapshot getTotal() {
+        return total();
+    }
+
+    @Override
+    public List<TableSnapshot> getTables() {
+        return snapshot();
+    }
+
+    @Override
+    public synchronized void resetStats() {
+        tables = new Counters[16];
+        numTables = 0;
+    }
+
+    /**
+     * The counters of one table, or of all tables, at one point in time.
+     */
+    public static final class TableSnapshot {
+        private final int tableId;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long dirtyEvictions;
+        private final long noMemoryFailures;
+        private final long pagesWritten;
+        private final LatencyHistogram.Snapshot hitLatency;
+        private final LatencyHistogram.Snapshot missLatency;
+        private final LatencyHistogram.Snapshot readLatency;
+        private final LatencyHistogram.Snapshot writeLatency;
+
+        private TableSnapshot(int tableId, Counters c) {
+            this(tableId, c.hits.sum(), c.misses.sum(), c.evictions.sum(), c.dirtyEvictions.sum(),
+                    c.noMemoryFailures.sum(), c.pagesWritten.sum(), c.hitLatency.snapshot(),
+                    c.missLatency.snapshot(), c.readLatency.snapshot(), c.writeLatency.snapshot());
+        }
+
+        private TableSnapshot(int tableId, long hits, long misses, long evictions, long dirtyEvictions,
+                              long noMemoryFailures, long pagesWritten, LatencyHistogram.Snapshot hitLatency,
+                              LatencyHistogram.Snapshot missLatency, LatencyHistogram.Snapshot readLatency,
+                              LatencyHistogram.Snapshot writeLatency) {
+            this.tableId = tableId;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.dirtyEvictions = dirtyEvictions;
+            this.noMemoryFailures = noMemoryFailures;
+            this.pagesWritten = pagesWritten;
+            this.hitLatency = hitLatency;
+            this.missLatency = missLatency;
+            this.readLatency = readLatency;
+            this.writeLatency = writeLatency;
+        }
+
+        private TableSnapshot plus(TableSnapshot t) {
+            return new TableSnapshot(tableId, hits + t.hits, misses + t.misses, evictions + t.evictions,
+                    dirtyEvictions + t.dirtyEvictions, noMemoryFailures + t.noMemoryFailures,
+                    pagesWritten + t.pagesWritten, hitLatency.plus(t.hitLatency),
+                    missLatency.plus(t.missLatency), readLatency.plus(t.readLatency),
+                    writeLatency.plus(t.writeLatency));
+        }
+
+        /** Returns the id of the table, or -1 for the total of all tables. */
+        public int getTableId() {
+            return tableId;
+        }
+
+        /** Returns the name of the table, or "" if it is not in the catalog or this is a total. */
+        public String getTableName() {
+            String name = tableId == -1 ? null : Database.getCatalog().getTableName(tableId);
+            return name == null ? "" : name;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        /** Returns the fraction of getPage calls that were hits, or 0 if there were none. */
+        public double getHitRatio() {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /** Returns the number of evictions that had to write back dirty pages first. */
+        public long getDirtyEvictions() {
+            return dirtyEvictions;
+        }
+
+        public long getNoMemoryFailures() {
+            return noMemoryFailures;
+        }
+
+        /** Returns the number of pages written back to disk. */
+        public long getPagesWritten() {
+            return pagesWritten;
+        }
+
+        /** Returns the latency of the getPage calls that were hits and were timed. */
+        public LatencyHistogram.Snapshot getHitLatency() {
+            return hitLatency;
+        }
+
+        /** Returns the latency of getPage calls that were misses. */
+        public LatencyHistogram.Snapshot getMissLatency() {
+            return missLatency;
+        }
+
+        /** Returns the time taken by DbFile.readPage, per page. */
+        public LatencyHistogram.Snapshot getReadLatency() {
+            return readLatency;
+        }
+
+        /** Returns the time taken by DbFile.writePages, per call. */
+        public LatencyHistogram.Snapshot getWriteLatency() {
+            return writeLatency;
+        }
+
+        @Override
+        public String toString() {
+            String name = tableId == -1 ? "total" : getTableName().isEmpty() ? "table " + tableId : getTableName();
+            return String.format("%s: hits=%d misses=%d hit ratio=%.3f evictions=%d dirty evictions=%d"
+                            + " no memory=%d pages written=%d%n  hit: %s%n  miss: %s%n  read: %s%n  write: %s",
+                    name, hits, misses, getHitRatio(), evictions, dirtyEvictions, noMemoryFailures,
+                    pagesWritten, hitLatency, missLatency, readLatency, writeLatency);
+        }
+    }
+}
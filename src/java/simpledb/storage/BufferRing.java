@@ -0,0 +1,81 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+
+/**
+ * BufferRing is the access strategy of a large sequential scan: a small
+ * private ring of buffer pool frames that the scan recycles, instead of
+ * pushing the whole shared working set out of the pool one page at a time.
+ * <p>
+ * Pages the scan reads through {@link BufferPool#getPage(simpledb.transaction.TransactionId,
+ * PageId, simpledb.common.Permissions, BufferRing)} that are not resident yet
+ * are charged to the ring. Once the ring is full, the next miss evicts the
+ * ring's oldest page and reuses its frame. A ring page that was dirtied in
+ * the meantime, or that is gone already, is left to the shared pool and the
+ * frame is taken from the pool as usual. Pages that are already resident when
+ * the scan reaches them are shared and never charged to the ring.
+ * <p>
+ * A ring belongs to a single scan; it is safe to use from the scan and its
+ * read-ahead at the same time.
+ *
+ * @Threadsafe
+ */
+public class BufferRing {
+    /** Ring size used by {@link BufferPool#newBufferRing()} for large pools. */
+    public static final int DEFAULT_PAGES = 32;
+
+    private final int capacity;
+    /** pages charged to the ring, oldest first */
+    private final ArrayDeque<PageId> pages = new ArrayDeque<>();
+    /** slots claimed by reads that have not finished yet */
+    private int pending = 0;
+
+    /**
+     * Creates a ring of the given number of frames.
+     *
+     * @param capacity number of frames, at least 1
+     */
+    public BufferRing(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be at least 1");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the number of frames in this ring.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of pages currently charged to this ring.
+     */
+    public synchronized int size() {
+        return pages.size();
+    }
+
+    /**
+     * Claims a slot for a page about to be read.
+     *
+     * @return the oldest page of the ring, whose frame the new page should
+     *         reuse, or null if the ring still has a free slot
+     */
+    synchronized PageId claim() {
+        pending++;
+        if (pages.size() + pending <= capacity)
+            return null;
+        return pages.pollFirst();
+    }
+
+    /** The read that claimed a slot brought the given page in. */
+    synchronized void filled(PageId pid) {
+        pending--;
+        pages.addLast(pid);
+    }
+
+    /** The read that claimed a slot did not bring a new page in after all. */
+    synchronized void abandoned() {
+        pending--;
+    }
+}
@@ -0,0 +1,205 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.optimizer.TableStats;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.regex.Pattern;
+
+/**
+ * BulkLoader appends a large number of tuples to a HeapFile without going
+ * through the buffer pool one tuple at a time. Tuples are packed into full
+ * pages in memory, in the file's page format, and every BATCH_PAGES pages are
+ * written to the end of the file with a single gathering write, preceded by
+ * one BULK_APPEND log record that is forced to disk first, so that recovery
+ * can cut off the pages of a load that was still running at a crash.
+ * <p>
+ * The loader takes the table's exclusive lock when it is created, so no
+ * other transaction reads or inserts into the table until the loading
+ * transaction completes. Loaded pages bypass the buffer pool and are forced
+ * to disk by {@link #finish}; if the transaction aborts instead, the buffer
+ * pool cuts the file back to where the load started.
+ * <p>
+ * Pages are appended after the last page of the file, so free slots on the
+ * existing pages are not reused.
+ */
+public class BulkLoader {
+    /** Number of pages built in memory before they are written out together. */
+    public static final int BATCH_PAGES = 64;
+
+    private final TransactionId tid;
+    private final HeapFile file;
+    private final TupleDesc td;
+    private final int numSlots;
+    private final int headerSize;
+
+    private final ByteBuffer[] batch = new ByteBuffer[BATCH_PAGES];
+    /** free slots on each page of the batch */
+    private final int[] batchFree = new int[BATCH_PAGES];
+    private int batchPages;
+    /** page being filled, or null if the next tuple starts a new one */
+    private ByteBuffer page;
+    private int slot;
+    /** page being filled in a format other than FIXED, or null */
+    private HeapFilePage builder;
+    private int numTuples;
+
+    /**
+     * Starts a bulk load into a table, taking the table's exclusive lock.
+     *
+     * @param tid the transaction performing the load
+     * @param file the table to load into
+     * @throws TransactionAbortedException if another transaction is using the table
+     */
+    public BulkLoader(TransactionId tid, HeapFile file) throws TransactionAbortedException {
+        this.tid = tid;
+        this.file = file;
+        this.td = file.getTupleDesc();
+        this.numSlots = HeapPage.getNumTuples(this.td, file.getPageSize());
+        this.headerSize = (this.numSlots + 7) / 8;
+        Database.getBufferPool().lockTable(tid, file.getId(), Permissions.READ_WRITE);
+    }
+
+    /**
+     * Adds a tuple to the load. The tuple's record id is not set.
+     *
+     * @throws DbException if the tuple does not match the table's TupleDesc
+     */
+    public void add(Tuple t) throws DbException, IOException {
+        if (!this.td.equals(t.getTupleDesc()))
+            throw new DbException("tuple does not match the table's TupleDesc");
+
+        if (this.file.getFormat() != HeapFile.Format.FIXED) {
+            if (this.builder != null && !this.builder.append(t))
+                endPage();
+            if (this.builder == null) {
+                this.builder = this.file.newPage(new HeapPageId(this.file.getId(), 0),
+                        HeapPage.createEmptyPageData(this.file.getPageSize()));
+                if (!this.builder.append(t))
+                    throw new DbException("tuple does not fit on an empty page");
+            }
+            this.numTuples++;
+            return;
+        }
+
+        if (this.page == null) {
+            this.page = ByteBuffer.allocate(this.file.getPageSize());
+            this.slot = 0;
+        }
+
+        this.page.put(this.slot / 8, (byte) (this.page.get(this.slot / 8) | (1 << (this.slot % 8))));
+        this.page.position(this.headerSize + this.slot * this.td.getSize());
+        for (int i = 0; i < this.td.numFields(); i++)
+            t.getField(i).serialize(this.page);
+        this.numTuples++;
+
+        if (++this.slot == this.numSlots)
+            endPage();
+    }
+
+    private void endPage() throws IOException {
+        if (this.builder != null) {
+            this.batchFree[this.batchPages] = this.builder.getNumEmptySlots();
+            this.batch[this.batchPages++] = ByteBuffer.wrap(this.builder.getPageData());
+            this.builder = null;
+        } else {
+            this.page.clear();
+            this.batchFree[this.batchPages] = this.numSlots - this.slot;
+            this.batch[this.batchPages++] = this.page;
+            this.page = null;
+        }
+        if (this.batchPages == BATCH_PAGES)
+            writeBatch();
+    }
+
+    private void writeBatch() throws IOException {
+        if (this.batchPages == 0)
+            return;
+
+        // the pages go to the end of the file, which only we can extend
+        int first = this.file.numPages();
+        Database.getLogFile().logBulkAppend(this.tid, this.file.getId(), first, this.batchPages);
+        // the record must reach the disk before the pages it accounts for
+        Database.getLogFile().force();
+        this.file.appendPages(this.tid, this.batch, this.batchPages);
+
+        FreeSpaceMap freeSpace = this.file.getFreeSpaceMap();
+        for (int i = 0; i < this.batchPages; i++)
+            freeSpace.update(first + i, this.batchFree[i]);
+
+        this.batchPages = 0;
+    }
+
+    /**
+     * Writes out the last, partly filled page and forces the loaded pages
+     * to disk. If the table is in the catalog, its statistics are recomputed
+     * to include the loaded tuples.
+     *
+     * @return the number of tuples loaded
+     */
+    public int finish() throws IOException {
+        if (this.page != null || this.builder != null)
+            endPage();
+        writeBatch();
+        this.file.force();
+
+        if (Database.getCatalog().getTableName(this.file.getId()) != null)
+            TableStats.refreshStatistics(this.tid, this.file.getId());
+        return this.numTuples;
+    }
+
+    /**
+     * Loads the lines of a text file into a table, one tuple per line, with
+     * the fields of a line separated by the given character. Empty lines are
+     * skipped; strings longer than Type.STRING_LEN are cut short.
+     *
+     * @return the number of tuples loaded
+     * @throws IOException if the file can't be read or a line is malformed
+     */
+    public static int load(TransactionId tid, HeapFile file, File text, char separator)
+            throws IOException, DbException, TransactionAbortedException {
+        BulkLoader loader = new BulkLoader(tid, file);
+        TupleDesc td = file.getTupleDesc();
+        Pattern split = Pattern.compile(Pattern.quote(String.valueOf(separator)));
+
+        try (BufferedReader br = new BufferedReader(new FileReader(text))) {
+            String line;
+            int lineNo = 0;
+            while ((line = br.readLine()) != null) {
+                lineNo++;
+                if (line.trim().isEmpty())
+                    continue;
+
+                String[] values = split.split(line, -1);
+                if (values.length != td.numFields())
+                    throw new IOException("line " + lineNo + ": expected " + td.numFields()
+                            + " fields, found " + values.length);
+
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < values.length; i++) {
+                    String value = values[i].trim();
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        try {
+                            t.setField(i, new IntField(Integer.parseInt(value)));
+                        } catch (NumberFormatException e) {
+                            throw new IOException("line " + lineNo + ": bad integer " + value);
+                        }
+                    } else {
+                        t.setField(i, new StringField(value, Type.STRING_LEN, td.getFieldType(i)));
+                    }
+                }
+                loader.add(t);
+            }
+        }
+        return loader.finish();
+    }
+}
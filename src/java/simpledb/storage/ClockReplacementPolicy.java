@@ -0,0 +1,144 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK-sweep replacement. Each resident page owns a frame with a small usage
+ * count. A page enters the pool with a count of one and every hit bumps the
+ * count, up to MAX_USAGE. To find a victim the clock hand sweeps over the
+ * frames, decrementing counts, and stops at the first evictable page whose
+ * count is already zero.
+ * <p>
+ * A page read once by a large scan is therefore reclaimed on the next sweep,
+ * while pages that keep getting hit, such as B+ tree root and internal pages,
+ * survive several sweeps. Hits and insertions are O(1) and victim selection is
+ * O(1) amortized.
+ * <p>
+ * Not thread-safe: the BufferPool partition that owns the policy
+ * serializes all calls under its latch.
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+    /** Upper bound of a frame's usage count. */
+    private static final int MAX_USAGE = 5;
+
+    private PageId[] frames;
+    private int[] usage;
+    private int[] freeFrames;
+    private int numFree;
+    private int hand;
+    private final Map<PageId, Integer> frameOf = new HashMap<>();
+
+    /**
+     * Creates a CLOCK policy for a pool of the given number of pages.
+     *
+     * @param capacity initial number of frames; the clock grows if more pages
+     *                 than this are ever resident at once
+     */
+    public ClockReplacementPolicy(int capacity) {
+        int n = Math.max(capacity, 1);
+        this.frames = new PageId[n];
+        this.usage = new int[n];
+        this.freeFrames = new int[n];
+        for (int i = 0; i < n; i++)
+            this.freeFrames[i] = n - 1 - i;
+        this.numFree = n;
+        this.hand = 0;
+    }
+
+    public void pageAdded(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null) {
+            touch(frame);
+            return;
+        }
+
+        if (numFree == 0)
+            grow();
+        int f = freeFrames[--numFree];
+        frames[f] = pid;
+        usage[f] = 1;
+        frameOf.put(pid, f);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null)
+            touch(frame);
+    }
+
+    public void pageRemoved(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame == null)
+            return;
+
+        frames[frame] = null;
+        usage[frame] = 0;
+        freeFrames[numFree++] = frame;
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        if (frameOf.isEmpty())
+            return null;
+
+        // after this many steps every count has dropped to zero and every
+        // resident page has been offered to evictable at least once
+        int n = frames.length;
+        long maxSteps = (long) n * (MAX_USAGE + 1);
+        for (long step = 0; step < maxSteps; step++) {
+            int f = hand;
+            hand = (hand + 1) % n;
+
+            PageId pid = frames[f];
+            if (pid == null)
+                continue;
+            if (usage[f] > 0) {
+                usage[f]--;
+                continue;
+            }
+            if (evictable.test(pid))
+                return pid;
+        }
+        return null;
+    }
+
+    /**
+     * Orders resident pages by usage count, highest first; of pages with
+     * equal counts, the one the hand reaches last comes first.
+     */
+    public List<PageId> hottest() {
+        List<Integer> resident = new ArrayList<>(frameOf.size());
+        int n = frames.length;
+        for (int i = 1; i <= n; i++) {
+            int f = (hand - i + n) % n;
+            if (frames[f] != null)
+                resident.add(f);
+        }
+        // stable, so ties keep the reverse order of the hand
+        resident.sort((a, b) -> Integer.compare(usage[b], usage[a]));
+
+        List<PageId> hottest = new ArrayList<>(resident.size());
+        for (int f : resident)
+            hottest.add(frames[f]);
+        return hottest;
+    }
+
+    private void touch(int frame) {
+        if (usage[frame] < MAX_USAGE)
+            usage[frame]++;
+    }
+
+    private void grow() {
+        int oldLen = frames.length;
+        int newLen = oldLen * 2;
+        frames = Arrays.copyOf(frames, newLen);
+        usage = Arrays.copyOf(usage, newLen);
+        freeFrames = Arrays.copyOf(freeFrames, newLen);
+        for (int i = newLen - 1; i >= oldLen; i--)
+            freeFrames[numFree++] = i;
+    }
+}
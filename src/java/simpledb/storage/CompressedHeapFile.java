@@ -0,0 +1,265 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A HeapFile that stores each of its pages deflate-compressed, for large
+ * tables that are mostly read and where I/O is the bottleneck. Pages are
+ * decompressed when they are read into the buffer pool and compressed when
+ * they are written back, so the rest of the database sees ordinary pages.
+ * <p>
+ * Each page is stored in an extent of the file: a 4-byte length followed by
+ * the compressed page, padded to a multiple of EXTENT_ALIGN bytes. Where the
+ * extent of each page is is kept in an offset map, in a side file next to
+ * the heap file with one entry per page of an 8-byte offset and a 4-byte
+ * extent size (0 if the page was never written). A page is rewritten in its
+ * extent while it still fits, and moved to a new extent at the end of the
+ * file once it has grown; the space of the old extent is not reused.
+ * <p>
+ * The offset map is written out after the pages, like the free-space map.
+ *
+ * @see HeapFile
+ */
+public class CompressedHeapFile extends HeapFile {
+    /** Extents are a multiple of this many bytes, leaving pages room to grow. */
+    public static final int EXTENT_ALIGN = 256;
+    private static final int MAP_ENTRY_SIZE = 12;
+
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    private final int level;
+    private final ThreadLocal<Deflater> deflaters;
+    private final DbFileChannel mapChannel;
+
+    /** offset and size of each page's extent; guarded by this */
+    private long[] extentOffsets;
+    private int[] extentSizes;
+    private int numExtents;
+    /** end of the last extent, where new extents go; guarded by this */
+    private long fileEnd;
+    /** range of map entries changed since the last flush, empty if lo >= hi; guarded by this */
+    private int dirtyLo = Integer.MAX_VALUE;
+    private int dirtyHi = 0;
+
+    /**
+     * Opens a compressed heap file of FIXED pages, compressed at the default
+     * level.
+     */
+    public CompressedHeapFile(File f, TupleDesc td) throws IOException {
+        this(f, td, Format.FIXED, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Opens a compressed heap file backed by the specified file, and reads
+     * its offset map.
+     *
+     * @param format the format of the pages before compression
+     * @param level the deflate compression level, 0-9, or
+     *            Deflater.DEFAULT_COMPRESSION
+     */
+    public CompressedHeapFile(File f, TupleDesc td, Format format, int level) throws IOException {
+        this(f, td, format, level, 0);
+    }
+
+    /**
+     * Opens a compressed heap file whose pages are pageSize bytes long
+     * before compression, or BufferPool.getPageSize() if pageSize is 0.
+     */
+    public CompressedHeapFile(File f, TupleDesc td, Format format, int level, int pageSize) throws IOException {
+        super(f, td, false, format, pageSize);
+        this.level = level;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+        this.mapChannel = new DbFileChannel(mapFile(f));
+
+        int entries = mapFile(f).exists() ? (int) (this.mapChannel.size() / MAP_ENTRY_SIZE) : 0;
+        ByteBuffer map = ByteBuffer.allocate(entries * MAP_ENTRY_SIZE);
+        if (entries > 0)
+            this.mapChannel.read(map, 0);
+        this.extentOffsets = new long[Math.max(entries, 16)];
+        this.extentSizes = new int[this.extentOffsets.length];
+        for (int i = 0; i < entries; i++) {
+            this.extentOffsets[i] = map.getLong(i * MAP_ENTRY_SIZE);
+            this.extentSizes[i] = map.getInt(i * MAP_ENTRY_SIZE + 8);
+            this.fileEnd = Math.max(this.fileEnd, this.extentOffsets[i] + this.extentSizes[i]);
+        }
+        this.numExtents = entries;
+        this.numPages = entries;
+    }
+
+    /**
+     * Returns the side file holding the offset map of the compressed heap
+     * file stored in f.
+     */
+    public static File mapFile(File f) {
+        return new File(f.getPath() + ".map");
+    }
+
+    /**
+     * Returns the deflate compression level pages are written with.
+     */
+    public int getLevel() {
+        return this.level;
+    }
+
+    /**
+     * Returns the number of bytes of the file taken by extents, including
+     * extents that pages have moved out of.
+     */
+    public synchronized long getCompressedSize() {
+        return this.fileEnd;
+    }
+
+    /** Pages are stored in extents of their own, wherever those are. */
+    @Override
+    boolean contiguousPages() {
+        return false;
+    }
+
+    @Override
+    int readPageData(int pgNo, ByteBuffer dst) throws IOException {
+        long offset;
+        int size;
+        synchronized (this) {
+            if (pgNo >= this.numExtents || this.extentSizes[pgNo] == 0)
+                return -1;
+            offset = this.extentOffsets[pgNo];
+            size = this.extentSizes[pgNo];
+        }
+
+        byte[] extent = new byte[size];
+        if (this.channel.read(extent, offset) < size)
+            throw new IOException("extent of page " + pgNo + " is cut short");
+        int len = ByteBuffer.wrap(extent).getInt(0);
+
+        byte[] page = new byte[getPageSize()];
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        try {
+            inflater.setInput(extent, 4, len);
+            if (inflater.inflate(page) != page.length)
+                throw new IOException("extent of page " + pgNo + " does not hold a page");
+        } catch (DataFormatException | IllegalArgumentException e) {
+            throw new IOException("corrupt extent of page " + pgNo, e);
+        }
+
+        int n = Math.min(dst.remaining(), page.length);
+        dst.put(page, 0, n);
+        return n;
+    }
+
+    /**
+     * Compresses a page into an extent.
+     */
+    private byte[] compress(ByteBuffer block) {
+        byte[] page = new byte[block.remaining()];
+        block.duplicate().get(page);
+
+        Deflater deflater = this.deflaters.get();
+        deflater.reset();
+        deflater.setInput(page);
+        deflater.finish();
+        // more than deflate can ever need for incompressible input
+        byte[] out = new byte[4 + page.length + page.length / 8 + 64];
+        int len = deflater.deflate(out, 4, out.length - 4);
+        ByteBuffer.wrap(out).putInt(0, len);
+
+        int size = (4 + len + EXTENT_ALIGN - 1) / EXTENT_ALIGN * EXTENT_ALIGN;
+        return Arrays.copyOf(out, size);
+    }
+
+    /**
+     * Returns where the extent of a page goes: its current extent if the
+     * page still fits, otherwise a new one at the end of the file. Must be
+     * called with this held.
+     */
+    private long place(int pgNo, int size) {
+        if (pgNo >= this.extentOffsets.length) {
+            int capacity = Math.max(pgNo + 1, this.extentOffsets.length * 2);
+            this.extentOffsets = Arrays.copyOf(this.extentOffsets, capacity);
+            this.extentSizes = Arrays.copyOf(this.extentSizes, capacity);
+        }
+        this.numExtents = Math.max(this.numExtents, pgNo + 1);
+        if (this.extentSizes[pgNo] < size) {
+            this.extentOffsets[pgNo] = this.fileEnd;
+            this.extentSizes[pgNo] = size;
+            this.fileEnd += size;
+            this.dirtyLo = Math.min(this.dirtyLo, pgNo);
+            this.dirtyHi = Math.max(this.dirtyHi, pgNo + 1);
+        }
+        return this.extentOffsets[pgNo];
+    }
+
+    @Override
+    int writePageData(int[] pgNos, ByteBuffer[] blocks, int count) throws IOException {
+        byte[][] extents = new byte[count][];
+        for (int i = 0; i < count; i++)
+            extents[i] = compress(blocks[i]);
+
+        final long[] offsets = new long[count];
+        synchronized (this) {
+            for (int i = 0; i < count; i++)
+                offsets[i] = place(pgNos[i], extents[i].length);
+        }
+
+        // extents are written in file order, so that adjacent ones merge
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++)
+            order[i] = i;
+        Arrays.sort(order, Comparator.comparingLong(i -> offsets[i]));
+        long[] sortedOffsets = new long[count];
+        ByteBuffer[] sortedExtents = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            sortedOffsets[i] = offsets[order[i]];
+            sortedExtents[i] = ByteBuffer.wrap(extents[order[i]]);
+        }
+        int writes = this.channel.write(sortedOffsets, sortedExtents);
+        flushMap();
+        return writes;
+    }
+
+    @Override
+    void truncatePages(int numPages) throws IOException {
+        synchronized (this) {
+            this.numExtents = Math.min(this.numExtents, numPages);
+            Arrays.fill(this.extentSizes, this.numExtents, this.extentSizes.length, 0);
+            this.fileEnd = 0;
+            for (int i = 0; i < this.numExtents; i++)
+                this.fileEnd = Math.max(this.fileEnd, this.extentOffsets[i] + this.extentSizes[i]);
+            this.dirtyLo = Math.min(this.dirtyLo, this.numExtents);
+            this.dirtyHi = Math.min(this.dirtyHi, this.numExtents);
+            this.channel.truncate(this.fileEnd);
+            this.mapChannel.truncate((long) this.numExtents * MAP_ENTRY_SIZE);
+        }
+        flushMap();
+    }
+
+    @Override
+    void force() throws IOException {
+        super.force();
+        flushMap();
+        this.mapChannel.force();
+    }
+
+    /**
+     * Writes the entries of the offset map changed since the last flush to
+     * the side file.
+     */
+    private synchronized void flushMap() throws IOException {
+        if (this.dirtyLo >= this.dirtyHi)
+            return;
+        ByteBuffer entries = ByteBuffer.allocate((this.dirtyHi - this.dirtyLo) * MAP_ENTRY_SIZE);
+        for (int i = this.dirtyLo; i < this.dirtyHi; i++)
+            entries.putLong(this.extentOffsets[i]).putInt(this.extentSizes[i]);
+        entries.flip();
+        this.mapChannel.write(entries, (long) this.dirtyLo * MAP_ENTRY_SIZE);
+        this.dirtyLo = Integer.MAX_VALUE;
+        this.dirtyHi = 0;
+    }
+}
@@ -24,6 +24,27 @@ public interface DbFile {
      */
     Page readPage(PageId id);
 
+    /**
+     * Read several pages of this file from disk, given in ascending page
+     * number order. Implementations may merge pages that are adjacent on
+     * disk into a single read. Unlike {@link #readPage}, this never creates
+     * a page: pages that do not exist in the file are left out of the result.
+     *
+     * @param pids the pages to read, ordered by page number
+     * @return the pages read, in the order asked for
+     */
+    default List<Page> readPages(List<PageId> pids) {
+        List<Page> pages = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            try {
+                pages.add(readPage(pid));
+            } catch (NoSuchElementException | IllegalArgumentException e) {
+                // not in the file
+            }
+        }
+        return pages;
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -33,6 +54,21 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages of this file to disk, given in ascending page
+     * number order. Implementations may merge pages that are adjacent on
+     * disk into a single write.
+     *
+     * @param pages the pages to write, ordered by page number
+     * @return the number of write calls issued
+     * @throws IOException if a write fails
+     */
+    default int writePages(List<Page> pages) throws IOException {
+        for (Page p : pages)
+            writePage(p);
+        return pages.size();
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -73,6 +109,19 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over all the tuples stored in this DbFile that
+     * reads pages through the given buffer ring, for scans too large to run
+     * through the shared buffer pool. Files that do not support rings return
+     * a plain {@link #iterator(TransactionId)}.
+     *
+     * @param ring the buffer ring the scan recycles
+     * @return an iterator over all the tuples stored in this DbFile.
+     */
+    default DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+        return iterator(tid);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -93,4 +142,13 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Returns the size in bytes of the pages of this DbFile. Tables can use
+     * pages of different sizes; by default a DbFile uses
+     * {@link BufferPool#getPageSize()}.
+     */
+    default int getPageSize() {
+        return BufferPool.getPageSize();
+    }
 }
@@ -0,0 +1,242 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * DbFileChannel is the page I/O layer shared by the DbFile implementations.
+ * It keeps one FileChannel open for the lifetime of the DbFile instead of
+ * opening and closing the file on every page read or write, and it only uses
+ * positional reads and writes, so concurrent callers never share a file
+ * pointer and need no locking.
+ * <p>
+ * The channel is opened lazily on first use. A FileChannel is closed for good
+ * when a thread blocked in it is interrupted; in that case the channel is
+ * reopened and the operation retried once.
+ *
+ * @Threadsafe
+ */
+public class DbFileChannel {
+    private final File f;
+    private volatile FileChannel channel;
+
+    /**
+     * Creates an I/O layer for the given file. The file is created on the
+     * first write if it does not exist yet.
+     *
+     * @param f the file backing a DbFile
+     */
+    public DbFileChannel(File f) {
+        this.f = f;
+    }
+
+    /**
+     * Returns the file behind this channel.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Reads up to buf.length bytes starting at the given file offset. Bytes
+     * past the end of the file are left untouched.
+     *
+     * @param buf the buffer to fill
+     * @param offset the file offset of the first byte to read
+     * @return the number of bytes read, or -1 if offset is past the end of the file
+     */
+    public int read(byte[] buf, long offset) throws IOException {
+        return read(ByteBuffer.wrap(buf), offset);
+    }
+
+    /**
+     * Reads into the remaining space of dst starting at the given file offset,
+     * until dst is full or the end of the file is reached.
+     *
+     * @return the number of bytes read, or -1 if offset is past the end of the file
+     */
+    public int read(ByteBuffer dst, long offset) throws IOException {
+        int start = dst.position();
+        try {
+            return readFully(channel(), dst, offset);
+        } catch (ClosedChannelException e) {
+            dst.position(start);
+            return readFully(reopen(), dst, offset);
+        }
+    }
+
+    /**
+     * Writes the whole buffer at the given file offset, growing the file if
+     * needed.
+     *
+     * @param buf the bytes to write
+     * @param offset the file offset of the first byte to write
+     */
+    public void write(byte[] buf, long offset) throws IOException {
+        write(ByteBuffer.wrap(buf), offset);
+    }
+
+    /**
+     * Writes the remaining bytes of src at the given file offset.
+     */
+    public void write(ByteBuffer src, long offset) throws IOException {
+        int start = src.position();
+        try {
+            writeFully(channel(), src, offset);
+        } catch (ClosedChannelException e) {
+            src.position(start);
+            writeFully(reopen(), src, offset);
+        }
+    }
+
+    /**
+     * Writes several blocks, given in ascending offset order. Blocks that are
+     * adjacent on disk are merged into a single gathering write.
+     *
+     * @param offsets the file offset of each block, ascending
+     * @param blocks the bytes of each block
+     * @return the number of write calls issued
+     */
+    public int write(long[] offsets, ByteBuffer[] blocks) throws IOException {
+        int writes = 0;
+        int start = 0;
+        while (start < blocks.length) {
+            int end = start + 1;
+            while (end < blocks.length
+                    && offsets[end] == offsets[end - 1] + blocks[end - 1].remaining())
+                end++;
+            if (end - start == 1)
+                write(blocks[start], offsets[start]);
+            else
+                write(blocks, start, end - start, offsets[start]);
+            writes++;
+            start = end;
+        }
+        return writes;
+    }
+
+    /**
+     * Writes the remaining bytes of a run of buffers at the given file offset
+     * with a single gathering write. FileChannel has no positional gathering
+     * write, so this uses the channel's position, which no other operation
+     * of this class touches.
+     */
+    private synchronized void write(ByteBuffer[] srcs, int first, int count, long offset) throws IOException {
+        int[] starts = new int[count];
+        for (int i = 0; i < count; i++)
+            starts[i] = srcs[first + i].position();
+        try {
+            writeFully(channel(), srcs, first, count, offset);
+        } catch (ClosedChannelException e) {
+            for (int i = 0; i < count; i++)
+                srcs[first + i].position(starts[i]);
+            writeFully(reopen(), srcs, first, count, offset);
+        }
+    }
+
+    /**
+     * Maps a region of the file into memory, read-only. The mapping shares
+     * the OS page cache with the channel, so later writes through
+     * {@link #write} are visible in it. The region must lie within the
+     * current size of the file.
+     *
+     * @param offset the file offset where the region starts
+     * @param length the length of the region in bytes
+     */
+    public MappedByteBuffer map(long offset, long length) throws IOException {
+        try {
+            return channel().map(FileChannel.MapMode.READ_ONLY, offset, length);
+        } catch (ClosedChannelException e) {
+            return reopen().map(FileChannel.MapMode.READ_ONLY, offset, length);
+        }
+    }
+
+    /**
+     * Returns the current size of the file in bytes.
+     */
+    public long size() throws IOException {
+        try {
+            return channel().size();
+        } catch (ClosedChannelException e) {
+            return reopen().size();
+        }
+    }
+
+    /**
+     * Cuts the file back to the given size. Nothing happens if the file is
+     * not larger than that.
+     */
+    public void truncate(long size) throws IOException {
+        try {
+            channel().truncate(size);
+        } catch (ClosedChannelException e) {
+            reopen().truncate(size);
+        }
+    }
+
+    /**
+     * Forces all writes through to the storage device.
+     */
+    public void force() throws IOException {
+        try {
+            channel().force(false);
+        } catch (ClosedChannelException e) {
+            reopen().force(false);
+        }
+    }
+
+    /**
+     * Closes the channel. A later read or write opens it again.
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel c = channel;
+        if (c != null && c.isOpen())
+            return c;
+        return reopen();
+    }
+
+    private synchronized FileChannel reopen() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return channel;
+    }
+
+    private static int readFully(FileChannel c, ByteBuffer dst, long offset) throws IOException {
+        int total = 0;
+        while (dst.hasRemaining()) {
+            int n = c.read(dst, offset + total);
+            if (n < 0)
+                return total == 0 ? -1 : total;
+            total += n;
+        }
+        return total;
+    }
+
+    private static void writeFully(FileChannel c, ByteBuffer src, long offset) throws IOException {
+        long pos = offset;
+        while (src.hasRemaining())
+            pos += c.write(src, pos);
+    }
+
+    private static void writeFully(FileChannel c, ByteBuffer[] srcs, int first, int count, long offset)
+            throws IOException {
+        c.position(offset);
+        ByteBuffer last = srcs[first + count - 1];
+        while (last.hasRemaining())
+            c.write(srcs, first, count);
+    }
+}
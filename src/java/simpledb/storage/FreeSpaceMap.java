@@ -0,0 +1,132 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap records roughly how many free tuple slots each page of a
+ * HeapFile has, so that inserts can go straight to a page with room instead
+ * of locking and inspecting every page in front of it.
+ * <p>
+ * The map is kept in a side file next to the heap file, one byte per page:
+ * 0 means the page's free space is not known, otherwise the byte is the
+ * number of free slots plus one, capped at 255. Files written before the map
+ * existed simply start out with every page unknown.
+ * <p>
+ * The map is only a hint. It is updated as pages are read, and as tuples are
+ * inserted and deleted, including by transactions that later abort, and it
+ * is written out whenever pages of its file are. Callers must check the page
+ * itself before relying on an entry.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+    /** Entry of a page whose free space is not known. */
+    public static final int UNKNOWN = -1;
+    /** Largest free slot count an entry can express. */
+    private static final int MAX_FREE = 254;
+
+    private final DbFileChannel channel;
+
+    /** one entry per page; guarded by this */
+    private byte[] entries;
+    /** range of entries changed since the last flush, empty if lo >= hi; guarded by this */
+    private int dirtyLo = Integer.MAX_VALUE;
+    private int dirtyHi = 0;
+
+    /**
+     * Opens the free-space map stored in the given file. The file is read on
+     * first use and created on the first flush.
+     */
+    public FreeSpaceMap(File f) {
+        this.channel = new DbFileChannel(f);
+    }
+
+    /**
+     * Returns the side file of the heap file stored in f.
+     */
+    public static File sideFile(File f) {
+        return new File(f.getPath() + ".fsm");
+    }
+
+    /**
+     * Returns the file behind this map.
+     */
+    public File getFile() {
+        return channel.getFile();
+    }
+
+    private void load() {
+        if (entries != null)
+            return;
+        try {
+            long len = channel.getFile().exists() ? channel.size() : 0;
+            entries = new byte[(int) len];
+            if (len > 0)
+                channel.read(entries, 0);
+        } catch (IOException e) {
+            // the map is only a hint: start over
+            entries = new byte[0];
+        }
+    }
+
+    /**
+     * Returns the recorded number of free slots on a page, or UNKNOWN.
+     */
+    public synchronized int getFreeSlots(int pgNo) {
+        load();
+        if (pgNo >= entries.length)
+            return UNKNOWN;
+        return (entries[pgNo] & 0xFF) - 1;
+    }
+
+    /**
+     * Records the number of free slots on a page.
+     */
+    public synchronized void update(int pgNo, int freeSlots) {
+        load();
+        if (pgNo >= entries.length)
+            entries = Arrays.copyOf(entries, Math.max(pgNo + 1, entries.length * 2));
+        byte entry = (byte) (Math.min(freeSlots, MAX_FREE) + 1);
+        if (entries[pgNo] != entry) {
+            entries[pgNo] = entry;
+            dirtyLo = Math.min(dirtyLo, pgNo);
+            dirtyHi = Math.max(dirtyHi, pgNo + 1);
+        }
+    }
+
+    /**
+     * Returns the first page at or after from, and before numPages, that
+     * has free slots or whose free space is not known.
+     *
+     * @return a page number, or -1 if all those pages are known to be full
+     */
+    public synchronized int nextCandidate(int from, int numPages) {
+        load();
+        for (int pgNo = from; pgNo < numPages; pgNo++) {
+            if (pgNo >= entries.length || entries[pgNo] != 1)
+                return pgNo;
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the entries changed since the last flush to the side file.
+     */
+    public synchronized void flush() throws IOException {
+        if (entries == null || dirtyLo >= dirtyHi)
+            return;
+        channel.write(ByteBuffer.wrap(entries, dirtyLo, dirtyHi - dirtyLo), dirtyLo);
+        dirtyLo = Integer.MAX_VALUE;
+        dirtyHi = 0;
+    }
+
+    /**
+     * Closes the side file. A later access opens it again.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+}
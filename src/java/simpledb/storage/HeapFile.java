@@ -3,27 +3,63 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
+import simpledb.common.LockManager.LockMode;
 import simpledb.common.Permissions;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. A HeapFile can store its pages in other formats instead; see
+ * {@link Format}.
  * 
  * @see HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
+    /**
+     * The formats a HeapFile can store its pages in. All pages of a file
+     * have the same format, which is chosen when the file is opened, for
+     * instance by the catalog; nothing in the file itself records it.
+     */
+    public enum Format {
+        /** HeapPage: a header bitmap and fixed-width slots of td.getSize() bytes. */
+        FIXED,
+        /** SlottedPage: a slot directory and tuples of variable length. */
+        SLOTTED,
+        /** PaxPage: the slots of a HeapPage, with the values of each field stored together. */
+        PAX
+    }
+
+    /** Number of pages covered by one mapping in memory-mapped mode. */
+    private static final int MAP_CHUNK_PAGES = 1024;
+    /** Most pages readPages merges into one read. */
+    private static final int MAX_READ_PAGES = 64;
+
     private File f;
     private TupleDesc td;
-    private int numPages;
+    int numPages;
+    final DbFileChannel channel;
+    private final FreeSpaceMap freeSpace;
+    private final Format format;
+    /** The size of this file's pages, or 0 to follow BufferPool.getPageSize(). */
+    private final int pageSize;
+    /** Where the bulk loads of each running transaction started appending */
+    private final Map<TransactionId, Integer> appendStarts = new ConcurrentHashMap<>();
+
+    private final boolean memoryMapped;
+    /** Mapped regions of the file, MAP_CHUNK_PAGES pages each; guarded by itself */
+    private final List<MappedByteBuffer> mappedChunks = new ArrayList<>();
+    private int mappedPageSize;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -33,9 +69,96 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally reading
+     * pages through a memory mapping of the file.
+     * <p>
+     * In memory-mapped mode readPage decodes pages straight out of the OS page
+     * cache instead of copying them into a fresh byte array first, which
+     * suits read-mostly tables that are larger than the buffer pool but fit
+     * in memory. The file is mapped in chunks of MAP_CHUNK_PAGES pages; the
+     * last chunk is remapped as the file grows. Writes still go through
+     * writePage and are visible in the mapping.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            whether readPage should read through a memory mapping
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
+        this(f, td, memoryMapped, Format.FIXED);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * stored in the given format.
+     */
+    public HeapFile(File f, TupleDesc td, Format format) {
+        this(f, td, false, format);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * stored in the given format, optionally reading pages through a memory
+     * mapping of the file.
+     *
+     * @see #HeapFile(File, TupleDesc, boolean)
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped, Format format) {
+        this(f, td, memoryMapped, format, 0);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, like
+     * {@link #HeapFile(File, TupleDesc, boolean, Format)}, whose pages are
+     * pageSize bytes long instead of {@link BufferPool#getPageSize()}. Large
+     * pages suit tables that are mostly scanned; each page read or written
+     * costs one system call whatever its size.
+     *
+     * @param pageSize
+     *            the size of the file's pages in bytes, or 0 for
+     *            BufferPool.getPageSize()
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped, Format format, int pageSize) {
         this.f = f;
         this.td = td;
-        this.numPages = (int) f.length() / BufferPool.getPageSize();
+        this.pageSize = pageSize;
+        this.numPages = (int) (f.length() / getPageSize());
+        this.channel = new DbFileChannel(f);
+        this.freeSpace = new FreeSpaceMap(FreeSpaceMap.sideFile(f));
+        this.memoryMapped = memoryMapped;
+        this.format = format;
+    }
+
+    /**
+     * Returns the format the pages of this file are stored in.
+     */
+    public Format getFormat() {
+        return this.format;
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return this.pageSize > 0 ? this.pageSize : BufferPool.getPageSize();
+    }
+
+    /**
+     * Returns true if pages of this file are read through a memory mapping.
+     */
+    public boolean isMemoryMapped() {
+        return this.memoryMapped;
+    }
+
+    /**
+     * Returns the map of free space on the pages of this file, which is
+     * kept in a side file next to it.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return this.freeSpace;
     }
 
     /**
@@ -71,8 +194,7 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
-        long pageOffset = pid.getPageNumber() * BufferPool.getPageSize();
-        byte[] data = new byte[BufferPool.getPageSize()];
+        byte[] data = new byte[getPageSize()];
 
         if (pid.getPageNumber() > this.numPages()) {
             throw new NoSuchElementException();
@@ -82,31 +204,320 @@ public class HeapFile implements DbFile {
             // add a new blank page to the HeapFile
             if (pid.getPageNumber() == this.numPages()) {
                 this.numPages++;
-                return new HeapPage((HeapPageId) pid, HeapPage.createEmptyPageData());
+                return tracked(newPage((HeapPageId) pid, HeapPage.createEmptyPageData(getPageSize())));
                 // read the existing page from disk
             } else {
-                RandomAccessFile randomAccessFile = new RandomAccessFile(this.f, "r");
-                randomAccessFile.seek(pageOffset);
-                randomAccessFile.read(data);
-                randomAccessFile.close();
-                return new HeapPage((HeapPageId) pid, data);
+                ByteBuffer mapped = this.memoryMapped ? mappedPage(pid.getPageNumber()) : null;
+                if (mapped != null && this.format == Format.FIXED)
+                    return tracked(new HeapPage((HeapPageId) pid, mapped));
+                if (mapped != null)
+                    mapped.get(data);
+                else
+                    readPageData(pid.getPageNumber(), ByteBuffer.wrap(data));
+                return tracked(newPage((HeapPageId) pid, data));
+            }
+        } catch (IOException e) {
+            throw new NoSuchElementException();
+        }
+    }
+
+    /**
+     * Reads several pages, merging each run of pages that follow each other
+     * on disk, up to MAX_READ_PAGES of them, into a single read.
+     */
+    public List<Page> readPages(List<PageId> pids) {
+        if (this.memoryMapped || !contiguousPages())
+            return readPagesOneByOne(pids);
+
+        int pageSize = getPageSize();
+        int end = this.numPages;
+        List<Page> pages = new ArrayList<>(pids.size());
+        int i = 0;
+        while (i < pids.size()) {
+            int first = pids.get(i).getPageNumber();
+            int run = 1;
+            while (i + run < pids.size() && run < MAX_READ_PAGES
+                    && pids.get(i + run).getPageNumber() == first + run)
+                run++;
+            int count = Math.max(0, Math.min(run, end - first));
+
+            if (count > 0) {
+                byte[] data = new byte[count * pageSize];
+                try {
+                    readPageData(first, ByteBuffer.wrap(data));
+                    for (int j = 0; j < count; j++) {
+                        byte[] page = Arrays.copyOfRange(data, j * pageSize, (j + 1) * pageSize);
+                        pages.add(tracked(newPage((HeapPageId) pids.get(i + j), page)));
+                    }
+                } catch (IOException e) {
+                    // leave the run out, like pages that do not exist
+                }
+            }
+            i += run;
+        }
+        return pages;
+    }
+
+    /**
+     * Reads pages one readPage call at a time, leaving out those past the
+     * end of the file.
+     */
+    List<Page> readPagesOneByOne(List<PageId> pids) {
+        List<Page> pages = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            if (pid.getPageNumber() < this.numPages)
+                pages.add(readPage(pid));
+        }
+        return pages;
+    }
+
+    /**
+     * Returns true if page n of this file is stored at byte n * getPageSize(),
+     * so that adjacent pages can be read together.
+     */
+    boolean contiguousPages() {
+        return true;
+    }
+
+    /**
+     * Creates a page in this file's format from its bytes on disk.
+     */
+    HeapFilePage newPage(HeapPageId pid, byte[] data) throws IOException {
+        switch (this.format) {
+        case SLOTTED:
+            return new SlottedPage(pid, this.td, data, getPageSize());
+        case PAX:
+            return new PaxPage(pid, this.td, data, getPageSize());
+        default:
+            return new HeapPage(pid, data);
+        }
+    }
+
+    /**
+     * Reads a page into a frame of an off-heap arena, where the returned page
+     * then lives. Otherwise the same as {@link #readPage}. Only files in the
+     * FIXED format can do this.
+     */
+    HeapPage readPage(HeapPageId pid, PageArena.Frame frame) {
+        if (pid.getPageNumber() > this.numPages()) {
+            throw new NoSuchElementException();
+        }
+
+        ByteBuffer buf = frame.buffer();
+        try {
+            if (pid.getPageNumber() == this.numPages()) {
+                // add a new blank page to the HeapFile
+                this.numPages++;
+            } else {
+                readPageData(pid.getPageNumber(), buf);
             }
+            // the frame held another page before
+            while (buf.hasRemaining())
+                buf.put((byte) 0);
+            return tracked(new HeapPage(pid, frame));
         } catch (IOException e) {
             throw new NoSuchElementException();
         }
     }
 
+    /**
+     * Hooks a page that was just read up to the free-space map, and brings
+     * the map's entry for it up to date.
+     */
+    private <P extends HeapFilePage> P tracked(P page) {
+        this.freeSpace.update(page.getId().getPageNumber(), page.getNumEmptySlots());
+        page.setFreeSpaceMap(this.freeSpace);
+        return page;
+    }
+
+    /**
+     * Counts the free slots of a page on disk, without going through the
+     * buffer pool; for formats with a header bitmap, from that alone. Used
+     * for pages the free-space map knows nothing about yet.
+     */
+    private int probeFreeSlots(int pgNo) {
+        if (this.format == Format.SLOTTED) {
+            // the free space is spread over the page
+            byte[] data = new byte[getPageSize()];
+            try {
+                readPageData(pgNo, ByteBuffer.wrap(data));
+                return newPage(new HeapPageId(this.getId(), pgNo), data).getNumEmptySlots();
+            } catch (IOException e) {
+                return 1;
+            }
+        }
+
+        int numSlots = HeapPage.getNumTuples(this.td, getPageSize());
+        byte[] header = new byte[(numSlots + 7) / 8];
+        try {
+            if (readPageData(pgNo, ByteBuffer.wrap(header)) < header.length)
+                return numSlots;
+        } catch (IOException e) {
+            // let the caller look at the page itself
+            return numSlots;
+        }
+
+        int free = 0;
+        for (int i = 0; i < numSlots; i++)
+            if ((header[i / 8] & (1 << (i % 8))) == 0)
+                free++;
+        return free;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         PageId pid = page.getId();
 
         this.numPages = Math.max(this.numPages, pid.getPageNumber() + 1);
 
-        long pageOffset = pid.getPageNumber() * BufferPool.getPageSize();
-        RandomAccessFile randomAccessFile = new RandomAccessFile(this.f, "rw");
-        randomAccessFile.seek(pageOffset);
-        randomAccessFile.write(page.getPageData());
-        randomAccessFile.close();
+        writePageData(new int[] { pid.getPageNumber() },
+                new ByteBuffer[] { PageBuffers.encode(page) }, 1);
+        this.freeSpace.flush();
+    }
+
+    // see DbFile.java for javadocs
+    public int writePages(List<Page> pages) throws IOException {
+        int[] pgNos = new int[pages.size()];
+        for (int i = 0; i < pages.size(); i++) {
+            pgNos[i] = pages.get(i).getId().getPageNumber();
+            this.numPages = Math.max(this.numPages, pgNos[i] + 1);
+        }
+        ByteBuffer[] blocks = PageBuffers.encode(pages);
+        int writes = writePageData(pgNos, blocks, blocks.length);
+        this.freeSpace.flush();
+        return writes;
+    }
+
+    /**
+     * Writes fully built pages to the end of the file in one go, bypassing
+     * the buffer pool. The caller must hold the table's exclusive lock, so
+     * nobody else can see or extend the file until tid completes; if tid
+     * aborts, {@link #completeAppends} cuts the file back.
+     *
+     * @param blocks the pages' bytes, each getPageSize() long
+     * @param count how many of blocks to write
+     * @return the page number of the first page written
+     */
+    int appendPages(TransactionId tid, ByteBuffer[] blocks, int count) throws IOException {
+        int first = this.numPages;
+        this.appendStarts.putIfAbsent(tid, first);
+
+        int[] pgNos = new int[count];
+        for (int i = 0; i < count; i++)
+            pgNos[i] = first + i;
+        writePageData(pgNos, blocks, count);
+        this.numPages = first + count;
+        return first;
+    }
+
+    /**
+     * Reads the start of a page from the file into the remaining space of
+     * dst, which holds at most a page. Bytes past the end of the file are
+     * left untouched.
+     *
+     * @return the number of bytes read, or -1 if the page is past the end of the file
+     */
+    int readPageData(int pgNo, ByteBuffer dst) throws IOException {
+        return this.channel.read(dst, (long) pgNo * getPageSize());
+    }
+
+    /**
+     * Writes the bytes of whole pages to the file.
+     *
+     * @param pgNos the number of each page, ascending
+     * @param blocks the bytes of each page
+     * @param count how many of the pages to write
+     * @return the number of write calls issued
+     */
+    int writePageData(int[] pgNos, ByteBuffer[] blocks, int count) throws IOException {
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++)
+            offsets[i] = (long) pgNos[i] * getPageSize();
+        return this.channel.write(offsets, count == blocks.length ? blocks : Arrays.copyOf(blocks, count));
+    }
+
+    /**
+     * Cuts the file back to its first numPages pages.
+     */
+    void truncatePages(int numPages) throws IOException {
+        this.channel.truncate((long) numPages * getPageSize());
+    }
+
+    /**
+     * Forces the pages and free-space map written so far to disk.
+     */
+    void force() throws IOException {
+        this.channel.force();
+        this.freeSpace.flush();
+    }
+
+    /**
+     * Ends the bulk loads of a transaction. On abort, the file is cut back
+     * to its length before the first of them.
+     *
+     * @return the number of pages in the file afterwards
+     */
+    int completeAppends(TransactionId tid, boolean commit) throws IOException {
+        Integer start = this.appendStarts.remove(tid);
+        if (start == null || commit)
+            return this.numPages;
+
+        cutBack(start);
+        return start;
+    }
+
+    /**
+     * Drops the pages bulk loads appended after the first numPages pages,
+     * if the file still has them.
+     */
+    void cutBack(int numPages) throws IOException {
+        if (numPages >= this.numPages)
+            return;
+        synchronized (this.mappedChunks) {
+            // mappings past the new end of the file must not be touched again
+            this.mappedChunks.clear();
+        }
+        truncatePages(numPages);
+        this.numPages = numPages;
+    }
+
+    /**
+     * Returns a read-only view of the given page inside the memory mapping of
+     * this file, mapping or remapping its chunk if needed.
+     *
+     * @return the page's bytes, or null if the page is not entirely on disk yet
+     */
+    private ByteBuffer mappedPage(int pgNo) throws IOException {
+        int pageSize = getPageSize();
+        int chunkNo = pgNo / MAP_CHUNK_PAGES;
+        int offsetInChunk = (pgNo % MAP_CHUNK_PAGES) * pageSize;
+
+        MappedByteBuffer chunk;
+        synchronized (this.mappedChunks) {
+            if (this.mappedPageSize != pageSize) {
+                // the page size changed, so the chunk boundaries did too
+                this.mappedChunks.clear();
+                this.mappedPageSize = pageSize;
+            }
+
+            chunk = chunkNo < this.mappedChunks.size() ? this.mappedChunks.get(chunkNo) : null;
+            if (chunk == null || chunk.capacity() < offsetInChunk + pageSize) {
+                long chunkStart = (long) chunkNo * MAP_CHUNK_PAGES * pageSize;
+                long chunkLen = Math.min((long) MAP_CHUNK_PAGES * pageSize, this.channel.size() - chunkStart);
+                if (chunkLen < offsetInChunk + pageSize)
+                    return null;
+
+                chunk = this.channel.map(chunkStart, chunkLen);
+                while (this.mappedChunks.size() <= chunkNo)
+                    this.mappedChunks.add(null);
+                this.mappedChunks.set(chunkNo, chunk);
+            }
+        }
+
+        ByteBuffer page = chunk.duplicate();
+        page.position(offsetInChunk);
+        page.limit(offsetInChunk + pageSize);
+        return page.slice();
     }
 
     /**
@@ -120,28 +531,33 @@ public class HeapFile implements DbFile {
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         List<Page> modifiedPages = new ArrayList<>();
+        // keeps bulk loads, which append under an exclusive table lock, out
+        Database.getBufferPool().lockTable(tid, this.getId(), LockMode.IX);
 
-        HeapPage pageWithSpace = null;
+        // 1. try the pages the free-space map says have room, without
+        // touching the ones it says are full
+        int pgNo = this.freeSpace.nextCandidate(0, this.numPages());
+        while (pgNo >= 0) {
+            if (this.freeSpace.getFreeSlots(pgNo) == FreeSpaceMap.UNKNOWN)
+                this.freeSpace.update(pgNo, probeFreeSlots(pgNo));
 
-        for(int i = 0; i < this.numPages(); ++i) {
-            HeapPageId pageId = new HeapPageId(this.getId(), i);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
-            if (page.getNumEmptySlots() > 0) {
-                pageWithSpace = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
-                break;
-            } 
+            if (this.freeSpace.getFreeSlots(pgNo) != 0) {
+                HeapPageId pageId = new HeapPageId(this.getId(), pgNo);
+                HeapFilePage page = (HeapFilePage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+                if (page.getNumEmptySlots() > 0) {
+                    page.insertTuple(t);
+                    modifiedPages.add(page);
+                    return modifiedPages;
+                }
+                // the map was out of date
+                this.freeSpace.update(pgNo, 0);
+            }
+            pgNo = this.freeSpace.nextCandidate(pgNo + 1, this.numPages());
         }
 
-        // 1. can find
-        if(pageWithSpace != null) {
-            pageWithSpace.insertTuple(t);
-            modifiedPages.add(pageWithSpace);
-            return modifiedPages;
-        } 
-
-        // 2. cannot find
+        // 2. all pages are full
         HeapPageId newPageId = new HeapPageId(this.getId(), this.numPages());
-        HeapPage newPage = (HeapPage) Database.getBufferPool().getPage(tid, newPageId, Permissions.READ_WRITE);
+        HeapFilePage newPage = (HeapFilePage) Database.getBufferPool().getPage(tid, newPageId, Permissions.READ_WRITE);
         newPage.insertTuple(t);
         modifiedPages.add(newPage);
 
@@ -156,7 +572,7 @@ public class HeapFile implements DbFile {
 
         ArrayList<Page> modifiedPages = new ArrayList<>();
 
-        HeapPage pageToDeleteFrom = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        HeapFilePage pageToDeleteFrom = (HeapFilePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
         pageToDeleteFrom.deleteTuple(t);
 
         modifiedPages.add(pageToDeleteFrom);
@@ -169,5 +585,21 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(this, tid);
     }
 
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+        return new HeapFileIterator(this, tid, ring);
+    }
+
+    /**
+     * Returns an iterator over the values of a single field of the tuples in
+     * this file, as tuples of just that field. In the PAX format the values
+     * are read without touching the other fields.
+     *
+     * @param field the index of the field in the file's TupleDesc
+     */
+    public DbFileIterator columnIterator(TransactionId tid, int field) {
+        return new HeapFileIterator(this, tid, null, field);
+    }
+
 }
 
@@ -108,11 +108,16 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // the free-space map of whatever was there before no longer applies
+    FreeSpaceMap.sideFile(outFile).delete();
 
     // our numbers probably won't be much larger than 1024 digits
     char[] buf = new char[1024];
 
     int curpos = 0;
+    // a record's VARCHAR fields are stored one after the other, with the
+    // unused bytes of all of them at the end of the record
+    int recordpad = 0;
     int recordcount = 0;
     int npages = 0;
     int fieldNo = 0;
@@ -158,9 +163,22 @@ public class HeapFileEncoder {
                 while (overflow-- > 0)
                     pageStream.write((byte)0);
             }
+            else   if (typeAr[fieldNo] == Type.VARCHAR_TYPE) {
+                s = s.trim();
+                if (s.length() > Type.STRING_LEN)
+                    s = s.substring(0, Type.STRING_LEN);
+                pageStream.writeInt(s.length());
+                pageStream.writeBytes(s);
+                recordpad += Type.STRING_LEN - s.length();
+            }
             curpos = 0;
-            if (c == '\n')
+            if (c == '\n') {
+                while (recordpad > 0) {
+                    pageStream.write((byte)0);
+                    recordpad--;
+                }
                 fieldNo = 0;
+            }
             else
                 fieldNo++;
             
@@ -4,7 +4,9 @@ import java.util.Iterator;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.LockManager.LockMode;
 import simpledb.common.Permissions;
+import simpledb.common.Type;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -14,17 +16,49 @@ public class HeapFileIterator extends AbstractDbFileIterator {
     private TransactionId tid;
     private int nextPageNo;
     private Iterator<Tuple> tupleIterator;
+    private final BufferRing ring;
+    private ReadAhead readAhead;
+    /** the field to return on its own, or -1 to return whole tuples */
+    private final int column;
+    private final TupleDesc columnTd;
 
     public HeapFileIterator(final HeapFile heapFile, TransactionId tid) {
+        this(heapFile, tid, null);
+    }
+
+    /**
+     * Creates an iterator that reads the file's pages through a buffer ring.
+     *
+     * @param ring the buffer ring to read through, or null to use the shared pool
+     */
+    public HeapFileIterator(final HeapFile heapFile, TransactionId tid, BufferRing ring) {
+        this(heapFile, tid, ring, -1);
+    }
+
+    /**
+     * Creates an iterator that returns tuples of just one field of the file.
+     *
+     * @param ring the buffer ring to read through, or null to use the shared pool
+     * @param column the index of the field, or -1 to return whole tuples
+     */
+    public HeapFileIterator(final HeapFile heapFile, TransactionId tid, BufferRing ring, int column) {
         this.heapFile = heapFile;
         this.tid = tid;
+        this.ring = ring;
         this.nextPageNo = 0;
         this.tupleIterator = null;
+        this.column = column;
+        TupleDesc td = heapFile.getTupleDesc();
+        this.columnTd = column < 0 ? null
+                : new TupleDesc(new Type[] { td.getFieldType(column) }, new String[] { td.getFieldName(column) });
     }
 
     @Override
     public void open() throws DbException, TransactionAbortedException {
+        // pages bulk-loaded by a running transaction are not ours to see
+        Database.getBufferPool().lockTable(this.tid, this.heapFile.getId(), LockMode.IS);
         this.nextPageNo = 0;
+        this.readAhead = new ReadAhead(this::nextPageId, this.ring);
         this.tupleIterator = this.getNextPageIterator();
     }
 
@@ -53,15 +87,40 @@ public class HeapFileIterator extends AbstractDbFileIterator {
         super.close();
         this.nextPageNo = 0;
         this.tupleIterator = null;
+        if (this.readAhead != null) {
+            this.readAhead.close();
+            this.readAhead = null;
+        }
     }
 
     private Iterator<Tuple> getNextPageIterator() throws DbException, TransactionAbortedException {
-        return getNextPage().iterator();
+        if (this.column < 0)
+            return getNextPage().iterator();
+
+        final Iterator<Field> values = getNextPage().columnIterator(this.column);
+        return new Iterator<Tuple>() {
+            @Override
+            public boolean hasNext() {
+                return values.hasNext();
+            }
+
+            @Override
+            public Tuple next() {
+                Tuple t = new Tuple(columnTd);
+                t.setField(0, values.next());
+                return t;
+            }
+        };
     }
 
-    private HeapPage getNextPage() throws DbException, TransactionAbortedException {
+    private HeapFilePage getNextPage() throws DbException, TransactionAbortedException {
         HeapPageId pageId = new HeapPageId(this.heapFile.getId(), this.nextPageNo);
         this.nextPageNo++;
-        return (HeapPage) Database.getBufferPool().getPage(this.tid, pageId, Permissions.READ_ONLY);
+        return (HeapFilePage) this.readAhead.getPage(this.tid, pageId, Permissions.READ_ONLY);
+    }
+
+    private PageId nextPageId(Page page) {
+        int pgNo = page.getId().getPageNumber() + 1;
+        return pgNo < this.heapFile.numPages() ? new HeapPageId(this.heapFile.getId(), pgNo) : null;
     }
 }
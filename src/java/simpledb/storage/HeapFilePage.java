@@ -0,0 +1,73 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.util.Iterator;
+
+/**
+ * The operations HeapFile needs from its pages, whichever of the formats in
+ * {@link HeapFile.Format} they are stored in.
+ */
+interface HeapFilePage extends Page {
+
+    HeapPageId getId();
+
+    /**
+     * Returns the number of further tuples the page is sure to have room
+     * for. This is what the free-space map records for the page.
+     */
+    int getNumEmptySlots();
+
+    /**
+     * Adds a tuple to the page and sets its record id.
+     *
+     * @throws DbException if the page is full or the tuple does not match
+     *         the page's TupleDesc
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Adds a tuple to a page that is being built outside of the buffer pool,
+     * without setting its record id.
+     *
+     * @return false if the tuple does not fit
+     */
+    boolean append(Tuple t);
+
+    /**
+     * Removes a tuple from the page.
+     *
+     * @throws DbException if the tuple is not on this page
+     */
+    void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * Returns an iterator over the tuples on the page.
+     */
+    Iterator<Tuple> iterator();
+
+    /**
+     * Returns an iterator over the values of one field of the tuples on the
+     * page.
+     */
+    default Iterator<Field> columnIterator(int field) {
+        final Iterator<Tuple> tuples = iterator();
+        return new Iterator<Field>() {
+            @Override
+            public boolean hasNext() {
+                return tuples.hasNext();
+            }
+
+            @Override
+            public Field next() {
+                return tuples.next().getField(field);
+            }
+        };
+    }
+
+    /**
+     * Makes the page report its free space to the free-space map of its
+     * file whenever a tuple is inserted or deleted.
+     */
+    void setFreeSpaceMap(FreeSpaceMap freeSpace);
+}
@@ -8,25 +8,46 @@ import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A HeapPage keeps its page in the on-disk format and works on those bytes
+ * in place: tuples are encoded when they are inserted, and the tuples handed
+ * out by the iterator decode each field only when it is asked for. The bytes
+ * live in a heap array, in a shared read-only buffer such as a memory-mapped
+ * file (copied before the first change), or in a frame of an off-heap
+ * {@link PageArena}. The before image is only copied out when the page is
+ * first changed.
  *
  * @see HeapFile
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements HeapFilePage {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
-    final Tuple[] tuples;
     final int numSlots;
-
+    private final int headerSize;
+    /** The page size of the page's table. */
+    private final int pageSize;
+
+    /** The page as stored on disk, starting at index 0; guarded by this. */
+    private ByteBuffer data;
+    /** False while data is shared with its source and must be copied before the first change. */
+    private boolean writable;
+    /** The arena frame data lives in, or null if data is not in an arena. */
+    private PageArena.Frame frame;
+    /** Number of empty slots; guarded by this. */
+    private int numEmptySlots;
+    /** The free-space map of the page's file, or null; told about every insert and delete. */
+    private FreeSpaceMap freeSpace;
+
+    /** The before image, or null while it is identical to data; guarded by this. */
     byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
 
     private TransactionId dirtyTid;
 
@@ -35,9 +56,10 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the table's, from {@link Catalog#getPageSize}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
@@ -47,34 +69,82 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        // the caller owns data and may reuse the array
+        this(id, ByteBuffer.wrap(Arrays.copyOf(data, BufferPool.getPageSize(id.getTableId()))), true, null);
+    }
+
+    /**
+     * Create a HeapPage straight from a buffer holding the page as stored on
+     * disk, such as a slice of a memory-mapped HeapFile, without copying it
+     * into a byte array first. The page layout is the same as for
+     * {@link #HeapPage(HeapPageId, byte[])}; the page starts at the buffer's
+     * position.
+     * <p>
+     * The buffer is shared until the page is first modified, so its contents
+     * must not change until then.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, pageSlice(data, BufferPool.getPageSize(id.getTableId())), false, null);
+    }
+
+    /**
+     * Create a HeapPage that lives in a frame of an off-heap arena, which
+     * already holds the page as stored on disk. Changes to the page are made
+     * in the frame, until {@link #detach} moves the page out of it.
+     */
+    HeapPage(HeapPageId id, PageArena.Frame frame) throws IOException {
+        this(id, frame.buffer(), true, frame);
+    }
+
+    private HeapPage(HeapPageId id, ByteBuffer data, boolean writable, PageArena.Frame frame) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = BufferPool.getPageSize(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.headerSize = getHeaderSize();
+        if (data.remaining() < headerSize + numSlots * td.getSize())
+            throw new IOException("page buffer too small");
+        this.data = data;
+        this.writable = writable;
+        this.frame = frame;
+
+        int used = 0;
+        for (int i = 0; i < headerSize; i++) {
+            int bits = data.get(i) & 0xFF;
+            if (i == headerSize - 1 && numSlots % 8 != 0)
+                bits &= (1 << (numSlots % 8)) - 1;
+            used += Integer.bitCount(bits);
         }
-        dis.close();
+        this.numEmptySlots = numSlots - used;
+    }
 
-        setBeforeImage();
+    private static ByteBuffer pageSlice(ByteBuffer data, int pageSize) {
+        ByteBuffer page = data.duplicate();
+        page.limit(Math.min(page.limit(), page.position() + pageSize));
+        return page.slice();
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {
-        return (BufferPool.getPageSize() * 8) / (this.td.getSize() * 8 + 1);
+        return getNumTuples(this.td, this.pageSize);
+    }
+
+    /**
+     * Returns the number of tuple slots on a page of a table with the given
+     * TupleDesc and page size.
+     */
+    static int getNumTuples(TupleDesc td, int pageSize) {
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * Makes this page report its free space to the free-space map of its
+     * file whenever a tuple is inserted or deleted.
+     */
+    public synchronized void setFreeSpaceMap(FreeSpaceMap freeSpace) {
+        this.freeSpace = freeSpace;
     }
 
     /**
@@ -89,10 +159,10 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
+            byte[] oldDataRef;
+            synchronized(this)
             {
-                oldDataRef = oldData;
+                oldDataRef = oldData != null ? oldData : copyData();
             }
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
@@ -103,13 +173,49 @@ public class HeapPage implements Page {
         return null;
     }
     
-    public void setBeforeImage() {
-        synchronized(oldDataLock)
-        {
-        oldData = getPageData().clone();
+    public synchronized void setBeforeImage() {
+        // copied again on the next change
+        oldData = null;
+    }
+
+    /**
+     * Makes the page ready for a change: saves the before image if it is
+     * still identical to the page, and gives the page its own copy of a
+     * shared buffer. Must be called with this held.
+     */
+    private void prepareForChange() {
+        if (oldData == null)
+            oldData = copyData();
+        if (!writable) {
+            data = ByteBuffer.wrap(copyData());
+            writable = true;
         }
     }
 
+    private byte[] copyData() {
+        byte[] copy = new byte[this.pageSize];
+        ByteBuffer d = data.duplicate();
+        d.position(0);
+        d.get(copy, 0, Math.min(copy.length, data.limit()));
+        return copy;
+    }
+
+    /**
+     * Moves this page out of its arena frame onto the heap. The BufferPool
+     * calls this before it reuses the frame, so that anyone still holding
+     * the page keeps working on the same contents.
+     *
+     * @return the frame the page occupied, or null if it was not in one
+     */
+    synchronized PageArena.Frame detach() {
+        if (frame == null)
+            return null;
+        PageArena.Frame f = frame;
+        data = ByteBuffer.wrap(copyData());
+        frame = null;
+        return f;
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -118,36 +224,18 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in the given slot. The tuple gets its own copy of the
+     * slot's bytes and decodes each field when it is first asked for. Must
+     * be called with this held.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
+    private Tuple readTuple(int slotId) {
+        byte[] raw = new byte[td.getSize()];
+        ByteBuffer buf = data.duplicate();
+        buf.position(headerSize + slotId * td.getSize());
+        buf.get(raw);
+
+        Tuple t = new Tuple(td, raw);
+        t.setRecordId(new RecordId(pid, slotId));
         return t;
     }
 
@@ -162,65 +250,19 @@ public class HeapPage implements Page {
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
-    public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public synchronized byte[] getPageData() {
+        return copyData();
+    }
 
-        return baos.toByteArray();
+    // see Page.java for javadocs
+    public synchronized void getPageData(ByteBuffer dst) {
+        int len = Math.min(this.pageSize, data.limit());
+        ByteBuffer src = data.duplicate();
+        src.position(0);
+        src.limit(len);
+        dst.put(src);
+        for (int i = len; i < this.pageSize; i++)
+            dst.put((byte) 0);
     }
 
     /**
@@ -237,6 +279,14 @@ public class HeapPage implements Page {
         return new byte[len]; //all 0
     }
 
+    /**
+     * Returns the data of an empty page of a table with the given page size,
+     * as {@link #createEmptyPageData()} does for the default page size.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
+    }
+
     /**
      * Delete the specified tuple from the page; the corresponding header bit should be updated to reflect
      *   that it is no longer stored on any page.
@@ -244,7 +294,7 @@ public class HeapPage implements Page {
      *         already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         RecordId rid = t.getRecordId();
         PageId pageId = rid.getPageId();
         int slot = rid.getTupleNumber();
@@ -254,7 +304,51 @@ public class HeapPage implements Page {
         if (this.isSlotUsed(slot) == false)
             throw new DbException("Tuple slot is already empty");
 
+        this.prepareForChange();
         this.markSlotUsed(slot, false);
+
+        // empty slots are all zeroes on disk
+        int offset = headerSize + slot * td.getSize();
+        for (int i = 0; i < td.getSize(); i++)
+            this.data.put(offset + i, (byte) 0);
+
+        this.numEmptySlots++;
+        if (this.freeSpace != null)
+            this.freeSpace.update(this.pid.getPageNumber(), this.numEmptySlots);
+    }
+
+    /**
+     * Returns the first empty slot, or -1 if there is none. Must be called
+     * with this held.
+     */
+    private int emptySlot() {
+        for (int i = 0; i < this.numSlots && this.numEmptySlots > 0; i++) {
+            if (!this.isSlotUsed(i))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Writes a tuple into an empty slot and marks the slot used. Must be
+     * called with this held, after prepareForChange.
+     */
+    private void store(Tuple t, int slot) {
+        ByteBuffer buf = this.data.duplicate();
+        buf.position(headerSize + slot * td.getSize());
+        for (int j = 0; j < td.numFields(); j++)
+            t.getField(j).serialize(buf);
+        this.markSlotUsed(slot, true);
+        this.numEmptySlots--;
+    }
+
+    public synchronized boolean append(Tuple t) {
+        int slot = emptySlot();
+        if (slot == -1)
+            return false;
+        this.prepareForChange();
+        this.store(t, slot);
+        return true;
     }
 
     /**
@@ -264,24 +358,21 @@ public class HeapPage implements Page {
      *         is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
-        if (this.getNumEmptySlots() == 0)
-            throw new DbException("The page is full");
+    public synchronized void insertTuple(Tuple t) throws DbException {
         if (!t.getTupleDesc().equals(this.td)) {
             throw new DbException("tupledesc is mismatch");
         }
 
-        // find empty slot
-        int emptySlot = -1;
-        for (int i = 0; i < this.numSlots; i++) {
-            if (!this.isSlotUsed(i)) {
-                emptySlot = i;
-                break;
-            }
-        }
-        this.markSlotUsed(emptySlot, true);
+        int emptySlot = emptySlot();
+        if (emptySlot == -1)
+            throw new DbException("The page is full");
+
+        this.prepareForChange();
+        this.store(t, emptySlot);
         t.setRecordId(new RecordId(this.pid, emptySlot));
-        this.tuples[emptySlot] = t;
+
+        if (this.freeSpace != null)
+            this.freeSpace.update(this.pid.getPageNumber(), this.numEmptySlots);
     }
 
     /**
@@ -305,45 +396,72 @@ public class HeapPage implements Page {
     /**
      * Returns the number of empty slots on this page.
      */
-    public int getNumEmptySlots() {
-        int num = 0;
-        for(int i = 0; i < this.numSlots; ++i)
-            if (!isSlotUsed(i)) num++;
-
-        return num;
+    public synchronized int getNumEmptySlots() {
+        return this.numEmptySlots;
     }
 
     /**
      * Returns true if associated slot on this page is filled.
      */
-    public boolean isSlotUsed(int i) {
-        return (this.header[i / 8] & (1 << (i % 8))) != 0;
+    public synchronized boolean isSlotUsed(int i) {
+        return (this.data.get(i / 8) & (1 << (i % 8))) != 0;
     }
 
     /**
-     * Abstraction to fill or clear a slot on this page.
+     * Abstraction to fill or clear a slot on this page. Must be called with
+     * this held.
      */
     private void markSlotUsed(int i, boolean value) {
+        byte b = this.data.get(i / 8);
         if (value) {
-            this.header[i / 8] |= (1 << (i % 8));
+            b |= (1 << (i % 8));
         } else {
-            this.header[i / 8] &= ~(1 << (i % 8));
+            b &= ~(1 << (i % 8));
         }
+        this.data.put(i / 8, b);
     }
 
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
+     * <p>
+     * The iterator returns the tuples in the slots that are in use when it
+     * is created, copying each one out when it is reached.
      */
     public Iterator<Tuple> iterator() {
-        ArrayList<Tuple> validTuples = new ArrayList<Tuple>();
-        for (int i = 0; i < this.numSlots; i++) {
-            if (this.isSlotUsed(i)) {
-                validTuples.add(this.tuples[i]);
-            }
+        final byte[] used = new byte[headerSize];
+        synchronized (this) {
+            ByteBuffer d = this.data.duplicate();
+            d.position(0);
+            d.get(used);
         }
-        return validTuples.iterator();
+
+        return new Iterator<Tuple>() {
+            private int nextSlot = advance(0);
+
+            private int advance(int slot) {
+                while (slot < numSlots && (used[slot / 8] & (1 << (slot % 8))) == 0)
+                    slot++;
+                return slot;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return nextSlot < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t;
+                synchronized (HeapPage.this) {
+                    t = readTuple(nextSlot);
+                }
+                nextSlot = advance(nextSlot + 1);
+                return t;
+            }
+        };
     }
 
 }
-
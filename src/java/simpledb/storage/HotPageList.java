@@ -0,0 +1,178 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * HotPageList saves the pages resident in a BufferPool, hottest first, so
+ * that after a restart the pool can read its working set back in with a few
+ * large reads instead of one miss at a time. The list is saved on clean
+ * shutdown and, by a background thread, at intervals, so that a crash loses
+ * at most one interval of changes to it; it is only a hint, and pages that
+ * no longer exist are skipped when it is loaded.
+ * <p>
+ * The file holds a magic number and the number of pages, then each page id
+ * as its class name and {@link PageId#serialize()} ints, the way LogFile
+ * writes page ids. Saving writes a temporary file next to the list and
+ * renames it into place, so a crash while saving leaves the old list.
+ *
+ * @Threadsafe
+ * @see BufferPool#hotPages()
+ * @see BufferPool#warmUp(List)
+ */
+public class HotPageList {
+    /** How often {@link #saveEvery} saves the list by default, in milliseconds. */
+    public static final long DEFAULT_INTERVAL_MILLIS = 60_000;
+
+    private static final int MAGIC = 0x484f5450; // "HOTP"
+
+    private final File file;
+
+    /** the thread started by saveEvery, or null; guarded by this */
+    private Thread saver;
+
+    /**
+     * Creates a hot-page list kept in the given file. Nothing is read or
+     * written until {@link #save} or {@link #load} is called.
+     */
+    public HotPageList(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the file the hot-page list of a database is kept in, next to
+     * its catalog file.
+     */
+    public static File forCatalog(File catalogFile) {
+        return new File(catalogFile.getPath() + ".hotpages");
+    }
+
+    /**
+     * Returns the file this list is kept in.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Writes the pages resident in the given pool, hottest first, replacing
+     * the list saved before.
+     *
+     * @return the number of pages saved
+     */
+    public synchronized int save(BufferPool pool) throws IOException {
+        List<PageId> pids = pool.hotPages();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(pids.size());
+            for (PageId pid : pids) {
+                int[] data = pid.serialize();
+                out.writeUTF(pid.getClass().getName());
+                out.writeInt(data.length);
+                for (int d : data)
+                    out.writeInt(d);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return pids.size();
+    }
+
+    /**
+     * Reads the saved list, hottest page first.
+     *
+     * @return the saved page ids, or an empty list if none were saved
+     * @throws IOException if the list cannot be read or is not a hot-page list
+     */
+    public synchronized List<PageId> load() throws IOException {
+        if (!file.exists())
+            return Collections.emptyList();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not a hot-page list");
+            int n = in.readInt();
+            List<PageId> pids = new ArrayList<>(n);
+            Map<String, Constructor<?>> constructors = new HashMap<>();
+            for (int i = 0; i < n; i++) {
+                String idClassName = in.readUTF();
+                Object[] idArgs = new Object[in.readInt()];
+                for (int j = 0; j < idArgs.length; j++)
+                    idArgs[j] = in.readInt();
+                pids.add(newPageId(constructors, idClassName, idArgs));
+            }
+            return pids;
+        }
+    }
+
+    private static PageId newPageId(Map<String, Constructor<?>> constructors, String idClassName,
+                                    Object[] idArgs) throws IOException {
+        try {
+            Constructor<?> idConst = constructors.get(idClassName);
+            if (idConst == null) {
+                idConst = Class.forName(idClassName).getDeclaredConstructors()[0];
+                constructors.put(idClassName, idConst);
+            }
+            return (PageId) idConst.newInstance(idArgs);
+        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException
+                | InstantiationException | IllegalArgumentException | ClassCastException e) {
+            throw new IOException("bad page id of class " + idClassName, e);
+        }
+    }
+
+    /**
+     * Reads the saved pages back into the given pool in the background. The
+     * pool serves requests meanwhile; see {@link BufferPool#warmUp}.
+     *
+     * @return the number of pages read into the pool, once done
+     * @throws IOException if the list cannot be read
+     */
+    public Future<Integer> warm(BufferPool pool) throws IOException {
+        return pool.warmUp(load());
+    }
+
+    /**
+     * Starts a daemon thread that saves the pages resident in the given pool
+     * every intervalMillis milliseconds, replacing any thread started before.
+     */
+    public synchronized void saveEvery(BufferPool pool, long intervalMillis) {
+        stop();
+        Thread t = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    save(pool);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "simpledb-hot-page-saver");
+        t.setDaemon(true);
+        t.start();
+        saver = t;
+    }
+
+    /**
+     * Stops the thread started by {@link #saveEvery}, if any.
+     */
+    public synchronized void stop() {
+        if (saver != null) {
+            saver.interrupt();
+            saver = null;
+        }
+    }
+}
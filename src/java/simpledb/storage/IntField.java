@@ -4,6 +4,7 @@ import simpledb.execution.Predicate;
 import simpledb.common.Type;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single integer.
@@ -44,6 +45,10 @@ public class IntField implements Field {
         dos.writeInt(value);
     }
 
+    public void serialize(ByteBuffer buf) {
+        buf.putInt(value);
+    }
+
     /**
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
@@ -52,23 +57,28 @@ public class IntField implements Field {
      * @see Field#compare
      */
     public boolean compare(Predicate.Op op, Field val) {
+        return compare(value, op, ((IntField) val).value);
+    }
 
-        IntField iVal = (IntField) val;
-
+    /**
+     * Compares two int values as {@link #compare(Predicate.Op, Field)}
+     * compares IntFields holding them, without creating the IntFields.
+     */
+    public static boolean compare(int value, Predicate.Op op, int other) {
         switch (op) {
             case EQUALS:
             case LIKE:
-                return value == iVal.value;
+                return value == other;
             case NOT_EQUALS:
-                return value != iVal.value;
+                return value != other;
             case GREATER_THAN:
-                return value > iVal.value;
+                return value > other;
             case GREATER_THAN_OR_EQ:
-                return value >= iVal.value;
+                return value >= other;
             case LESS_THAN:
-                return value < iVal.value;
+                return value < other;
             case LESS_THAN_OR_EQ:
-                return value <= iVal.value;
+                return value <= other;
         }
 
         return false;
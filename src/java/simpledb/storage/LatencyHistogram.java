@@ -0,0 +1,139 @@
+package simpledb.storage;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts durations in buckets that double in width: bucket
+ * 0 holds durations of 0 ns, and bucket i &gt; 0 those of at least 2^(i-1)
+ * and less than 2^i ns. Recording a duration is two LongAdder increments,
+ * so many threads can record at once without contending, and percentiles
+ * read from a {@link Snapshot} are accurate to within a factor of two.
+ *
+ * @Threadsafe
+ */
+public class LatencyHistogram {
+    /** Number of buckets, enough for any non-negative long. */
+    static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /**
+     * Counts one duration. Negative durations count as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        buckets[BUCKETS - Long.numberOfLeadingZeros(nanos)].increment();
+        totalNanos.add(nanos);
+    }
+
+    /**
+     * Forgets every duration counted so far. Durations recorded while this
+     * runs may or may not be forgotten.
+     */
+    public void reset() {
+        for (LongAdder bucket : buckets)
+            bucket.reset();
+        totalNanos.reset();
+    }
+
+    /**
+     * Returns the counts as they are now. The snapshot is not atomic: it may
+     * miss some of the durations recorded while it is taken.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = buckets[i].sum();
+        return new Snapshot(counts, totalNanos.sum());
+    }
+
+    /**
+     * The counts of a LatencyHistogram at one point in time.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long totalNanos;
+        private final long count;
+
+        Snapshot(long[] counts, long totalNanos) {
+            this.counts = counts;
+            this.totalNanos = totalNanos;
+            long n = 0;
+            for (long c : counts)
+                n += c;
+            this.count = n;
+        }
+
+        /** Returns the number of durations counted. */
+        public long getCount() {
+            return count;
+        }
+
+        /** Returns the mean duration in nanoseconds, or 0 if there is none. */
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /**
+         * Returns an upper bound of the p-th fraction of the durations, in
+         * nanoseconds: the exclusive upper end of the first bucket at which
+         * at least that fraction has been counted. Returns 0 if there is no
+         * duration.
+         *
+         * @param p the fraction, between 0 and 1
+         */
+        public long getPercentileNanos(double p) {
+            long target = (long) Math.ceil(p * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen > 0 && seen >= target)
+                    return i >= 63 ? Long.MAX_VALUE : 1L << i;
+            }
+            return 0;
+        }
+
+        /** Returns the median duration, as {@link #getPercentileNanos}. */
+        public long getP50Nanos() {
+            return getPercentileNanos(0.5);
+        }
+
+        /** Returns the 99th percentile duration, as {@link #getPercentileNanos}. */
+        public long getP99Nanos() {
+            return getPercentileNanos(0.99);
+        }
+
+        /** Returns an upper bound of the longest duration, as {@link #getPercentileNanos}. */
+        public long getMaxNanos() {
+            return getPercentileNanos(1);
+        }
+
+        /** Returns the number of durations in each bucket. */
+        public long[] getCounts() {
+            return counts.clone();
+        }
+
+        /**
+         * Returns the counts of this snapshot and another added together.
+         */
+        public Snapshot plus(Snapshot other) {
+            long[] sum = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++)
+                sum[i] = counts[i] + other.counts[i];
+            return new Snapshot(sum, totalNanos + other.totalNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d mean=%.0fns p50<%dns p99<%dns", count, getMeanNanos(),
+                    getP50Nanos(), getP99Nanos());
+        }
+    }
+}
@@ -19,21 +19,26 @@ two-phase locking discipline are followed.  <p>
 <p>
 
 Many of the methods here are synchronized (to prevent concurrent log
-writes from happening); many of the methods in BufferPool are also
-synchronized (for similar reasons.)  Problem is that BufferPool writes
-log records (on page flushed) and the log file flushes BufferPool
-pages (on checkpoints and recovery.)  This can lead to deadlock.  For
-that reason, any LogFile operation that needs to access the BufferPool
-must not be declared synchronized and must begin with a block like:
+writes from happening); BufferPool latches each of its partitions
+while it reads, flushes or evicts pages in that partition (for similar
+reasons.)  Problem is that BufferPool writes log records (on page
+flushed) and the log file flushes BufferPool pages (on checkpoints and
+recovery.)  This can lead to deadlock.  For that reason, any LogFile
+operation that needs to access the BufferPool must not be declared
+synchronized and must begin with a block like:
 
 <p>
 <pre>
-    synchronized (Database.getBufferPool()) {
+    BufferPool bufferPool = Database.getBufferPool();
+    bufferPool.latchAll();
+    try {
        synchronized (this) {
 
        ..
 
        }
+    } finally {
+        bufferPool.unlatchAll();
     }
 </pre>
 */
@@ -55,8 +60,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, and BULK_APPEND
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -71,6 +76,13 @@ of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
 for each active transaction.
 
+<li> BULK_APPEND records describe a batch of pages a bulk load wrote
+straight to the end of a table's file. They consist of three integers:
+the table id, the number of the first page written, and the number of
+pages.  Undoing the batch means cutting the file back to its first page,
+which rollback() does for an aborting transaction and recover() for every
+transaction that neither committed nor aborted before a crash.
+
 </ul>
 */
 public class LogFile {
@@ -84,6 +96,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int BULK_APPEND_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -149,7 +162,9 @@ public class LogFile {
         // must have buffer pool lock before proceeding, since this
         // calls rollback
 
-        synchronized (Database.getBufferPool()) {
+        BufferPool bufferPool = Database.getBufferPool();
+        bufferPool.latchAll();
+        try {
 
             synchronized(this) {
                 preAppend();
@@ -167,6 +182,8 @@ public class LogFile {
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
+        } finally {
+            bufferPool.unlatchAll();
         }
     }
 
@@ -220,6 +237,27 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /** Write a BULK_APPEND record for a batch of pages about to be
+        appended to a table's file outside of the buffer pool.
+        @param tid The transaction performing the load
+        @param tableId The table the pages belong to
+        @param firstPgNo The page number of the first page of the batch
+        @param numPages The number of pages in the batch
+    */
+    public synchronized void logBulkAppend(TransactionId tid, int tableId,
+                                           int firstPgNo, int numPages)
+        throws IOException {
+        Debug.log("BULK APPEND " + numPages + " pages");
+        preAppend();
+        raf.writeInt(BULK_APPEND_RECORD);
+        raf.writeLong(tid.getId());
+        raf.writeInt(tableId);
+        raf.writeInt(firstPgNo);
+        raf.writeInt(numPages);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
         PageId pid = p.getId();
         int[] pageInfo = pid.serialize();
@@ -312,7 +350,9 @@ public class LogFile {
     /** Checkpoint the log and write a checkpoint record. */
     public void logCheckpoint() throws IOException {
         //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
+        BufferPool bufferPool = Database.getBufferPool();
+        bufferPool.latchAll();
+        try {
             synchronized (this) {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
@@ -345,6 +385,8 @@ public class LogFile {
                 currentOffset = raf.getFilePointer();
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
+        } finally {
+            bufferPool.unlatchAll();
         }
 
         logTruncate();
@@ -422,6 +464,11 @@ public class LogFile {
                 case BEGIN_RECORD:
                     tidToFirstLogRecord.put(record_tid,newStart);
                     break;
+                case BULK_APPEND_RECORD:
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    break;
                 }
 
                 //all xactions finish with a pointer
@@ -456,11 +503,19 @@ public class LogFile {
     */
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
+        BufferPool bufferPool = Database.getBufferPool();
+        bufferPool.latchAll();
+        try {
             synchronized(this) {
                 preAppend();
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                Map<Long, Map<Integer, Integer>> appends = new HashMap<>();
+                readBulkAppends(first == null ? LONG_SIZE : first, appends, new HashSet<>());
+                undoBulkAppends(appends.get(tid.getId()));
                 // some code goes here
             }
+        } finally {
+            bufferPool.unlatchAll();
         }
     }
 
@@ -483,12 +538,96 @@ public class LogFile {
         updates of uncommitted transactions are not installed.
     */
     public void recover() throws IOException {
-        synchronized (Database.getBufferPool()) {
+        BufferPool bufferPool = Database.getBufferPool();
+        bufferPool.latchAll();
+        try {
             synchronized (this) {
                 recoveryUndecided = false;
+                // bulk loads still running at the crash are cut off
+                Map<Long, Map<Integer, Integer>> appends = new HashMap<>();
+                Set<Long> completed = new HashSet<>();
+                readBulkAppends(LONG_SIZE, appends, completed);
+                for (Map.Entry<Long, Map<Integer, Integer>> e : appends.entrySet()) {
+                    if (!completed.contains(e.getKey()))
+                        undoBulkAppends(e.getValue());
+                }
                 // some code goes here
             }
-         }
+        } finally {
+            bufferPool.unlatchAll();
+        }
+    }
+
+    /**
+     * Reads the BULK_APPEND records from the given offset to the end of the
+     * log, leaving the file pointer where it was.
+     *
+     * @param appends filled in with, for each transaction, the first page
+     *        it bulk-loaded into each table
+     * @param completed filled in with the transactions that committed or
+     *        aborted
+     */
+    private void readBulkAppends(long from, Map<Long, Map<Integer, Integer>> appends, Set<Long> completed)
+        throws IOException {
+        long curOffset = raf.getFilePointer();
+        raf.seek(from);
+        while (true) {
+            try {
+                int type = raf.readInt();
+                long tid = raf.readLong();
+                switch (type) {
+                case COMMIT_RECORD:
+                case ABORT_RECORD:
+                    completed.add(tid);
+                    break;
+                case UPDATE_RECORD:
+                    readPageData(raf);
+                    readPageData(raf);
+                    break;
+                case CHECKPOINT_RECORD:
+                    raf.skipBytes(raf.readInt() * 2 * LONG_SIZE);
+                    break;
+                case BULK_APPEND_RECORD:
+                    int tableId = raf.readInt();
+                    int firstPgNo = raf.readInt();
+                    raf.readInt();
+                    appends.computeIfAbsent(tid, t -> new HashMap<>()).merge(tableId, firstPgNo, Math::min);
+                    break;
+                }
+                raf.readLong();
+            } catch (EOFException e) {
+                break;
+            }
+        }
+        raf.seek(curOffset);
+    }
+
+    /**
+     * Cuts the given tables back to the first page a transaction
+     * bulk-loaded into each, and drops those pages from the buffer pool.
+     *
+     * @param firstPages the first loaded page of each table, or null if
+     *        the transaction loaded nothing
+     */
+    private void undoBulkAppends(Map<Integer, Integer> firstPages) throws IOException {
+        if (firstPages == null)
+            return;
+        for (Map.Entry<Integer, Integer> e : firstPages.entrySet()) {
+            DbFile file;
+            try {
+                file = Database.getCatalog().getDatabaseFile(e.getKey());
+            } catch (NoSuchElementException ex) {
+                continue;
+            }
+            if (!(file instanceof HeapFile))
+                continue;
+            HeapFile hf = (HeapFile) file;
+            int end = hf.numPages();
+            hf.cutBack(e.getValue());
+            for (int pgNo = e.getValue(); pgNo < end; pgNo++)
+                Database.getBufferPool().discardPage(new HeapPageId(e.getKey(), pgNo));
+            hf.force();
+        }
     }
 
     /** Print out a human readable represenation of the log */
@@ -554,6 +693,13 @@ public class LogFile {
 
                     System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
+                    break;
+                case BULK_APPEND_RECORD:
+                    System.out.println(" (BULK_APPEND)");
+                    System.out.println(raf.getFilePointer() + ": TABLE ID: " + raf.readInt());
+                    System.out.println(raf.getFilePointer() + ": FIRST PAGE: " + raf.readInt());
+                    System.out.println(raf.getFilePointer() + ": NUMBER OF PAGES: " + raf.readInt());
+                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
                     break;
                 }
 
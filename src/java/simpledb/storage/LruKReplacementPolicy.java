@@ -0,0 +1,137 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum, SIGMOD '93). The policy keeps
+ * the times of the last K references to every resident page and evicts the
+ * page whose K-th most recent reference is the oldest. Pages referenced fewer
+ * than K times have an infinite backward K-distance and go first, least
+ * recently used among them first, so a one-off scan cannot push out pages
+ * that have proven to be hot.
+ * <p>
+ * Pages are kept in a tree ordered by backward K-distance; hits and victim
+ * selection are O(log n).
+ * <p>
+ * Not thread-safe: the BufferPool partition that owns the policy
+ * serializes all calls under its latch.
+ */
+public class LruKReplacementPolicy implements ReplacementPolicy {
+    /** K used by {@link #LruKReplacementPolicy(int)}. */
+    public static final int DEFAULT_K = 2;
+
+    /** Reference history of one resident page. */
+    private static class History {
+        final PageId pid;
+        final long id;
+        /** history[0] is the most recent reference, 0 means no reference */
+        final long[] history;
+
+        History(PageId pid, long id, int k) {
+            this.pid = pid;
+            this.id = id;
+            this.history = new long[k];
+        }
+
+        long kthReference() {
+            return history[history.length - 1];
+        }
+
+        long lastReference() {
+            return history[0];
+        }
+
+        void reference(long time) {
+            System.arraycopy(history, 0, history, 1, history.length - 1);
+            history[0] = time;
+        }
+    }
+
+    private final int k;
+    private long clock = 0;
+    private long nextId = 0;
+    private final Map<PageId, History> resident = new HashMap<>();
+    private final TreeSet<History> order = new TreeSet<>((a, b) -> {
+        int c = Long.compare(a.kthReference(), b.kthReference());
+        if (c != 0)
+            return c;
+        c = Long.compare(a.lastReference(), b.lastReference());
+        if (c != 0)
+            return c;
+        return Long.compare(a.id, b.id);
+    });
+
+    /**
+     * Creates an LRU-2 policy.
+     *
+     * @param capacity number of pages in the pool (unused, kept so the
+     *                 constructor can serve as a BufferPool policy factory)
+     */
+    public LruKReplacementPolicy(int capacity) {
+        this(capacity, DEFAULT_K);
+    }
+
+    /**
+     * Creates an LRU-K policy.
+     *
+     * @param capacity number of pages in the pool
+     * @param k number of references remembered per page, at least 1
+     */
+    public LruKReplacementPolicy(int capacity, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+    }
+
+    public void pageAdded(PageId pid) {
+        History h = resident.get(pid);
+        if (h == null) {
+            h = new History(pid, nextId++, k);
+            resident.put(pid, h);
+        } else {
+            order.remove(h);
+        }
+        h.reference(++clock);
+        order.add(h);
+    }
+
+    public void pageAccessed(PageId pid) {
+        History h = resident.get(pid);
+        if (h == null)
+            return;
+        order.remove(h);
+        h.reference(++clock);
+        order.add(h);
+    }
+
+    public void pageRemoved(PageId pid) {
+        History h = resident.remove(pid);
+        if (h != null)
+            order.remove(h);
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        for (History h : order) {
+            if (evictable.test(h.pid))
+                return h.pid;
+        }
+        return null;
+    }
+
+    /**
+     * Orders resident pages by their K-th most recent reference, most recent
+     * first, which is the reverse of the eviction order.
+     */
+    public List<PageId> hottest() {
+        List<PageId> hottest = new ArrayList<>(order.size());
+        for (Iterator<History> it = order.descendingIterator(); it.hasNext(); )
+            hottest.add(it.next().pid);
+        return hottest;
+    }
+}
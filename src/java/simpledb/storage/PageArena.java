@@ -0,0 +1,102 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PageArena is a preallocated block of off-heap memory cut into fixed-size
+ * page frames. In off-heap mode the BufferPool reads heap-file pages
+ * straight into arena frames and HeapPage reads and writes them in place, so
+ * a resident page costs the garbage collector one small object instead of a
+ * graph of tuples, fields and byte arrays.
+ * <p>
+ * Frames are handed out and returned explicitly; the arena never grows.
+ *
+ * @Threadsafe
+ */
+public class PageArena {
+    /** One page-sized slice of the arena. */
+    public static final class Frame {
+        final int index;
+        final ByteBuffer buf;
+
+        private Frame(int index, ByteBuffer buf) {
+            this.index = index;
+            this.buf = buf;
+        }
+
+        /**
+         * Returns the frame's memory: a buffer of exactly one frame, with
+         * position 0.
+         */
+        public ByteBuffer buffer() {
+            return buf.duplicate();
+        }
+    }
+
+    private final int frameSize;
+    private final Frame[] frames;
+    /** indexes of the free frames, used as a stack; guarded by this */
+    private final int[] free;
+    private int numFree;
+
+    /**
+     * Allocates an arena of numFrames frames of frameSize bytes each.
+     *
+     * @param numFrames number of frames
+     * @param frameSize size of a frame in bytes, normally the page size
+     */
+    public PageArena(int numFrames, int frameSize) {
+        this.frameSize = frameSize;
+        this.frames = new Frame[numFrames];
+        this.free = new int[numFrames];
+
+        ByteBuffer arena = ByteBuffer.allocateDirect(Math.multiplyExact(numFrames, frameSize));
+        for (int i = 0; i < numFrames; i++) {
+            arena.limit((i + 1) * frameSize).position(i * frameSize);
+            frames[i] = new Frame(i, arena.slice());
+            free[i] = numFrames - 1 - i;
+        }
+        this.numFree = numFrames;
+    }
+
+    /**
+     * Returns the size of a frame in bytes.
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Returns the total number of frames.
+     */
+    public int getNumFrames() {
+        return frames.length;
+    }
+
+    /**
+     * Returns the number of frames not handed out.
+     */
+    public synchronized int getNumFree() {
+        return numFree;
+    }
+
+    /**
+     * Hands out a free frame.
+     *
+     * @return a frame, or null if all of them are in use
+     */
+    public synchronized Frame allocate() {
+        if (numFree == 0)
+            return null;
+        return frames[free[--numFree]];
+    }
+
+    /**
+     * Returns a frame to the arena. Its contents must no longer be used.
+     */
+    public synchronized void release(Frame frame) {
+        if (frames[frame.index] != frame)
+            throw new IllegalArgumentException("frame does not belong to this arena");
+        free[numFree++] = frame.index;
+    }
+}
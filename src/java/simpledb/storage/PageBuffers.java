@@ -0,0 +1,77 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * PageBuffers holds the buffers DbFiles encode pages into before writing
+ * them: each thread has its own set, which it reuses from write to write,
+ * so that writing a page does not allocate a page-sized array. The buffers
+ * are direct, which also saves the FileChannel from copying them into a
+ * temporary direct buffer of its own.
+ * <p>
+ * A thread keeps at most MAX_BUFFERS buffers; pages beyond that in a single
+ * call get buffers that are not kept.
+ *
+ * @see Page#getPageData(ByteBuffer)
+ */
+public final class PageBuffers {
+    /** Number of buffers each thread keeps. */
+    public static final int MAX_BUFFERS = 64;
+
+    private static final ThreadLocal<ByteBuffer[]> BUFFERS =
+            ThreadLocal.withInitial(() -> new ByteBuffer[MAX_BUFFERS]);
+
+    private PageBuffers() {
+    }
+
+    /**
+     * Returns the calling thread's i-th buffer, cleared and holding at
+     * least size bytes, or a new buffer if i is beyond the ones it keeps.
+     */
+    private static ByteBuffer buffer(int i, int size) {
+        if (i >= MAX_BUFFERS)
+            return ByteBuffer.allocate(size);
+
+        ByteBuffer[] buffers = BUFFERS.get();
+        // tables can have pages of different sizes
+        if (buffers[i] == null || buffers[i].capacity() < size)
+            buffers[i] = ByteBuffer.allocateDirect(size);
+        buffers[i].clear();
+        return buffers[i];
+    }
+
+    private static int pageSize(Page page) {
+        return BufferPool.getPageSize(page.getId().getTableId());
+    }
+
+    /**
+     * Encodes a page into a buffer of the calling thread, which stays valid
+     * until the thread next calls this class.
+     *
+     * @return the buffer, holding the page's bytes between its position and limit
+     */
+    public static ByteBuffer encode(Page page) {
+        ByteBuffer buf = buffer(0, pageSize(page));
+        page.getPageData(buf);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Encodes pages into buffers of the calling thread, which stay valid
+     * until the thread next calls this class.
+     *
+     * @return one buffer per page, holding the page's bytes between its
+     *         position and limit
+     */
+    public static ByteBuffer[] encode(List<Page> pages) {
+        ByteBuffer[] blocks = new ByteBuffer[pages.size()];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = buffer(i, pageSize(pages.get(i)));
+            pages.get(i).getPageData(blocks[i]);
+            blocks[i].flip();
+        }
+        return blocks;
+    }
+}
@@ -0,0 +1,215 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PageCleaner is the background writer of a BufferPool. It keeps a target
+ * fraction of the pool's frames clean by writing back dirty pages that no
+ * longer belong to a running transaction, so that eviction finds clean
+ * victims without having to write anything itself.
+ * <p>
+ * The pool runs NO STEAL, so pages dirtied by a running transaction are never
+ * touched; pages are eligible once the transaction that dirtied them has
+ * finished without getting them to disk, for instance because the write at
+ * commit failed. Eligible pages are read-locked while they are written.
+ * <p>
+ * All writes go through {@link #writeOrdered}, which the pool also uses at
+ * commit and in flushAllPages: pages are written in ascending (tableId,
+ * pageNo) order and runs of pages adjacent on disk are merged into single
+ * vectored writes.
+ * <p>
+ * The cleaner thread is started on demand by {@link #wakeup} and exits after
+ * a number of idle passes. It checks the pool every interval and cleans when
+ * fewer than the target fraction of frames are free or clean.
+ *
+ * @Threadsafe
+ */
+public class PageCleaner {
+    /** Fraction of frames the cleaner tries to keep free or clean. */
+    public static final double DEFAULT_CLEAN_TARGET = 0.25;
+    /** How often the cleaner checks the pool, in milliseconds. */
+    public static final long DEFAULT_INTERVAL_MILLIS = 50;
+    /** Passes without anything to write after which the thread exits. */
+    private static final int IDLE_PASSES = 20;
+
+    private final BufferPool pool;
+    private final double cleanTarget;
+    private final long intervalMillis;
+
+    private final LongAdder passes = new LongAdder();
+    private final LongAdder pagesWritten = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private volatile int backlog = 0;
+
+    /** the cleaner thread, or null when it is not running; guarded by this */
+    private Thread thread;
+    private boolean wakeupRequested = false;
+
+    /**
+     * Creates a cleaner for the given pool. The thread is not started until
+     * the first {@link #wakeup}.
+     *
+     * @param pool the pool to clean
+     * @param cleanTarget fraction of frames to keep free or clean, between 0 and 1
+     * @param intervalMillis how often the pool is checked
+     */
+    public PageCleaner(BufferPool pool, double cleanTarget, long intervalMillis) {
+        if (cleanTarget < 0 || cleanTarget > 1)
+            throw new IllegalArgumentException("cleanTarget must be between 0 and 1");
+        this.pool = pool;
+        this.cleanTarget = cleanTarget;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Asks the cleaner to run a pass soon, starting its thread if needed.
+     */
+    public synchronized void wakeup() {
+        wakeupRequested = true;
+        if (thread == null) {
+            thread = new Thread(this::run, "simpledb-page-cleaner");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Returns true if the cleaner thread is running.
+     */
+    public synchronized boolean isRunning() {
+        return thread != null;
+    }
+
+    private void run() {
+        int idle = 0;
+        while (true) {
+            boolean requested;
+            synchronized (this) {
+                if (!wakeupRequested) {
+                    try {
+                        wait(intervalMillis);
+                    } catch (InterruptedException e) {
+                        thread = null;
+                        return;
+                    }
+                }
+                requested = wakeupRequested;
+                wakeupRequested = false;
+            }
+
+            int written = 0;
+            if (requested || pool.cleanFraction() < cleanTarget)
+                written = clean();
+
+            synchronized (this) {
+                idle = written > 0 || backlog > 0 ? 0 : idle + 1;
+                if (idle >= IDLE_PASSES && !wakeupRequested) {
+                    thread = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs one cleaning pass in the calling thread.
+     *
+     * @return the number of pages written
+     */
+    public int clean() {
+        passes.increment();
+        return pool.cleanFinishedPages(this);
+    }
+
+    /** Called by the pool with the number of eligible pages it found. */
+    void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    /** Called by the pool after a cleaning pass wrote pages. */
+    void recordWrites(int pages, int writeCalls, long nanos) {
+        pagesWritten.add(pages);
+        writes.add(writeCalls);
+        writeNanos.add(nanos);
+    }
+
+    /**
+     * Writes pages to their files in ascending (tableId, pageNo) order. Pages
+     * adjacent on disk are merged into single writes.
+     *
+     * @return the number of write calls issued
+     */
+    public static int writeOrdered(Collection<Page> pages) throws IOException {
+        return writeOrdered(pages, null);
+    }
+
+    /**
+     * Writes pages like {@link #writeOrdered(Collection)}, timing the writes
+     * of each table into the given counters.
+     *
+     * @param stats the counters of the pool the pages belong to, or null
+     * @return the number of write calls issued
+     */
+    static int writeOrdered(Collection<Page> pages, BufferPoolStats stats) throws IOException {
+        List<Page> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingInt((Page p) -> p.getId().getTableId())
+                .thenComparingInt(p -> p.getId().getPageNumber()));
+
+        int writeCalls = 0;
+        int start = 0;
+        while (start < sorted.size()) {
+            int tableId = sorted.get(start).getId().getTableId();
+            int end = start + 1;
+            while (end < sorted.size() && sorted.get(end).getId().getTableId() == tableId)
+                end++;
+            long startNanos = System.nanoTime();
+            writeCalls += Database.getCatalog().getDatabaseFile(tableId).writePages(sorted.subList(start, end));
+            if (stats != null)
+                stats.recordWrite(tableId, end - start, System.nanoTime() - startNanos);
+            start = end;
+        }
+        return writeCalls;
+    }
+
+    /** Returns the number of cleaning passes run so far. */
+    public long getPasses() {
+        return passes.sum();
+    }
+
+    /** Returns the number of pages the cleaner has written. */
+    public long getPagesWritten() {
+        return pagesWritten.sum();
+    }
+
+    /** Returns the number of write calls the cleaner has issued. */
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    /**
+     * Returns the cleaner's write throughput in pages per second of time
+     * spent writing, or 0 if it has not written anything yet.
+     */
+    public double getPagesPerSecond() {
+        long nanos = writeNanos.sum();
+        return nanos == 0 ? 0 : getPagesWritten() * 1e9 / nanos;
+    }
+
+    /**
+     * Returns the number of dirty pages of finished transactions that the
+     * last pass found waiting to be written.
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+}
@@ -0,0 +1,347 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Each instance of PaxPage stores data for one page of a HeapFile in the
+ * PAX format, which groups the values of each field of the tuples on the
+ * page together, so that a scan that looks at few fields of a wide table
+ * only touches the memory holding those.
+ * <p>
+ * A PAX page has as many slots as a HeapPage of the same table, and the same
+ * header bitmap of the slots in use. After the header comes one minipage per
+ * field, holding the values of that field for every slot in slot order, each
+ * taking the field type's length; the minipage of field i starts at
+ * <pre>
+ *     header size + number of slots * (sum of the lengths of fields 0..i-1)
+ * </pre>
+ * Empty slots are all zeroes, so an all-zero page is an empty PAX page.
+ *
+ * @see HeapFile.Format#PAX
+ */
+public class PaxPage implements HeapFilePage {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int numSlots;
+    private final int headerSize;
+    /** Where the minipage of each field starts. */
+    private final int[] columnStarts;
+
+    /** The page as stored on disk; guarded by this. */
+    private final byte[] data;
+    private final ByteBuffer buf;
+    /** Number of empty slots; guarded by this. */
+    private int numEmptySlots;
+    /** The free-space map of the page's file, or null; told about every insert and delete. */
+    private FreeSpaceMap freeSpace;
+
+    /** The before image, or null while it is identical to data; guarded by this. */
+    byte[] oldData;
+
+    private TransactionId dirtyTid;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk, laid out
+     * as described in the class comment.
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data,
+                BufferPool.getPageSize(id.getTableId()));
+    }
+
+    /**
+     * Create a PaxPage of a table with the given TupleDesc and page size,
+     * which need not be in the catalog.
+     */
+    PaxPage(HeapPageId id, TupleDesc td, byte[] data, int pageSize) throws IOException {
+        this.pid = id;
+        this.td = td;
+        this.numSlots = HeapPage.getNumTuples(td, pageSize);
+        this.headerSize = (this.numSlots + 7) / 8;
+        this.columnStarts = new int[td.numFields()];
+        int start = this.headerSize;
+        for (int i = 0; i < td.numFields(); i++) {
+            this.columnStarts[i] = start;
+            start += this.numSlots * td.getFieldType(i).getLen();
+        }
+        this.data = Arrays.copyOf(data, pageSize);
+        this.buf = ByteBuffer.wrap(this.data);
+
+        int used = 0;
+        for (int i = 0; i < this.numSlots; i++)
+            if (isSlotUsed(i))
+                used++;
+        this.numEmptySlots = this.numSlots - used;
+    }
+
+    public synchronized void setFreeSpaceMap(FreeSpaceMap freeSpace) {
+        this.freeSpace = freeSpace;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return this.pid;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (this) {
+                oldDataRef = oldData != null ? oldData : data.clone();
+            }
+            return new PaxPage(pid, td, oldDataRef, data.length);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public synchronized void setBeforeImage() {
+        // copied again on the next change
+        oldData = null;
+    }
+
+    /**
+     * Saves the before image if it is still identical to the page. Must be
+     * called with this held.
+     */
+    private void prepareForChange() {
+        if (oldData == null)
+            oldData = data.clone();
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, which
+     * can be passed to the PaxPage constructor to produce an identical page.
+     */
+    public synchronized byte[] getPageData() {
+        return data.clone();
+    }
+
+    // see Page.java for javadocs
+    public synchronized void getPageData(ByteBuffer dst) {
+        dst.put(data);
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public synchronized int getNumEmptySlots() {
+        return this.numEmptySlots;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public synchronized boolean isSlotUsed(int i) {
+        return (this.data[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    /**
+     * Fills or clears a slot in the header. Must be called with this held.
+     */
+    private void markSlotUsed(int i, boolean value) {
+        if (value)
+            this.data[i / 8] |= (1 << (i % 8));
+        else
+            this.data[i / 8] &= ~(1 << (i % 8));
+    }
+
+    /**
+     * Returns the first empty slot, or -1 if there is none. Must be called
+     * with this held.
+     */
+    private int emptySlot() {
+        for (int i = 0; i < this.numSlots && this.numEmptySlots > 0; i++)
+            if (!isSlotUsed(i))
+                return i;
+        return -1;
+    }
+
+    /**
+     * Writes the fields of a tuple into their minipages and marks its slot
+     * used. Must be called with this held.
+     */
+    private void store(Tuple t, int slot) {
+        for (int j = 0; j < this.td.numFields(); j++) {
+            this.buf.position(this.columnStarts[j] + slot * this.td.getFieldType(j).getLen());
+            t.getField(j).serialize(this.buf);
+        }
+        markSlotUsed(slot, true);
+        this.numEmptySlots--;
+    }
+
+    public synchronized boolean append(Tuple t) {
+        int slot = emptySlot();
+        if (slot == -1)
+            return false;
+        store(t, slot);
+        return true;
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(this.td))
+            throw new DbException("tupledesc is mismatch");
+
+        int slot = emptySlot();
+        if (slot == -1)
+            throw new DbException("The page is full");
+
+        prepareForChange();
+        store(t, slot);
+        t.setRecordId(new RecordId(this.pid, slot));
+
+        if (this.freeSpace != null)
+            this.freeSpace.update(this.pid.getPageNumber(), this.numEmptySlots);
+    }
+
+    /**
+     * Delete the specified tuple from the page; the corresponding header bit should be updated to reflect
+     *   that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        int slot = rid.getTupleNumber();
+
+        if (!rid.getPageId().equals(this.pid))
+            throw new DbException("Tuple it not on this page");
+        if (slot < 0 || slot >= this.numSlots || !isSlotUsed(slot))
+            throw new DbException("Tuple slot is already empty");
+
+        prepareForChange();
+        markSlotUsed(slot, false);
+        // empty slots are all zeroes on disk
+        for (int j = 0; j < this.td.numFields(); j++) {
+            int len = this.td.getFieldType(j).getLen();
+            int offset = this.columnStarts[j] + slot * len;
+            Arrays.fill(this.data, offset, offset + len, (byte) 0);
+        }
+
+        this.numEmptySlots++;
+        if (this.freeSpace != null)
+            this.freeSpace.update(this.pid.getPageNumber(), this.numEmptySlots);
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.dirtyTid;
+    }
+
+    /**
+     * Returns the slots in use, and the page, as they are now.
+     */
+    private synchronized byte[] snapshot() {
+        return this.data.clone();
+    }
+
+    /**
+     * Returns the first used slot at or after slot in a snapshot of the
+     * page, or numSlots if there is none.
+     */
+    private int nextUsed(byte[] page, int slot) {
+        while (slot < this.numSlots && (page[slot / 8] & (1 << (slot % 8))) == 0)
+            slot++;
+        return slot;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     * this iterator throws an UnsupportedOperationException)
+     * <p>
+     * The iterator returns the tuples on the page as it is when the
+     * iterator is created. All tuples share one copy of the page, and
+     * decode each field from its minipage when it is first asked for.
+     */
+    public Iterator<Tuple> iterator() {
+        final byte[] page = snapshot();
+
+        return new Iterator<Tuple>() {
+            private int nextSlot = nextUsed(page, 0);
+
+            @Override
+            public boolean hasNext() {
+                return nextSlot < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = new Tuple(td, page, columnStarts, nextSlot);
+                t.setRecordId(new RecordId(pid, nextSlot));
+                nextSlot = nextUsed(page, nextSlot + 1);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the values of one field of the tuples on the
+     * page as it is when the iterator is created, decoded straight from the
+     * field's minipage without looking at the other fields.
+     */
+    public Iterator<Field> columnIterator(final int field) {
+        final byte[] page = snapshot();
+        final ByteBuffer values = ByteBuffer.wrap(page);
+        final int len = this.td.getFieldType(field).getLen();
+
+        return new Iterator<Field>() {
+            private int nextSlot = nextUsed(page, 0);
+
+            @Override
+            public boolean hasNext() {
+                return nextSlot < numSlots;
+            }
+
+            @Override
+            public Field next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                values.position(columnStarts[field] + nextSlot * len);
+                Field f;
+                try {
+                    f = td.getFieldType(field).parse(values);
+                } catch (java.text.ParseException e) {
+                    throw new NoSuchElementException("parsing error!");
+                }
+                nextSlot = nextUsed(page, nextSlot + 1);
+                return f;
+            }
+        };
+    }
+}
@@ -0,0 +1,197 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * ReadAhead prefetches the pages a sequential scan is about to read, so that
+ * disk reads overlap with tuple processing instead of stalling the scan one
+ * page at a time.
+ * <p>
+ * A scan fetches its pages through {@link #getPage} instead of calling
+ * BufferPool.getPage directly. Once two consecutive pages are found to follow
+ * each other, as defined by the successor function, a background task on the
+ * buffer pool's I/O executor starts reading the following pages into the pool
+ * (without locking them). The task stays up to a window of pages ahead of the
+ * scan. The window adapts to the scan's speed: it doubles whenever the scan
+ * asks for a page the read-ahead has not brought in yet, and halves whenever
+ * a prefetched page was evicted before the scan got to it. It is capped at a
+ * quarter of the pool, and read-ahead is off for pools of fewer than eight
+ * pages. A scan that uses a {@link BufferRing} reads ahead into its ring, and
+ * the window is capped at half the ring, so that prefetched pages do not
+ * recycle each other before the scan gets to them.
+ * <p>
+ * A non-sequential access resets the detector and abandons pages already
+ * prefetched; they are simply evicted like any other page.
+ *
+ * @Threadsafe
+ */
+public class ReadAhead {
+    /** Initial and smallest read-ahead window, in pages. */
+    private static final int MIN_WINDOW = 2;
+    /** Largest read-ahead window, in pages. */
+    private static final int MAX_WINDOW = 64;
+    /** Number of back-to-back sequential reads that turn read-ahead on. */
+    private static final int SEQUENTIAL_TRIGGER = 1;
+
+    private final BufferPool bufferPool;
+    private final Function<Page, PageId> successor;
+    private final BufferRing ring;
+    private final int maxWindow;
+
+    private int window = MIN_WINDOW;
+    private int sequentialRun = 0;
+    /** successor of the page the scan read last, or null */
+    private PageId expected;
+    /** prefetched pages the scan has not read yet, in scan order */
+    private final ArrayDeque<PageId> prefetched = new ArrayDeque<>();
+    /** page the next prefetch continues from: the last page prefetched, or read by the scan */
+    private Page frontier;
+    private boolean taskRunning = false;
+    /** bumped whenever the pattern breaks, so a running task can tell it is stale */
+    private long generation = 0;
+
+    /**
+     * Creates a read-ahead for one scan.
+     *
+     * @param successor returns the id of the page that a sequential scan
+     *                  reads after the given page, or null after the last one
+     */
+    public ReadAhead(Function<Page, PageId> successor) {
+        this(successor, null);
+    }
+
+    /**
+     * Creates a read-ahead for one scan that reads its pages through a
+     * buffer ring.
+     *
+     * @param successor returns the id of the page that a sequential scan
+     *                  reads after the given page, or null after the last one
+     * @param ring the scan's buffer ring, or null to use the shared pool
+     */
+    public ReadAhead(Function<Page, PageId> successor, BufferRing ring) {
+        this.bufferPool = Database.getBufferPool();
+        this.successor = successor;
+        this.ring = ring;
+        this.maxWindow = ring == null
+                ? Math.min(MAX_WINDOW, bufferPool.getNumPages() / 4)
+                : Math.min(MAX_WINDOW, ring.getCapacity() / 2);
+    }
+
+    /**
+     * Fetches a page through the buffer pool, exactly like
+     * {@link BufferPool#getPage}, and uses the access to drive read-ahead.
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        beforeRead(pid);
+        Page page = bufferPool.getPage(tid, pid, perm, ring);
+        afterRead(page);
+        return page;
+    }
+
+    /**
+     * Tells the read-ahead about a page the scan obtained some other way, for
+     * instance the first leaf of a B+ tree scan found by a root-to-leaf
+     * search, so that the scan's next page counts as a sequential read.
+     */
+    public void pageRead(Page page) {
+        synchronized (this) {
+            reset();
+        }
+        afterRead(page);
+    }
+
+    /**
+     * Stops read-ahead for this scan. Pages already prefetched stay in the
+     * pool.
+     */
+    public synchronized void close() {
+        reset();
+        expected = null;
+    }
+
+    private synchronized void beforeRead(PageId pid) {
+        if (!pid.equals(expected)) {
+            reset();
+            return;
+        }
+
+        sequentialRun++;
+        if (!prefetched.isEmpty() && prefetched.peekFirst().equals(pid)) {
+            prefetched.removeFirst();
+            // prefetched too far ahead: the page was evicted before we got here
+            if (!bufferPool.isResident(pid))
+                window = Math.max(MIN_WINDOW, window / 2);
+        } else if (taskRunning) {
+            // the scan caught up with the read-ahead
+            window = Math.min(maxWindow, window * 2);
+        }
+    }
+
+    private synchronized void afterRead(Page page) {
+        expected = successor.apply(page);
+        if (prefetched.isEmpty())
+            frontier = page;
+
+        if (maxWindow >= MIN_WINDOW && sequentialRun >= SEQUENTIAL_TRIGGER
+                && !taskRunning && prefetched.size() < window && expected != null) {
+            taskRunning = true;
+            long gen = generation;
+            try {
+                bufferPool.ioExecutor().execute(() -> prefetch(gen));
+            } catch (RejectedExecutionException e) {
+                taskRunning = false;
+            }
+        }
+    }
+
+    /** Forget the current sequential run; must hold this. */
+    private void reset() {
+        generation++;
+        sequentialRun = 0;
+        prefetched.clear();
+        frontier = null;
+        window = MIN_WINDOW;
+        taskRunning = false;
+    }
+
+    /**
+     * Background task: read pages following the frontier until the window
+     * is full or the pattern breaks.
+     */
+    private void prefetch(long gen) {
+        while (true) {
+            PageId next;
+            synchronized (this) {
+                if (gen != generation)
+                    return;
+                next = frontier == null ? null : successor.apply(frontier);
+                if (next == null || prefetched.size() >= window) {
+                    taskRunning = false;
+                    return;
+                }
+            }
+
+            Page page = bufferPool.prefetchPage(next, ring);
+
+            synchronized (this) {
+                if (gen != generation)
+                    return;
+                if (page == null) {
+                    taskRunning = false;
+                    return;
+                }
+                prefetched.addLast(next);
+                frontier = page;
+            }
+        }
+    }
+}
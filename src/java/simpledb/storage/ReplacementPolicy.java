@@ -0,0 +1,69 @@
+package simpledb.storage;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up when
+ * it needs a free frame. The BufferPool reports every page that enters or
+ * leaves the pool and every hit on a resident page; the policy keeps whatever
+ * bookkeeping it needs to pick a victim later.
+ * <p>
+ * Implementations are plugged into the BufferPool through its constructor, so
+ * different policies can be compared on the same workload.
+ * <p>
+ * The BufferPool creates one policy per partition and only calls it while
+ * holding that partition's latch, so implementations need not be thread-safe.
+ *
+ * @see BufferPool#BufferPool(int, java.util.function.IntFunction)
+ * @see ClockReplacementPolicy
+ * @see LruKReplacementPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Record that a page was read into the pool.
+     *
+     * @param pid the id of the page that became resident
+     */
+    void pageAdded(PageId pid);
+
+    /**
+     * Record a hit on a page that is already resident. This is called on
+     * every BufferPool.getPage hit, so it must be cheap.
+     *
+     * @param pid the id of the page that was accessed
+     */
+    void pageAccessed(PageId pid);
+
+    /**
+     * Forget about a page that left the pool, either because it was evicted
+     * or because it was discarded.
+     *
+     * @param pid the id of the page that is no longer resident
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Pick the page that should be evicted next. The page is not removed from
+     * the policy; the BufferPool calls {@link #pageRemoved} once it has
+     * actually dropped the page.
+     *
+     * @param evictable tells whether a resident page may be evicted at all
+     *                  (dirty pages may not, under NO STEAL)
+     * @return the victim, or null if no resident page is evictable
+     */
+    PageId chooseVictim(Predicate<PageId> evictable);
+
+    /**
+     * Returns the resident pages, hottest first: the pages the policy would
+     * keep longest come first, the next victims last. The BufferPool saves
+     * this order so that a restarted pool can reload its working set, see
+     * {@link HotPageList}. Policies that keep no such order return an empty
+     * list, and their pages are saved in no particular order.
+     */
+    default List<PageId> hottest() {
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,372 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Each instance of SlottedPage stores data for one page of a HeapFile in the
+ * slotted format, where tuples take only as many bytes as their fields
+ * encode to. That makes a difference for tables with VARCHAR fields, which
+ * a HeapPage stores at their maximum length.
+ * <p>
+ * A slotted page starts with a header of two unsigned 16-bit numbers: the
+ * number of entries in the slot directory, and the offset where the tuple
+ * data starts (0 for the end of the page, when there is none). The slot
+ * directory follows, one entry per slot of two unsigned 16-bit numbers: the
+ * offset of the slot's tuple and its length, or 0 and 0 if the slot is
+ * empty. Tuple data fills the page from the end towards the directory. An
+ * all-zero page is an empty slotted page.
+ * <p>
+ * A tuple keeps its slot, and so its RecordId, for as long as it is on the
+ * page; the tuple data is compacted when the free space is fragmented.
+ * Slotted pages are at most 64 KB.
+ *
+ * @see HeapFile.Format#SLOTTED
+ */
+public class SlottedPage implements HeapFilePage {
+    private static final int HEADER_SIZE = 4;
+    private static final int SLOT_SIZE = 4;
+    private static final int MAX_PAGE_SIZE = 1 << 16;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private final int pageSize;
+
+    /** The page as stored on disk; guarded by this. */
+    private final byte[] data;
+    private final ByteBuffer buf;
+    /** Directory entries and the start of the tuple data; guarded by this. */
+    private int numSlots;
+    private int dataStart;
+    /** Bytes taken by the tuples on the page; guarded by this. */
+    private int usedBytes;
+    /** The free-space map of the page's file, or null; told about every insert and delete. */
+    private FreeSpaceMap freeSpace;
+
+    /** The before image, or null while it is identical to data; guarded by this. */
+    byte[] oldData;
+
+    private TransactionId dirtyTid;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, laid
+     * out as described in the class comment.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data,
+                BufferPool.getPageSize(id.getTableId()));
+    }
+
+    /**
+     * Create a SlottedPage of a table with the given TupleDesc and page
+     * size, which need not be in the catalog.
+     */
+    SlottedPage(HeapPageId id, TupleDesc td, byte[] data, int pageSize) throws IOException {
+        this.pid = id;
+        this.td = td;
+        this.pageSize = pageSize;
+        if (this.pageSize > MAX_PAGE_SIZE)
+            throw new IOException("slotted pages are at most " + MAX_PAGE_SIZE + " bytes");
+        this.data = Arrays.copyOf(data, this.pageSize);
+        this.buf = ByteBuffer.wrap(this.data);
+
+        this.numSlots = this.buf.getChar(0);
+        this.dataStart = this.buf.getChar(2) == 0 ? this.pageSize : this.buf.getChar(2);
+        if (this.dataStart < directoryEnd())
+            throw new IOException("corrupt slotted page " + id.getPageNumber());
+        for (int i = 0; i < this.numSlots; i++)
+            this.usedBytes += slotLength(i);
+    }
+
+    private int directoryEnd() {
+        return HEADER_SIZE + this.numSlots * SLOT_SIZE;
+    }
+
+    private int slotOffset(int slot) {
+        return this.buf.getChar(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int slotLength(int slot) {
+        return this.buf.getChar(HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        this.buf.putChar(HEADER_SIZE + slot * SLOT_SIZE, (char) offset);
+        this.buf.putChar(HEADER_SIZE + slot * SLOT_SIZE + 2, (char) length);
+    }
+
+    private void writeHeader() {
+        this.buf.putChar(0, (char) this.numSlots);
+        this.buf.putChar(2, (char) (this.dataStart == this.pageSize ? 0 : this.dataStart));
+    }
+
+    public synchronized void setFreeSpaceMap(FreeSpaceMap freeSpace) {
+        this.freeSpace = freeSpace;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return this.pid;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (this) {
+                oldDataRef = oldData != null ? oldData : data.clone();
+            }
+            return new SlottedPage(pid, td, oldDataRef, pageSize);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public synchronized void setBeforeImage() {
+        // copied again on the next change
+        oldData = null;
+    }
+
+    /**
+     * Saves the before image if it is still identical to the page. Must be
+     * called with this held.
+     */
+    private void prepareForChange() {
+        if (oldData == null)
+            oldData = data.clone();
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, which
+     * can be passed to the SlottedPage constructor to produce an identical
+     * page.
+     */
+    public synchronized byte[] getPageData() {
+        return data.clone();
+    }
+
+    // see Page.java for javadocs
+    public synchronized void getPageData(ByteBuffer dst) {
+        dst.put(data);
+    }
+
+    /**
+     * Returns the number of tuples of the largest size the table allows
+     * that still fit on this page. Smaller tuples may fit even when this is 0.
+     */
+    public synchronized int getNumEmptySlots() {
+        int free = this.pageSize - directoryEnd() - this.usedBytes;
+        return Math.max(0, free / (this.td.getSize() + SLOT_SIZE));
+    }
+
+    /**
+     * Encodes the fields of a tuple as they are stored on the page.
+     */
+    private byte[] encode(Tuple t) {
+        ByteBuffer out = ByteBuffer.allocate(this.td.getSize());
+        for (int i = 0; i < this.td.numFields(); i++)
+            t.getField(i).serialize(out);
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    /**
+     * Returns the slot a new tuple goes into: the first empty one, or a new
+     * one at the end of the directory. Must be called with this held.
+     */
+    private int freeSlot() {
+        for (int i = 0; i < this.numSlots; i++)
+            if (slotOffset(i) == 0)
+                return i;
+        return this.numSlots;
+    }
+
+    /**
+     * Returns true if an encoded tuple of the given length fits on the page,
+     * possibly after compacting it. Must be called with this held.
+     */
+    private boolean fits(int len) {
+        int directoryEnd = HEADER_SIZE + Math.max(this.numSlots, freeSlot() + 1) * SLOT_SIZE;
+        return this.pageSize - directoryEnd - this.usedBytes >= len;
+    }
+
+    /**
+     * Stores an encoded tuple that fits in a free slot, compacting the tuple
+     * data first if needed. Must be called with this held.
+     *
+     * @return the slot the tuple went into
+     */
+    private int store(byte[] tuple) {
+        int slot = freeSlot();
+        int directoryEnd = HEADER_SIZE + Math.max(this.numSlots, slot + 1) * SLOT_SIZE;
+        if (this.dataStart - directoryEnd < tuple.length)
+            compact();
+
+        this.numSlots = Math.max(this.numSlots, slot + 1);
+        this.dataStart -= tuple.length;
+        System.arraycopy(tuple, 0, this.data, this.dataStart, tuple.length);
+        setSlot(slot, this.dataStart, tuple.length);
+        this.usedBytes += tuple.length;
+        writeHeader();
+        return slot;
+    }
+
+    /**
+     * Moves the tuple data to the end of the page, leaving all free space
+     * between the directory and the data. Must be called with this held.
+     */
+    private void compact() {
+        byte[] packed = new byte[this.pageSize];
+        int start = this.pageSize;
+        for (int i = 0; i < this.numSlots; i++) {
+            int len = slotLength(i);
+            if (slotOffset(i) == 0)
+                continue;
+            start -= len;
+            System.arraycopy(this.data, slotOffset(i), packed, start, len);
+            setSlot(i, start, len);
+        }
+        System.arraycopy(packed, start, this.data, start, this.pageSize - start);
+        Arrays.fill(this.data, directoryEnd(), start, (byte) 0);
+        this.dataStart = start;
+    }
+
+    public synchronized boolean append(Tuple t) {
+        byte[] tuple = encode(t);
+        if (!fits(tuple.length))
+            return false;
+        store(tuple);
+        return true;
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page is full or tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(this.td))
+            throw new DbException("tupledesc is mismatch");
+
+        byte[] tuple = encode(t);
+        if (!fits(tuple.length))
+            throw new DbException("The page is full");
+
+        prepareForChange();
+        int slot = store(tuple);
+        t.setRecordId(new RecordId(this.pid, slot));
+
+        if (this.freeSpace != null)
+            this.freeSpace.update(this.pid.getPageNumber(), getNumEmptySlots());
+    }
+
+    /**
+     * Delete the specified tuple from the page; its slot becomes empty.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        int slot = rid.getTupleNumber();
+
+        if (!rid.getPageId().equals(this.pid))
+            throw new DbException("Tuple it not on this page");
+        if (slot < 0 || slot >= this.numSlots || slotOffset(slot) == 0)
+            throw new DbException("Tuple slot is already empty");
+
+        prepareForChange();
+        int offset = slotOffset(slot);
+        int len = slotLength(slot);
+        Arrays.fill(this.data, offset, offset + len, (byte) 0);
+        setSlot(slot, 0, 0);
+        this.usedBytes -= len;
+        if (offset == this.dataStart)
+            this.dataStart += len;
+        while (this.numSlots > 0 && slotOffset(this.numSlots - 1) == 0)
+            this.numSlots--;
+        writeHeader();
+
+        if (this.freeSpace != null)
+            this.freeSpace.update(this.pid.getPageNumber(), getNumEmptySlots());
+    }
+
+    /**
+     * Returns the tuple in the given slot, or null if the slot is empty. The
+     * tuple gets its own copy of the slot's bytes. Must be called with this
+     * held.
+     */
+    private Tuple readTuple(int slot) {
+        if (slot >= this.numSlots || slotOffset(slot) == 0)
+            return null;
+        int offset = slotOffset(slot);
+        Tuple t = new Tuple(this.td, Arrays.copyOfRange(this.data, offset, offset + slotLength(slot)));
+        t.setRecordId(new RecordId(this.pid, slot));
+        return t;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.dirtyTid;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     * this iterator throws an UnsupportedOperationException)
+     * <p>
+     * The iterator returns the tuples in the slots that are in use when it
+     * is created and still are when they are reached.
+     */
+    public Iterator<Tuple> iterator() {
+        final int slots;
+        synchronized (this) {
+            slots = this.numSlots;
+        }
+
+        return new Iterator<Tuple>() {
+            private int nextSlot = 0;
+            private Tuple next = null;
+
+            @Override
+            public boolean hasNext() {
+                synchronized (SlottedPage.this) {
+                    while (next == null && nextSlot < slots)
+                        next = readTuple(nextSlot++);
+                }
+                return next != null;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = next;
+                next = null;
+                return t;
+            }
+        };
+    }
+}
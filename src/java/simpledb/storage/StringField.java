@@ -4,9 +4,11 @@ import simpledb.common.Type;
 import simpledb.execution.Predicate;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
- * Instance of Field that stores a single String of a fixed length.
+ * Instance of Field that stores a single String, either of a fixed length
+ * (STRING_TYPE) or of a variable length up to a maximum (VARCHAR_TYPE).
  */
 public class StringField implements Field {
 
@@ -14,6 +16,7 @@ public class StringField implements Field {
 
 	private final String value;
 	private final int maxSize;
+	private final Type type;
 
 	public String getValue() {
 		return value;
@@ -28,7 +31,23 @@ public class StringField implements Field {
 	 *            The maximum size of this string
 	 */
 	public StringField(String s, int maxSize) {
+		this(s, maxSize, Type.STRING_TYPE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param s
+	 *            The value of this field.
+	 * @param maxSize
+	 *            The maximum size of this string
+	 * @param type
+	 *            STRING_TYPE to always store maxSize characters, or
+	 *            VARCHAR_TYPE to store only as many as the string has
+	 */
+	public StringField(String s, int maxSize, Type type) {
 		this.maxSize = maxSize;
+		this.type = type;
 
 		if (s.length() > maxSize)
 			value = s.substring(0, maxSize);
@@ -52,7 +71,7 @@ public class StringField implements Field {
 	/**
 	 * Write this string to dos. Always writes maxSize + 4 bytes to the passed
 	 * in dos. First four bytes are string length, next bytes are string, with
-	 * remainder padded with 0 to maxSize.
+	 * remainder padded with 0 to maxSize. A VARCHAR is not padded.
 	 * 
 	 * @param dos
 	 *            Where the string is written
@@ -65,10 +84,27 @@ public class StringField implements Field {
 		}
 		dos.writeInt(s.length());
 		dos.writeBytes(s);
+		if (type == Type.VARCHAR_TYPE)
+			return;
 		while (overflow-- > 0)
 			dos.write((byte) 0);
 	}
 
+	public void serialize(ByteBuffer buf) {
+		String s = value;
+		int overflow = maxSize - s.length();
+		if (overflow < 0) {
+            s = s.substring(0, maxSize);
+		}
+		buf.putInt(s.length());
+		for (int i = 0; i < s.length(); i++)
+			buf.put((byte) s.charAt(i));
+		if (type == Type.VARCHAR_TYPE)
+			return;
+		while (overflow-- > 0)
+			buf.put((byte) 0);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
@@ -113,6 +149,6 @@ public class StringField implements Field {
 	 */
 	public Type getType() {
 
-		return Type.STRING_TYPE;
+		return type;
 	}
 }
@@ -0,0 +1,54 @@
+package simpledb.storage;
+
+/**
+ * Identifies a whole table to the lock manager, so a table can be locked with
+ * the same machinery as its pages. It names no real page: it is never read,
+ * cached or written, and its page number is -1, which no page of a table has.
+ * <p>
+ * Transactions that lock pages of a table first lock the table in an
+ * intention mode, IS to read and IX to write. A full scan locks the table
+ * shared instead of each page it reads, and a bulk load holds it exclusively
+ * while it appends pages to the file.
+ *
+ * @see BufferPool#lockTable
+ */
+public class TableLockId implements PageId {
+    private final int tableId;
+
+    /**
+     * Constructor.
+     *
+     * @param tableId The table that is being locked
+     */
+    public TableLockId(int tableId) {
+        this.tableId = tableId;
+    }
+
+    /** @return the table associated with this lock */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /** @return -1, as this id stands for no page in particular */
+    public int getPageNumber() {
+        return -1;
+    }
+
+    public int hashCode() {
+        return this.tableId * 10000 - 1;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof TableLockId))
+            return false;
+        return this.tableId == ((TableLockId) o).tableId;
+    }
+
+    public int[] serialize() {
+        return new int[] { this.tableId };
+    }
+
+    public String toString() {
+        return "table " + this.tableId;
+    }
+}
@@ -1,8 +1,12 @@
 package simpledb.storage;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import simpledb.common.Type;
 
 import javax.print.attribute.standard.Fidelity;
 
@@ -10,6 +14,11 @@ import javax.print.attribute.standard.Fidelity;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * A tuple read from a page keeps the page's bytes and a tuple made by a join
+ * or a projection keeps the tuples it is made of, and they create Field
+ * objects only for the fields that are asked for with getField. getInt and
+ * getString read a field without creating a Field at all.
  */
 public class Tuple implements Serializable {
 
@@ -17,7 +26,20 @@ public class Tuple implements Serializable {
 
     private TupleDesc td;
     private RecordId rid;
+    /** The fields given or decoded so far; null until the first one for a tuple of encoded or other tuples. */
     private Field[] fields;
+    /** The encoded fields, or null if all fields were given as objects. */
+    private byte[] raw;
+    /** For a tuple of a PAX page, where each field's minipage starts in raw; otherwise null. */
+    private int[] columnStarts;
+    /** For a tuple of a PAX page, its slot. */
+    private int slot;
+    /** For a tuple joining two others or projecting one, the (left) tuple its fields come from; otherwise null. */
+    private Tuple left;
+    /** For a tuple joining two others, the right one. */
+    private Tuple right;
+    /** For a tuple projecting left, which field of left each of its fields is; otherwise null. */
+    private int[] projected;
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -31,6 +53,77 @@ public class Tuple implements Serializable {
         this.fields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple from its fields as stored on a page: the fields in
+     * order, each encoded as by {@link Field#serialize}. A field is only
+     * decoded the first time it is asked for, so a tuple that is rejected
+     * after looking at one field never decodes the others.
+     *
+     * @param td
+     *            the schema of this tuple.
+     * @param raw
+     *            the encoded fields, at most td.getSize() bytes; the tuple
+     *            keeps the array, which must not change afterwards.
+     */
+    public Tuple(TupleDesc td, byte[] raw) {
+        this.td = td;
+        this.raw = raw;
+    }
+
+    /**
+     * Create a tuple from its slot of a page in the PAX format, where the
+     * values of each field are stored together; see {@link PaxPage}. Fields
+     * are decoded on demand as for {@link #Tuple(TupleDesc, byte[])}.
+     *
+     * @param page
+     *            the page; the tuple keeps the array, which must not change
+     *            afterwards.
+     * @param columnStarts
+     *            where the values of each field start in page
+     * @param slot
+     *            the tuple's slot
+     */
+    Tuple(TupleDesc td, byte[] page, int[] columnStarts, int slot) {
+        this.td = td;
+        this.raw = page;
+        this.columnStarts = columnStarts;
+        this.slot = slot;
+    }
+
+    /**
+     * Create a tuple joining two others: its fields are the fields of left
+     * followed by the fields of right. The tuple refers to left and right
+     * rather than copying their fields, and looks a field up in them the
+     * first time it is asked for.
+     *
+     * @param td
+     *            the schema of this tuple, which must be
+     *            TupleDesc.merge(left.getTupleDesc(), right.getTupleDesc())
+     */
+    public Tuple(TupleDesc td, Tuple left, Tuple right) {
+        this.td = td;
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * Create a tuple projecting another: its ith field is field fieldIds[i]
+     * of source, looked up the first time it is asked for. The tuple has
+     * the RecordId of source.
+     *
+     * @param td
+     *            the schema of this tuple
+     * @param fieldIds
+     *            which field of source each field is; the tuple keeps the
+     *            array, which must not change afterwards.
+     */
+    public Tuple(TupleDesc td, Tuple source, int[] fieldIds) {
+        this.td = td;
+        this.left = source;
+        this.projected = fieldIds;
+        this.rid = source.getRecordId();
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -65,6 +158,8 @@ public class Tuple implements Serializable {
      *            new value for the field.
      */
     public void setField(int i, Field f) {
+        if (this.fields == null)
+            this.fields = new Field[this.td.numFields()];
         this.fields[i] = f;
     }
 
@@ -75,7 +170,132 @@ public class Tuple implements Serializable {
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
-        return this.fields[i];
+        Field f = this.fields == null ? null : this.fields[i];
+        if (f == null) {
+            if (this.raw != null)
+                f = decodeField(i);
+            else if (this.left != null)
+                f = source(i).getField(sourceField(i));
+            else
+                return null;
+            setField(i, f);
+        }
+        return f;
+    }
+
+    /**
+     * Returns the value of the ith field, which must be an INT_TYPE field,
+     * without creating an IntField for it.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public int getInt(int i) {
+        Field f = this.fields == null ? null : this.fields[i];
+        if (f == null) {
+            if (this.raw != null && this.td.getFieldType(i) == Type.INT_TYPE)
+                return readInt(offset(i));
+            if (this.left != null)
+                return source(i).getInt(sourceField(i));
+            f = getField(i);
+        }
+        return ((IntField) f).getValue();
+    }
+
+    /**
+     * Returns the value of the ith field, which must be a STRING_TYPE or
+     * VARCHAR_TYPE field, without creating a StringField for it.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public String getString(int i) {
+        Field f = this.fields == null ? null : this.fields[i];
+        if (f == null) {
+            Type type = this.td.getFieldType(i);
+            if (this.raw != null && (type == Type.STRING_TYPE || type == Type.VARCHAR_TYPE)) {
+                int offset = offset(i);
+                int len = readInt(offset);
+                if (len < 0 || len > Type.STRING_LEN)
+                    throw new NoSuchElementException("parsing error!");
+                return new String(this.raw, offset + 4, len);
+            }
+            if (this.left != null)
+                return source(i).getString(sourceField(i));
+            f = getField(i);
+        }
+        return ((StringField) f).getValue();
+    }
+
+    /**
+     * For a tuple joining or projecting others, returns the tuple its ith
+     * field comes from.
+     */
+    private Tuple source(int i) {
+        if (this.projected != null || i < this.left.td.numFields())
+            return this.left;
+        return this.right;
+    }
+
+    /**
+     * For a tuple joining or projecting others, returns which field of
+     * {@link #source} its ith field is.
+     */
+    private int sourceField(int i) {
+        if (this.projected != null)
+            return this.projected[i];
+        int n = this.left.td.numFields();
+        return i < n ? i : i - n;
+    }
+
+    /**
+     * Returns where the ith field starts in raw.
+     */
+    private int offset(int i) {
+        if (this.columnStarts != null)
+            return this.columnStarts[i] + this.slot * this.td.getFieldType(i).getLen();
+        int offset = this.td.getOffset(i);
+        if (offset >= 0)
+            return offset;
+        offset = 0;
+        for (int j = 0; j < i; j++)
+            offset += this.td.getFieldType(j).getLen(this.raw, offset);
+        return offset;
+    }
+
+    /**
+     * Reads a big-endian int, as Field.serialize writes it, from raw.
+     */
+    private int readInt(int offset) {
+        return (this.raw[offset] << 24) | ((this.raw[offset + 1] & 0xFF) << 16)
+                | ((this.raw[offset + 2] & 0xFF) << 8) | (this.raw[offset + 3] & 0xFF);
+    }
+
+    private Field decodeField(int i) {
+        int offset = offset(i);
+        try {
+            return this.td.getFieldType(i).parse(ByteBuffer.wrap(this.raw, offset, this.raw.length - offset));
+        } catch (java.text.ParseException e) {
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * Decodes or looks up all fields that were not yet, and lets go of the
+     * bytes or tuples they came from.
+     */
+    private void decodeAll() {
+        if (this.raw == null && this.left == null)
+            return;
+        if (this.fields == null)
+            this.fields = new Field[this.td.numFields()];
+        for (int i = 0; i < this.fields.length; i++)
+            getField(i);
+        this.raw = null;
+        this.columnStarts = null;
+        this.left = null;
+        this.right = null;
+        this.projected = null;
     }
 
     /**
@@ -108,6 +328,7 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
+        decodeAll();
         return Arrays.asList(this.fields).iterator();
     }
 
@@ -116,6 +337,8 @@ public class Tuple implements Serializable {
      * */
     public void resetTupleDesc(TupleDesc td)
     {
+        // the encoded fields are laid out by the old TupleDesc
+        decodeAll();
         this.td = td;
     }
 }
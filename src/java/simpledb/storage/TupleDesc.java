@@ -38,6 +38,8 @@ public class TupleDesc implements Serializable {
     }
 
     private TDItem[] TDItems;
+    /** Where each field starts in an encoded tuple, or -1 if that depends on a VARCHAR before it. */
+    private int[] offsets;
 
 
     /**
@@ -69,6 +71,7 @@ public class TupleDesc implements Serializable {
         for(int i = 0; i < len; ++i) {
            this.TDItems[i] = new TDItem(typeAr[i], fieldAr[i]);
         }
+        this.offsets = offsets(this.TDItems);
     }
 
     /**
@@ -86,6 +89,18 @@ public class TupleDesc implements Serializable {
         for(int i = 0; i < len; ++i) {
            this.TDItems[i] = new TDItem(typeAr[i], "_unnamed_");
         }
+        this.offsets = offsets(this.TDItems);
+    }
+
+    private static int[] offsets(TDItem[] items) {
+        int[] offsets = new int[items.length];
+        int offset = 0;
+        for (int i = 0; i < items.length; i++) {
+            offsets[i] = offset;
+            if (offset >= 0)
+                offset = items[i].fieldType == Type.VARCHAR_TYPE ? -1 : offset + items[i].fieldType.getLen();
+        }
+        return offsets;
     }
 
     /**
@@ -126,6 +141,18 @@ public class TupleDesc implements Serializable {
         return this.TDItems[i].fieldType;
     }
 
+    /**
+     * Returns where the ith field starts in a tuple encoded as on a page, or
+     * -1 if a VARCHAR field comes before it, so that its place depends on
+     * the tuple.
+     *
+     * @param i
+     *            The index of the field. It must be a valid index.
+     */
+    public int getOffset(int i) {
+        return this.offsets[i];
+    }
+
     /**
      * Find the index of the field with a given name.
      * 
@@ -145,7 +172,9 @@ public class TupleDesc implements Serializable {
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Note that tuples from a given TupleDesc are of a fixed size,
+     *         unless it has VARCHAR fields; then this is the most a tuple
+     *         can take.
      */
     public int getSize() {
         int size = 0;
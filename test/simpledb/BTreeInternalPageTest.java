@@ -15,11 +15,13 @@ import simpledb.systemtest.SystemTestUtil;
 
 //import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -321,6 +323,33 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.getPageData(ByteBuffer): it writes the
+	 * same bytes as getPageData() over whatever the buffer held before, and
+	 * they read back as the same page.
+	 */
+	@Test public void getPageDataIntoBuffer() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+		page.deleteKeyAndRightChild(page.iterator().next());
+
+		ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize() + 8);
+		Arrays.fill(buf.array(), (byte) 0x5A);
+		buf.position(8);
+		page.getPageData(buf);
+		assertEquals(buf.capacity(), buf.position());
+		byte[] written = Arrays.copyOfRange(buf.array(), 8, buf.capacity());
+		assertArrayEquals(page.getPageData(), written);
+
+		BTreeInternalPage copy = new BTreeInternalPage(pid, written, 0);
+		assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+		Iterator<BTreeEntry> it = page.iterator();
+		Iterator<BTreeEntry> copyIt = copy.iterator();
+		while (it.hasNext())
+			assertEquals(it.next().getKey(), copyIt.next().getKey());
+		assertFalse(copyIt.hasNext());
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -0,0 +1,106 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolAsyncTest extends SimpleDbTestBase {
+    private HeapFile hf;
+
+    @Before
+    public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 10 * 504, null, null);
+        Database.resetBufferPool(20);
+    }
+
+    private List<PageId> pids(int... pgNos) {
+        List<PageId> pids = new ArrayList<>();
+        for (int pgNo : pgNos)
+            pids.add(new HeapPageId(hf.getId(), pgNo));
+        return pids;
+    }
+
+    /**
+     * Pages come back in the order asked for, resident or not, and locked.
+     */
+    @Test public void getPagesInOrder() throws Exception {
+        TransactionId tid = new TransactionId();
+        BufferPool pool = Database.getBufferPool();
+        Page resident = pool.getPage(tid, new HeapPageId(hf.getId(), 4), Permissions.READ_ONLY);
+
+        List<PageId> pids = pids(7, 1, 2, 3, 4, 9, 0, 8);
+        List<Page> pages = pool.getPagesAsync(tid, pids, Permissions.READ_ONLY).get();
+        assertEquals(pids.size(), pages.size());
+        for (int i = 0; i < pids.size(); i++) {
+            assertEquals(pids.get(i), pages.get(i).getId());
+            assertTrue(pool.holdsLock(tid, pids.get(i)));
+            assertArrayEquals(hf.readPage(pids.get(i)).getPageData(), pages.get(i).getPageData());
+        }
+        assertSame(resident, pages.get(4));
+
+        // they are all resident now
+        pool.getStats().resetStats();
+        for (PageId pid : pids)
+            assertSame(pages.get(pids.indexOf(pid)), pool.getPage(tid, pid, Permissions.READ_ONLY));
+        assertEquals(0, pool.getStats().total().getMisses());
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * Asking for the page just past the end of the file creates it, as getPage does.
+     */
+    @Test public void newPage() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Page> pages = Database.getBufferPool()
+                .getPagesAsync(tid, pids(8, 9, 10), Permissions.READ_WRITE).get();
+        assertEquals(new HeapPageId(hf.getId(), 10), pages.get(2).getId());
+        assertEquals(11, hf.numPages());
+        Database.getBufferPool().transactionComplete(tid, false);
+    }
+
+    /**
+     * A pool of dirty pages fails the future rather than the call.
+     */
+    @Test public void noMemory() throws Exception {
+        Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        BufferPool pool = Database.getBufferPool();
+        for (int i = 0; i < 2; i++)
+            ((HeapPage) pool.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE))
+                    .markDirty(true, tid);
+
+        try {
+            pool.getPagesAsync(tid, pids(5, 6), Permissions.READ_ONLY).get();
+            fail("read pages into a pool of dirty pages");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DbException);
+        }
+        pool.transactionComplete(tid, false);
+
+        // no frame was lost
+        tid = new TransactionId();
+        assertEquals(2, pool.getPagesAsync(tid, pids(5, 6), Permissions.READ_ONLY).get().size());
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolAsyncTest.class);
+    }
+}
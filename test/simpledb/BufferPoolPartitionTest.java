@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ClockReplacementPolicy;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolPartitionTest extends SimpleDbTestBase {
+    private static final int PAGES = 20;
+
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = TestUtil.createFullHeapFile(PAGES, null);
+    }
+
+    /**
+     * Unit test that a partition can take frames from the others: the pool
+     * holds numPages dirty pages no matter how they hash, and fails only on
+     * the next one.
+     */
+    @Test public void framesAreSharedAcrossPartitions() throws Exception {
+        BufferPool bp = new BufferPool(8, 4, ClockReplacementPolicy::new);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 8; i++) {
+            Page p = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            p.markDirty(true, tid);
+        }
+
+        try {
+            bp.getPage(tid, new HeapPageId(hf.getId(), 8), Permissions.READ_WRITE);
+            fail("expected DbException when every frame holds a dirty page");
+        } catch (DbException e) {
+            // expected
+        }
+
+        bp.transactionComplete(tid);
+        TransactionId tid2 = new TransactionId();
+        for (int i = 8; i < PAGES; i++)
+            bp.getPage(tid2, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        bp.transactionComplete(tid2);
+    }
+
+    /**
+     * Unit test that concurrent readers of different pages all get the page
+     * they asked for while the pool evicts underneath them.
+     */
+    @Test public void concurrentReaders() throws Exception {
+        BufferPool bp = Database.resetBufferPool(8);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int round = 0; round < 10; round++) {
+                        TransactionId tid = new TransactionId();
+                        for (int i = offset; i < PAGES; i += 4) {
+                            HeapPageId pid = new HeapPageId(hf.getId(), i);
+                            Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+                            assertEquals(pid, p.getId());
+                        }
+                        bp.transactionComplete(tid);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        assertNull(failure.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPartitionTest.class);
+    }
+}
@@ -0,0 +1,141 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolStatsTest extends SimpleDbTestBase {
+    private HeapFile small;
+    private HeapFile large;
+
+    @Before
+    public void setUp() throws Exception {
+        small = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        large = SystemTestUtil.createRandomHeapFile(2, 10 * 504, null, null);
+        Database.resetBufferPool(4);
+    }
+
+    private BufferPoolStats.TableSnapshot table(HeapFile f) {
+        for (BufferPoolStats.TableSnapshot t : Database.getBufferPool().getStats().snapshot()) {
+            if (t.getTableId() == f.getId())
+                return t;
+        }
+        fail("no counters for table " + f.getId());
+        return null;
+    }
+
+    /**
+     * Hits, misses, reads and evictions are counted for the table of the page.
+     */
+    @Test public void hitsMissesAndEvictions() throws Exception {
+        TransactionId tid = new TransactionId();
+        BufferPool pool = Database.getBufferPool();
+        pool.getPage(tid, new HeapPageId(small.getId(), 0), Permissions.READ_ONLY);
+        pool.getPage(tid, new HeapPageId(small.getId(), 0), Permissions.READ_ONLY);
+        for (int i = 0; i < 10; i++)
+            pool.getPage(tid, new HeapPageId(large.getId(), i), Permissions.READ_ONLY);
+        pool.transactionComplete(tid);
+
+        BufferPoolStats.TableSnapshot s = table(small);
+        assertEquals(1, s.getHits());
+        assertEquals(1, s.getMisses());
+        assertTrue(s.getHitLatency().getCount() <= 1); // hits are sampled
+        assertEquals(1, s.getReadLatency().getCount());
+        assertEquals(1, s.getEvictions());
+
+        BufferPoolStats.TableSnapshot l = table(large);
+        assertEquals(0, l.getHits());
+        assertEquals(10, l.getMisses());
+        assertEquals(10, l.getMissLatency().getCount());
+        assertEquals(6, l.getEvictions());
+        assertEquals(0, l.getDirtyEvictions());
+
+        BufferPoolStats.TableSnapshot total = pool.getStats().total();
+        assertEquals(11, total.getMisses());
+        assertEquals(1.0 / 12, total.getHitRatio(), 1e-9);
+        assertTrue(total.getMissLatency().getP99Nanos() >= total.getMissLatency().getP50Nanos());
+
+        pool.getStats().resetStats();
+        assertEquals(0, pool.getStats().total().getMisses());
+    }
+
+    /**
+     * Written pages and requests that find every page dirty are counted.
+     */
+    @Test public void writesAndNoMemory() throws Exception {
+        TransactionId tid = new TransactionId();
+        BufferPool pool = Database.getBufferPool();
+        for (int i = 0; i < 4; i++) {
+            HeapPage page = (HeapPage) pool.getPage(tid, new HeapPageId(large.getId(), i), Permissions.READ_WRITE);
+            page.markDirty(true, tid);
+        }
+        try {
+            pool.getPage(tid, new HeapPageId(small.getId(), 0), Permissions.READ_ONLY);
+            fail("read a page into a pool of dirty pages");
+        } catch (DbException e) {
+            // expected
+        }
+        pool.transactionComplete(tid);
+
+        assertEquals(1, table(small).getNoMemoryFailures());
+        assertEquals(4, table(large).getPagesWritten());
+        assertTrue(table(large).getWriteLatency().getCount() > 0);
+    }
+
+    /**
+     * The Database's pool is registered with the platform MBean server.
+     */
+    @Test public void mxBean() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().getPage(tid, new HeapPageId(small.getId(), 0), Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(tid);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(BufferPoolStats.OBJECT_NAME);
+        assertEquals(4, server.getAttribute(name, "Capacity"));
+        assertEquals(1L, server.getAttribute(name, "Misses"));
+        CompositeData[] tables = (CompositeData[]) server.getAttribute(name, "Tables");
+        assertEquals(1, tables.length);
+        assertEquals(small.getId(), tables[0].get("tableId"));
+        CompositeData latency = (CompositeData) tables[0].get("readLatency");
+        assertEquals(1L, latency.get("count"));
+    }
+
+    /**
+     * LatencyHistogram buckets double in width.
+     */
+    @Test public void histogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < 99; i++)
+            h.record(100);
+        h.record(1_000_000);
+        LatencyHistogram.Snapshot s = h.snapshot();
+        assertEquals(100, s.getCount());
+        assertEquals(128, s.getP50Nanos());
+        assertEquals(128, s.getP99Nanos());
+        assertEquals(1 << 20, s.getMaxNanos());
+        assertEquals((99 * 100 + 1_000_000) / 100.0, s.getMeanNanos(), 1e-9);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolStatsTest.class);
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb;
+
+import simpledb.TestUtil.CountingHeapFile;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static simpledb.TestUtil.TUPLES_PER_PAGE;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferRingTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 40;
+    private static final int HOT_PAGES = 10;
+    private static final int BIG_PAGES = 100;
+
+    private CountingHeapFile hot;
+    private HeapFile big;
+    private TransactionId tid;
+
+    @Before
+    public void setUp() throws Exception {
+        hot = TestUtil.createCountingHeapFile(HOT_PAGES, "hot");
+        big = TestUtil.createFullHeapFile(BIG_PAGES, null);
+        Database.resetBufferPool(POOL_PAGES);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private void readHotPages() throws Exception {
+        for (int i = 0; i < HOT_PAGES; i++)
+            Database.getBufferPool().getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+    }
+
+    private int scan(SeqScan scan) throws Exception {
+        int count = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        return count;
+    }
+
+    /**
+     * A ring scan of a table larger than the pool leaves the pages other
+     * transactions were using resident.
+     */
+    @Test
+    public void ringScanKeepsWorkingSet() throws Exception {
+        readHotPages();
+        assertEquals(HOT_PAGES, hot.reads.get());
+
+        SeqScan scan = new SeqScan(tid, big.getId(), "big", true);
+        assertTrue(scan.isRingScan());
+        assertEquals(BIG_PAGES * TUPLES_PER_PAGE, scan(scan));
+
+        readHotPages();
+        assertEquals(HOT_PAGES, hot.reads.get());
+    }
+
+    /**
+     * Without a ring, the same scan pushes the working set out of the pool.
+     */
+    @Test
+    public void plainScanEvictsWorkingSet() throws Exception {
+        readHotPages();
+        assertEquals(BIG_PAGES * TUPLES_PER_PAGE, scan(new SeqScan(tid, big.getId(), "big")));
+
+        readHotPages();
+        assertTrue(hot.reads.get() > HOT_PAGES);
+    }
+
+    /**
+     * A ring scan succeeds even when most of the pool is dirty.
+     */
+    @Test
+    public void ringScanWithDirtyPool() throws Exception {
+        for (int i = 0; i < HOT_PAGES; i++) {
+            Page p = Database.getBufferPool().getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_WRITE);
+            p.markDirty(true, tid);
+        }
+        assertEquals(BIG_PAGES * TUPLES_PER_PAGE, scan(new SeqScan(tid, big.getId(), "big", true)));
+    }
+
+    /**
+     * The ring never holds more pages than its capacity.
+     */
+    @Test
+    public void ringIsBounded() throws Exception {
+        BufferRing ring = new BufferRing(3);
+        DbFileIterator it = big.iterator(tid, ring);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            assertTrue(ring.size() <= ring.getCapacity());
+        }
+        it.close();
+        assertEquals(3, ring.size());
+    }
+
+    /**
+     * The planner uses a ring for tables that are large compared to the pool.
+     */
+    @Test
+    public void plannerChoosesRing() {
+        assertFalse(LogicalPlan.useBufferRing(hot));
+        assertTrue(LogicalPlan.useBufferRing(big));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
@@ -0,0 +1,182 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static simpledb.TestUtil.TUPLES_PER_PAGE;
+import junit.framework.JUnit4TestAdapter;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+    private static final int LOADED = 3 * BulkLoader.BATCH_PAGES * TUPLES_PER_PAGE / 2;
+
+    private HeapFile hf;
+    private List<List<Integer>> tuples;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        Database.getCatalog().addTable(hf, "bulk");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private void load(TransactionId tid) throws Exception {
+        BulkLoader loader = new BulkLoader(tid, hf);
+        for (int i = 0; i < LOADED; i++)
+            loader.add(Utility.getHeapTuple(new int[] { i, -i }));
+        assertEquals(LOADED, loader.finish());
+    }
+
+    /**
+     * Loaded tuples land on whole new pages after the existing ones, and the
+     * free-space map and table statistics know about them.
+     */
+    @Test public void loadAppendsPages() throws Exception {
+        int before = hf.numPages();
+        TransactionId tid = new TransactionId();
+        load(tid);
+        Database.getBufferPool().transactionComplete(tid);
+
+        int loadedPages = (LOADED + TUPLES_PER_PAGE - 1) / TUPLES_PER_PAGE;
+        assertEquals(before + loadedPages, hf.numPages());
+        assertEquals((long) hf.numPages() * BufferPool.getPageSize(), hf.getFile().length());
+        assertEquals(0, hf.getFreeSpaceMap().getFreeSlots(before));
+        assertEquals(loadedPages * TUPLES_PER_PAGE - LOADED,
+                hf.getFreeSpaceMap().getFreeSlots(hf.numPages() - 1));
+
+        for (int i = 0; i < LOADED; i++)
+            tuples.add(Arrays.asList(i, -i));
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TableStats stats = TableStats.getTableStats("bulk");
+        assertEquals(1000 + LOADED, stats.estimateTableCardinality(1.0));
+    }
+
+    /**
+     * Aborting the loading transaction cuts the file back.
+     */
+    @Test public void abortCutsFileBack() throws Exception {
+        long length = hf.getFile().length();
+        int before = hf.numPages();
+        TransactionId tid = new TransactionId();
+        load(tid);
+        assertTrue(hf.numPages() > before);
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        assertEquals(before, hf.numPages());
+        assertEquals(length, hf.getFile().length());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Rolling back the loading transaction through the log cuts the file
+     * back, before its abort record is written.
+     */
+    @Test public void rollbackCutsFileBack() throws Exception {
+        long length = hf.getFile().length();
+        Transaction t = new Transaction();
+        t.start();
+        load(t.getId());
+        Database.getLogFile().logAbort(t.getId());
+
+        assertEquals(length, hf.getFile().length());
+        Database.getBufferPool().transactionComplete(t.getId(), false);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Recovery cuts off the pages of a load that was running at a crash, and
+     * keeps those of a committed one.
+     */
+    @Test public void recoverCutsOffRunningLoad() throws Exception {
+        Transaction committed = new Transaction();
+        committed.start();
+        load(committed.getId());
+        committed.commit();
+        long length = hf.getFile().length();
+
+        Transaction running = new Transaction();
+        running.start();
+        load(running.getId());
+        assertTrue(hf.getFile().length() > length);
+
+        Database.reset();
+        hf = Utility.openHeapFile(2, hf.getFile());
+        Database.getLogFile().recover();
+
+        assertEquals(length, hf.getFile().length());
+        for (int i = 0; i < LOADED; i++)
+            tuples.add(Arrays.asList(i, -i));
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A load and any other use of the table exclude each other.
+     */
+    @Test public void tableLock() throws Exception {
+        TransactionId reader = new TransactionId();
+        SeqScan scan = new SeqScan(reader, hf.getId(), "");
+        scan.open();
+        try {
+            new BulkLoader(new TransactionId(), hf);
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException expected) {
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(reader);
+
+        TransactionId loader = new TransactionId();
+        new BulkLoader(loader, hf);
+        try {
+            Database.getBufferPool().insertTuple(new TransactionId(), hf.getId(),
+                    Utility.getHeapTuple(new int[] { 1, 1 }));
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException expected) {
+        }
+        Database.getBufferPool().transactionComplete(loader);
+    }
+
+    /**
+     * LOAD DATA INFILE reads a text file into the table.
+     */
+    @Test public void loadStatement() throws Exception {
+        File text = File.createTempFile("load", ".txt");
+        text.deleteOnExit();
+        try (FileWriter w = new FileWriter(text)) {
+            for (int i = 0; i < 10; i++) {
+                w.write(i + "|" + (i * 2) + "\n");
+                tuples.add(Arrays.asList(i, i * 2));
+            }
+        }
+
+        new Parser().processNextStatement("LOAD DATA INFILE '" + text.getPath()
+                + "' INTO TABLE bulk FIELDS TERMINATED BY '|';");
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -0,0 +1,133 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private File f;
+    private CompressedHeapFile hf;
+    private List<List<Integer>> tuples;
+
+    @Before
+    public void setUp() throws Exception {
+        f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.sideFile(f).deleteOnExit();
+        CompressedHeapFile.mapFile(f).deleteOnExit();
+        tuples = new ArrayList<>();
+        hf = open();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private CompressedHeapFile open() throws Exception {
+        CompressedHeapFile file = new CompressedHeapFile(f, Utility.getTupleDesc(2),
+                HeapFile.Format.FIXED, Deflater.DEFAULT_COMPRESSION);
+        Database.getCatalog().addTable(file, "compressed");
+        return file;
+    }
+
+    private void insert(int count, int seed) throws Exception {
+        Random rand = new Random(seed);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < count; i++) {
+            int[] values = { i, rand.nextInt(100) };
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(values));
+            tuples.add(Arrays.asList(values[0], values[1]));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Pages written through the buffer pool take much less space on disk,
+     * and read back the same after the file is opened again.
+     */
+    @Test public void writeAndReopen() throws Exception {
+        insert(5000, 1);
+        assertTrue(hf.numPages() > 5);
+        assertTrue(f.length() * 2 < (long) hf.numPages() * BufferPool.getPageSize());
+        assertEquals(hf.getCompressedSize(), f.length());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        int numPages = hf.numPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = open();
+        assertEquals(numPages, hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A page that no longer fits its extent moves to a new one; pages that
+     * still fit stay where they are.
+     */
+    @Test public void pageOutgrowsExtent() throws Exception {
+        insert(10, 2);
+        long size = hf.getCompressedSize();
+        assertEquals(CompressedHeapFile.EXTENT_ALIGN, size);
+
+        insert(400, 3);
+        assertTrue(hf.getCompressedSize() > size);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = open();
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Bulk loads compress their pages too, and an aborted one leaves the
+     * file as it was.
+     */
+    @Test public void bulkLoad() throws Exception {
+        insert(100, 4);
+        long size = hf.getCompressedSize();
+
+        TransactionId tid = new TransactionId();
+        BulkLoader loader = new BulkLoader(tid, hf);
+        for (int i = 0; i < 10000; i++)
+            loader.add(Utility.getHeapTuple(new int[] { i, 0 }));
+        loader.finish();
+        assertTrue(hf.getCompressedSize() > size);
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        assertEquals(1, hf.numPages());
+        assertEquals(size, f.length());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        tid = new TransactionId();
+        loader = new BulkLoader(tid, hf);
+        for (int i = 0; i < 10000; i++) {
+            loader.add(Utility.getHeapTuple(new int[] { i, 0 }));
+            tuples.add(Arrays.asList(i, 0));
+        }
+        loader.finish();
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = open();
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
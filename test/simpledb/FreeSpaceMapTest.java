@@ -0,0 +1,110 @@
+package simpledb;
+
+import simpledb.TestUtil.CountingHeapFile;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+    private static final int PAGES = 10;
+
+    private CountingHeapFile hf;
+
+    @Before
+    public void setUp() throws Exception {
+        hf = TestUtil.createCountingHeapFile(PAGES, "full");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    @After
+    public void tearDown() {
+        FreeSpaceMap.sideFile(hf.getFile()).delete();
+    }
+
+    private RecordId insert(int value) throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { value, value });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        return t.getRecordId();
+    }
+
+    /**
+     * An insert into a file of full pages goes straight to a new page, and
+     * the next one to the page a tuple was deleted from.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        RecordId rid = insert(1);
+        assertEquals(PAGES, rid.getPageId().getPageNumber());
+        assertEquals(1, hf.reads.get());
+
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 3), Permissions.READ_WRITE);
+        Database.getBufferPool().deleteTuple(tid, page.iterator().next());
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, hf.getFreeSpaceMap().getFreeSlots(3));
+
+        int reads = hf.reads.get();
+        rid = insert(2);
+        assertEquals(3, rid.getPageId().getPageNumber());
+        assertEquals(reads, hf.reads.get());
+        assertEquals(0, hf.getFreeSpaceMap().getFreeSlots(3));
+    }
+
+    /**
+     * The map is written out with the pages and read back by a new HeapFile
+     * on the same file.
+     */
+    @Test public void survivesRestart() throws Exception {
+        insert(1);
+        assertTrue(FreeSpaceMap.sideFile(hf.getFile()).exists());
+
+        HeapFile reopened = new HeapFile(hf.getFile(), Utility.getTupleDesc(2));
+        FreeSpaceMap map = reopened.getFreeSpaceMap();
+        assertEquals(254, map.getFreeSlots(PAGES)); // 503, capped
+        for (int i = 0; i < PAGES; i++)
+            assertEquals(0, map.getFreeSlots(i));
+        assertEquals(-1, map.nextCandidate(0, PAGES));
+        assertEquals(PAGES, map.nextCandidate(0, PAGES + 1));
+    }
+
+    /**
+     * Entries cap at what a byte can hold and are unknown until set.
+     */
+    @Test public void entries() throws Exception {
+        File f = File.createTempFile("fsm", ".fsm");
+        f.delete();
+        FreeSpaceMap map = new FreeSpaceMap(f);
+        assertEquals(FreeSpaceMap.UNKNOWN, map.getFreeSlots(5));
+        map.update(5, 1000);
+        assertEquals(254, map.getFreeSlots(5));
+        map.update(5, 0);
+        assertEquals(0, map.getFreeSlots(5));
+        assertEquals(0, map.nextCandidate(0, 10));
+        assertEquals(6, map.nextCandidate(5, 10));
+        map.flush();
+        map.close();
+        assertEquals(6, f.length());
+        f.delete();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -81,6 +81,29 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() in memory-mapped mode
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        Database.getCatalog().addTable(mapped, "mapped");
+        assertTrue(mapped.isMemoryMapped());
+
+        HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        HeapPage expected = (HeapPage) hf.readPage(pid);
+        assertArrayEquals(expected.getPageData(), page.getPageData());
+        assertEquals(484, page.getNumEmptySlots());
+
+        // a write-back is visible through the mapping, and the before image
+        // of the page that was modified still shows the old contents
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        mapped.writePage(page);
+        assertEquals(483, ((HeapPage) mapped.readPage(pid)).getNumEmptySlots());
+        assertEquals(484, page.getBeforeImage().getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
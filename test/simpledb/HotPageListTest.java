@@ -0,0 +1,136 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HotPageListTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private HotPageList list;
+
+    @Before
+    public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 10 * 504, null, null);
+        File f = File.createTempFile("hotpages", ".dat");
+        f.delete();
+        f.deleteOnExit();
+        list = new HotPageList(f);
+        Database.resetBufferPool(20);
+    }
+
+    @After
+    public void tearDown() {
+        list.getFile().delete();
+    }
+
+    private void readPages(int... pgNos) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int pgNo : pgNos)
+            Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The saved list holds every resident page, hottest first.
+     */
+    @Test public void saveAndLoad() throws Exception {
+        readPages(0, 1, 2, 3, 4);
+        for (int i = 0; i < 3; i++)
+            readPages(3);
+
+        assertEquals(5, list.save(Database.getBufferPool()));
+        List<PageId> loaded = list.load();
+        assertEquals(5, loaded.size());
+        assertEquals(new HeapPageId(hf.getId(), 3), loaded.get(0));
+        assertEquals(Database.getBufferPool().hotPages(), loaded);
+    }
+
+    /**
+     * There is nothing to load before the first save.
+     */
+    @Test public void loadMissingList() throws Exception {
+        assertTrue(list.load().isEmpty());
+        assertEquals(0, (int) list.warm(Database.getBufferPool()).get());
+    }
+
+    /**
+     * A restarted pool warmed from the saved list hits on every saved page.
+     */
+    @Test public void warmRestart() throws Exception {
+        readPages(0, 2, 3, 4, 7, 9);
+        list.save(Database.getBufferPool());
+
+        Database.resetBufferPool(20);
+        assertEquals(6, (int) list.warm(Database.getBufferPool()).get());
+        readPages(0, 2, 3, 4, 7, 9);
+        BufferPoolStats.TableSnapshot total = Database.getBufferPool().getStats().total();
+        assertEquals(6, total.getHits());
+        assertEquals(0, total.getMisses());
+    }
+
+    /**
+     * Warming up only fills free frames, hottest pages first, and leaves
+     * the resident pages alone.
+     */
+    @Test public void warmOnlyFillsFreeFrames() throws Exception {
+        readPages(9, 8, 7, 6, 5);
+        for (int i = 0; i < 3; i++)
+            readPages(5, 6);
+        list.save(Database.getBufferPool());
+
+        Database.resetBufferPool(4);
+        readPages(0, 1);
+        assertEquals(2, (int) Database.getBufferPool().warmUp(list.load()).get());
+        Database.getBufferPool().getStats().resetStats();
+        readPages(0, 1, 5, 6);
+        assertEquals(4, Database.getBufferPool().getStats().total().getHits());
+    }
+
+    /**
+     * Pages of tables that are gone and pages past the end of a file are skipped.
+     */
+    @Test public void skipsMissingPages() throws Exception {
+        List<PageId> pids = new ArrayList<>(Arrays.asList(new HeapPageId(hf.getId(), 1),
+                new HeapPageId(hf.getId(), 10), new HeapPageId(hf.getId(), 50), new HeapPageId(-12345, 0)));
+        assertEquals(1, (int) Database.getBufferPool().warmUp(pids).get());
+        assertEquals(10, hf.numPages());
+    }
+
+    /**
+     * readPages reads the same pages as readPage, adjacent or not.
+     */
+    @Test public void readPages() throws Exception {
+        List<PageId> pids = new ArrayList<>();
+        for (int pgNo : new int[] { 0, 1, 2, 5, 8, 9, 10 })
+            pids.add(new HeapPageId(hf.getId(), pgNo));
+
+        List<Page> pages = hf.readPages(pids);
+        assertEquals(6, pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            assertEquals(pids.get(i), pages.get(i).getId());
+            assertArrayEquals(hf.readPage(pids.get(i)).getPageData(), pages.get(i).getPageData());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HotPageListTest.class);
+    }
+}
@@ -0,0 +1,516 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DeadlockDetector;
+import simpledb.common.DeadlockException;
+import simpledb.common.LockManager;
+import simpledb.common.LockManager.LockMode;
+import simpledb.common.LockManager.WaitPolicy;
+import simpledb.common.Permissions;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.TableLockId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockManagerTest extends SimpleDbTestBase {
+    private static final long TIMEOUT = 10_000;
+    private static final long DETECT = 10;
+
+    private LockManager lm;
+    private ExecutorService threads;
+    private final PageId p = new HeapPageId(1, 0);
+    private final PageId q = new HeapPageId(1, 1);
+    private final PageId table = new TableLockId(1);
+    private final TransactionId t1 = new TransactionId();
+    private final TransactionId t2 = new TransactionId();
+    private final TransactionId t3 = new TransactionId();
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        lm = new LockManager(WaitPolicy.WAIT, TIMEOUT, DETECT);
+        threads = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        threads.shutdownNow();
+    }
+
+    /** Requests the lock in another thread. */
+    private Future<?> lockAsync(TransactionId tid, Permissions perm) {
+        return lockAsync(tid, p, perm);
+    }
+
+    private Future<?> lockAsync(TransactionId tid, PageId pid, Permissions perm) {
+        return threads.submit(() -> {
+            lm.lock(tid, pid, perm);
+            return null;
+        });
+    }
+
+    private static void deadlocked(Future<?> f) throws Exception {
+        try {
+            f.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("request should be chosen as deadlock victim");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DeadlockException);
+        }
+    }
+
+    /** Waits until the given number of requests has had to wait. */
+    private void awaitWaits(long waits) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (lm.getWaits() < waits) {
+            assertTrue("request did not wait", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static void granted(Future<?> f) throws Exception {
+        f.get(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A conflicting request waits until the holder releases its locks.
+     */
+    @Test public void waitsForRelease() throws Exception {
+        lm.lock(t1, p, Permissions.READ_WRITE);
+        Future<?> f = lockAsync(t2, Permissions.READ_ONLY);
+        awaitWaits(1);
+        assertFalse(f.isDone());
+
+        lm.releaseLocksOnTransaction(t1);
+        granted(f);
+        assertTrue(lm.hasLock(t2, p));
+    }
+
+    /**
+     * Shared requests waiting together at the head of the queue are
+     * granted together.
+     */
+    @Test public void sharedRequestsGrantedTogether() throws Exception {
+        lm.lock(t1, p, Permissions.READ_WRITE);
+        Future<?> f2 = lockAsync(t2, Permissions.READ_ONLY);
+        awaitWaits(1);
+        Future<?> f3 = lockAsync(t3, Permissions.READ_ONLY);
+        awaitWaits(2);
+
+        lm.releaseLocksOnTransaction(t1);
+        granted(f2);
+        granted(f3);
+    }
+
+    /**
+     * A shared request queues behind a waiting exclusive one, even though
+     * it is compatible with the lock held, so writers are not starved.
+     */
+    @Test public void fifoOrder() throws Exception {
+        lm.lock(t1, p, Permissions.READ_ONLY);
+        Future<?> f2 = lockAsync(t2, Permissions.READ_WRITE);
+        awaitWaits(1);
+        Future<?> f3 = lockAsync(t3, Permissions.READ_ONLY);
+        awaitWaits(2);
+        assertFalse(lm.tryLock(new TransactionId(), p, Permissions.READ_ONLY));
+
+        lm.releaseLocksOnTransaction(t1);
+        granted(f2);
+        assertFalse(f3.isDone());
+
+        lm.releaseLocksOnTransaction(t2);
+        granted(f3);
+    }
+
+    /**
+     * An upgrade goes ahead of requests that were waiting before it.
+     */
+    @Test public void upgradeFirst() throws Exception {
+        lm.lock(t1, p, Permissions.READ_ONLY);
+        lm.lock(t2, p, Permissions.READ_ONLY);
+        Future<?> f3 = lockAsync(t3, Permissions.READ_WRITE);
+        awaitWaits(1);
+        Future<?> f1 = lockAsync(t1, Permissions.READ_WRITE);
+        awaitWaits(2);
+
+        lm.releaseLocksOnTransaction(t2);
+        granted(f1);
+        assertFalse(f3.isDone());
+    }
+
+    /**
+     * Two transactions upgrading the same page would wait for each other,
+     * so the second one aborts at once.
+     */
+    @Test public void conflictingUpgrades() throws Exception {
+        lm.lock(t1, p, Permissions.READ_ONLY);
+        lm.lock(t2, p, Permissions.READ_ONLY);
+        Future<?> f1 = lockAsync(t1, Permissions.READ_WRITE);
+        awaitWaits(1);
+
+        try {
+            lm.lock(t2, p, Permissions.READ_WRITE);
+            fail("second upgrade should abort");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        lm.releaseLocksOnTransaction(t2);
+        granted(f1);
+    }
+
+    /**
+     * A request that waits too long aborts its transaction, and does not
+     * hold up the requests behind it.
+     */
+    @Test public void timeout() throws Exception {
+        lm = new LockManager(WaitPolicy.WAIT, 50, TIMEOUT);
+        lm.lock(t1, p, Permissions.READ_ONLY);
+        Future<?> f2 = lockAsync(t2, Permissions.READ_WRITE);
+        try {
+            f2.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("request should time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TransactionAbortedException);
+        }
+        lm.lock(t3, p, Permissions.READ_ONLY);
+        assertEquals(1, lm.getAborts());
+    }
+
+    /**
+     * Releasing a transaction aborts the requests it is waiting on.
+     */
+    @Test public void releaseCancelsRequests() throws Exception {
+        lm.lock(t1, p, Permissions.READ_WRITE);
+        Future<?> f2 = lockAsync(t2, Permissions.READ_WRITE);
+        awaitWaits(1);
+
+        lm.releaseLocksOnTransaction(t2);
+        try {
+            f2.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("released request should abort");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TransactionAbortedException);
+        }
+        lm.releaseLocksOnTransaction(t1);
+        assertTrue(lm.tryLock(t3, p, Permissions.READ_WRITE));
+    }
+
+    /**
+     * Locks on pages of every shard are kept and released with the
+     * transaction.
+     */
+    @Test public void manyPages() throws Exception {
+        // without escalation, which would trade the page locks for one table lock
+        lm = new LockManager(WaitPolicy.WAIT, TIMEOUT, DETECT, 0);
+        int n = LockManager.SHARDS * 16;
+        for (int i = 0; i < n; i++)
+            lm.lock(t1, new HeapPageId(2, i), i % 2 == 0 ? Permissions.READ_WRITE : Permissions.READ_ONLY);
+        // and the intention lock on their table
+        assertEquals(n + 1, lm.getPids(t1).size());
+        for (int i = 0; i < n; i++) {
+            assertTrue(lm.hasLock(t1, new HeapPageId(2, i)));
+            assertEquals(i % 2 != 0, lm.tryLock(t2, new HeapPageId(2, i), Permissions.READ_ONLY));
+            assertFalse(lm.tryLock(t3, new HeapPageId(2, i), Permissions.READ_WRITE));
+        }
+
+        lm.releaseLocksOnTransaction(t1);
+        lm.releaseLocksOnTransaction(t2);
+        assertTrue(lm.getPids(t1).isEmpty());
+        for (int i = 0; i < n; i++)
+            assertTrue(lm.tryLock(t3, new HeapPageId(2, i), Permissions.READ_WRITE));
+        assertEquals(0, lm.getWaits());
+    }
+
+    /**
+     * IS and IX go together, S and SIX add up, and X covers everything.
+     */
+    @Test public void lockModes() {
+        assertTrue(LockMode.IS.compatibleWith(LockMode.IX));
+        assertTrue(LockMode.IS.compatibleWith(LockMode.SIX));
+        assertFalse(LockMode.IX.compatibleWith(LockMode.S));
+        assertFalse(LockMode.SIX.compatibleWith(LockMode.SIX));
+        assertEquals(LockMode.SIX, LockMode.S.join(LockMode.IX));
+        assertEquals(LockMode.S, LockMode.IS.join(LockMode.S));
+        assertEquals(LockMode.X, LockMode.SIX.join(LockMode.X));
+        assertTrue(LockMode.SIX.covers(LockMode.S));
+        assertFalse(LockMode.IX.covers(LockMode.S));
+    }
+
+    /**
+     * A page lock takes an intention lock on its table first, which keeps
+     * out conflicting table locks of other transactions.
+     */
+    @Test public void intentionLocks() throws Exception {
+        lm.lock(t1, p, Permissions.READ_ONLY);
+        assertEquals(LockMode.IS, lm.getLockMode(t1, table));
+        assertTrue(lm.tryLock(t2, table, Permissions.READ_ONLY));
+        assertFalse(lm.tryLock(t3, table, Permissions.READ_WRITE));
+
+        lm.releaseLocksOnTransaction(t2);
+        lm.lock(t3, q, Permissions.READ_WRITE);
+        assertEquals(LockMode.IX, lm.getLockMode(t3, table));
+        Future<?> f2 = lockAsync(t2, table, Permissions.READ_ONLY);
+        awaitWaits(1);
+        assertFalse(f2.isDone());
+
+        lm.releaseLocksOnTransaction(t3);
+        granted(f2);
+    }
+
+    /**
+     * Unlocking the last page lock of a table drops the intention lock on
+     * it, with escalation on or off.
+     */
+    @Test public void unlockDropsIntention() throws Exception {
+        for (int threshold : new int[] { 0, LockManager.DEFAULT_ESCALATION_THRESHOLD }) {
+            lm = new LockManager(WaitPolicy.WAIT, TIMEOUT, DETECT, threshold);
+            lm.lock(t1, p, Permissions.READ_ONLY);
+            lm.lock(t1, q, Permissions.READ_WRITE);
+            lm.unLock(t1, p);
+            assertEquals(LockMode.IX, lm.getLockMode(t1, table));
+            lm.unLock(t1, q);
+            assertNull(lm.getLockMode(t1, table));
+            assertTrue(lm.tryLock(t2, table, Permissions.READ_WRITE));
+            lm.releaseLocksOnTransaction(t2);
+        }
+    }
+
+    /**
+     * A shared table lock stands in for the shared locks on its pages, and
+     * keeps writers out of all of them.
+     */
+    @Test public void tableLockCoversPages() throws Exception {
+        lm.lock(t1, table, LockMode.S);
+        for (int i = 0; i < 100; i++)
+            lm.lock(t1, new HeapPageId(1, i), Permissions.READ_ONLY);
+        assertEquals(1, lm.getPids(t1).size());
+        assertTrue(lm.hasLock(t1, p));
+
+        assertTrue(lm.tryLock(t2, p, Permissions.READ_ONLY));
+        assertFalse(lm.tryLock(t3, q, Permissions.READ_WRITE));
+    }
+
+    /**
+     * Writing a page of a table held shared takes it to SIX, which lets
+     * others still read single pages but not lock the table.
+     */
+    @Test public void sharedThenWrite() throws Exception {
+        lm.lock(t1, table, LockMode.S);
+        lm.lock(t1, p, Permissions.READ_WRITE);
+        assertEquals(LockMode.SIX, lm.getLockMode(t1, table));
+        assertEquals(LockMode.X, lm.getLockMode(t1, p));
+
+        assertTrue(lm.tryLock(t2, q, Permissions.READ_ONLY));
+        assertFalse(lm.tryLock(t2, p, Permissions.READ_ONLY));
+        assertFalse(lm.tryLock(t3, table, LockMode.S));
+    }
+
+    /**
+     * A scan the planner would choose locks its table once rather than
+     * each page, where a plain scan locks every page.
+     */
+    @Test public void tableLockedScan() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        assertTrue(hf.numPages() > 1);
+        LockManager pool = Database.getBufferPool().getLockManager();
+
+        assertEquals(5000, scan(new SeqScan(t1, hf.getId(), "", false, true)));
+        assertEquals(1, pool.getPids(t1).size());
+        assertEquals(LockMode.S, pool.getLockMode(t1, new TableLockId(hf.getId())));
+
+        assertEquals(5000, scan(new SeqScan(t2, hf.getId(), "")));
+        assertEquals(hf.numPages() + 1, pool.getPids(t2).size());
+        Database.getBufferPool().transactionComplete(t1);
+        Database.getBufferPool().transactionComplete(t2);
+    }
+
+    private static int scan(SeqScan scan) throws Exception {
+        int count = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        return count;
+    }
+
+    /**
+     * Past the threshold, a reader's page locks on a table become one
+     * shared table lock.
+     */
+    @Test public void escalateToShared() throws Exception {
+        lm = new LockManager(WaitPolicy.WAIT, TIMEOUT, DETECT, 10);
+        for (int i = 0; i < 11; i++)
+            lm.lock(t1, new HeapPageId(1, i), Permissions.READ_ONLY);
+        assertEquals(1, lm.getEscalations());
+        assertEquals(1, lm.getPids(t1).size());
+        assertEquals(LockMode.S, lm.getLockMode(t1, table));
+        assertTrue(lm.hasLock(t1, new HeapPageId(1, 5)));
+
+        assertTrue(lm.tryLock(t2, p, Permissions.READ_ONLY));
+        assertFalse(lm.tryLock(t3, p, Permissions.READ_WRITE));
+    }
+
+    /**
+     * A writer escalates to an exclusive table lock, and then takes no
+     * page locks on the table at all.
+     */
+    @Test public void escalateToExclusive() throws Exception {
+        lm = new LockManager(WaitPolicy.WAIT, TIMEOUT, DETECT, 10);
+        lm.lock(t1, p, Permissions.READ_ONLY);
+        for (int i = 1; i < 11; i++)
+            lm.lock(t1, new HeapPageId(1, i), Permissions.READ_WRITE);
+        assertEquals(LockMode.X, lm.getLockMode(t1, table));
+        for (int i = 11; i < 100; i++)
+            lm.lock(t1, new HeapPageId(1, i), Permissions.READ_WRITE);
+        assertEquals(1, lm.getPids(t1).size());
+        assertEquals(1, lm.getEscalations());
+        assertFalse(lm.tryLock(t2, p, Permissions.READ_ONLY));
+    }
+
+    /**
+     * Escalation does not wait for a table lock that conflicts with other
+     * transactions, and is tried again later.
+     */
+    @Test public void escalationWaitsForOthers() throws Exception {
+        lm = new LockManager(WaitPolicy.WAIT, TIMEOUT, DETECT, 10);
+        lm.lock(t2, new HeapPageId(1, 100), Permissions.READ_WRITE);
+        for (int i = 0; i < 21; i++)
+            lm.lock(t1, new HeapPageId(1, i), Permissions.READ_ONLY);
+        assertEquals(0, lm.getEscalations());
+        assertEquals(22, lm.getPids(t1).size());
+
+        lm.releaseLocksOnTransaction(t2);
+        for (int i = 21; i < 30; i++)
+            lm.lock(t1, new HeapPageId(1, i), Permissions.READ_ONLY);
+        assertEquals(0, lm.getEscalations());
+        lm.lock(t1, new HeapPageId(1, 30), Permissions.READ_ONLY);
+        assertEquals(1, lm.getEscalations());
+        assertEquals(1, lm.getPids(t1).size());
+    }
+
+    /**
+     * Pages written under an escalated table lock are still flushed when
+     * the transaction commits and reverted when it aborts.
+     */
+    @Test public void escalatedWrites() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10 * 504, null, null);
+        System.setProperty(LockManager.ESCALATION_PROPERTY, "4");
+        try {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        } finally {
+            System.clearProperty(LockManager.ESCALATION_PROPERTY);
+        }
+        BufferPool bp = Database.getBufferPool();
+
+        for (boolean commit : new boolean[] { false, true }) {
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < 10; i++) {
+                HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+                page.deleteTuple(page.iterator().next());
+                page.markDirty(true, tid);
+            }
+            assertEquals(1, bp.getLockManager().getPids(tid).size());
+            bp.transactionComplete(tid, commit);
+
+            for (int i = 0; i < 10; i++) {
+                HeapPage onDisk = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+                assertEquals(commit ? 1 : 0, onDisk.getNumEmptySlots());
+                TransactionId reader = new TransactionId();
+                HeapPage cached = (HeapPage) bp.getPage(reader, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+                assertEquals(commit ? 1 : 0, cached.getNumEmptySlots());
+                bp.transactionComplete(reader);
+            }
+        }
+        assertEquals(2, bp.getLockManager().getEscalations());
+    }
+
+    /**
+     * The detector breaks a deadlock long before the timeout, aborting the
+     * transaction with the fewest locks.
+     */
+    @Test public void deadlockVictim() throws Exception {
+        lm.lock(t1, p, Permissions.READ_WRITE);
+        lm.lock(t2, q, Permissions.READ_WRITE);
+        lm.lock(t2, new HeapPageId(1, 2), Permissions.READ_WRITE);
+        Future<?> f1 = lockAsync(t1, q, Permissions.READ_WRITE);
+        awaitWaits(1);
+        Future<?> f2 = lockAsync(t2, p, Permissions.READ_WRITE);
+
+        deadlocked(f1);
+        lm.releaseLocksOnTransaction(t1);
+        granted(f2);
+
+        DeadlockDetector detector = lm.getDeadlockDetector();
+        assertEquals(1, detector.getVictims());
+        assertEquals(2, detector.getLongestCycle());
+    }
+
+    /**
+     * A request waits for the conflicting requests queued ahead of it, so
+     * a deadlock can run through the queue rather than the locks held.
+     */
+    @Test public void deadlockThroughQueue() throws Exception {
+        lm.lock(t1, p, Permissions.READ_ONLY);
+        lm.lock(t3, q, Permissions.READ_WRITE);
+        Future<?> f2 = lockAsync(t2, p, Permissions.READ_WRITE);
+        awaitWaits(1);
+        // t3 queues behind t2, which waits for t1, which waits for t3
+        Future<?> f3 = lockAsync(t3, p, Permissions.READ_ONLY);
+        awaitWaits(2);
+        Future<?> f1 = lockAsync(t1, q, Permissions.READ_ONLY);
+
+        deadlocked(f2);
+        granted(f3);
+        assertFalse(f1.isDone());
+        assertEquals(3, lm.getDeadlockDetector().getLongestCycle());
+        lm.releaseLocksOnTransaction(t3);
+        granted(f1);
+    }
+
+    /**
+     * Under NO_WAIT, a conflict aborts the request at once.
+     */
+    @Test public void noWait() throws Exception {
+        lm = new LockManager(WaitPolicy.NO_WAIT, TIMEOUT, DETECT);
+        lm.lock(t1, p, Permissions.READ_ONLY);
+        lm.lock(t2, p, Permissions.READ_ONLY);
+        try {
+            lm.lock(t2, p, Permissions.READ_WRITE);
+            fail("conflicting request should abort");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertEquals(0, lm.getWaits());
+
+        lm.releaseLocksOnTransaction(t1);
+        lm.lock(t2, p, Permissions.READ_WRITE);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageArenaTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 8;
+    private static final int TABLE_PAGES = 24;
+
+    private HeapFile hf;
+    private List<List<Integer>> tuples;
+    private BufferPool bp;
+
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<>();
+        hf = TestUtil.createFullHeapFile(TABLE_PAGES, tuples);
+        System.setProperty(BufferPool.OFF_HEAP_PROPERTY, "true");
+        try {
+            bp = Database.resetBufferPool(POOL_PAGES);
+        } finally {
+            System.clearProperty(BufferPool.OFF_HEAP_PROPERTY);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private static List<List<Integer>> contents(HeapPage page) {
+        List<List<Integer>> result = new ArrayList<>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        return result;
+    }
+
+    /**
+     * Frames are handed out until the arena is empty and can be reused once
+     * returned.
+     */
+    @Test public void allocateAndRelease() {
+        PageArena arena = new PageArena(3, 128);
+        PageArena.Frame a = arena.allocate();
+        PageArena.Frame b = arena.allocate();
+        PageArena.Frame c = arena.allocate();
+        assertNotNull(c);
+        assertNull(arena.allocate());
+        assertEquals(0, arena.getNumFree());
+        assertEquals(128, a.buffer().remaining());
+        assertNotSame(a, b);
+
+        a.buffer().put(0, (byte) 1);
+        assertEquals(0, b.buffer().get(0));
+
+        arena.release(b);
+        assertEquals(1, arena.getNumFree());
+        assertSame(b, arena.allocate());
+
+        PageArena other = new PageArena(1, 128);
+        try {
+            other.release(a);
+            fail("released a frame of another arena");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A scan of a table larger than an off-heap pool returns every tuple.
+     */
+    @Test public void scan() throws Exception {
+        assertTrue(bp.isOffHeap());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Inserts and deletes made to pages in arena frames reach the file.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { -1, -2 });
+        bp.insertTuple(tid, hf.getId(), t);
+        HeapPage first = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        Tuple victim = first.iterator().next();
+        bp.deleteTuple(tid, victim);
+        bp.transactionComplete(tid);
+
+        tuples.add(SystemTestUtil.tupleToList(t));
+        tuples.remove(SystemTestUtil.tupleToList(victim));
+        Database.resetBufferPool(POOL_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A page still held after its frame went to another page keeps its own
+     * contents.
+     */
+    @Test public void evictedPageKeepsContents() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage held = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        List<List<Integer>> before = contents(held);
+
+        // cycle every frame through other pages
+        for (int i = 1; i < TABLE_PAGES; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+
+        assertEquals(before, contents(held));
+        assertEquals(before, contents(new HeapPage(held.getId(), held.getPageData())));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageArenaTest.class);
+    }
+}
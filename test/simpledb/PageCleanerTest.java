@@ -0,0 +1,118 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+    private static final int PAGES = 8;
+
+    private HeapFile hf;
+
+    @Before
+    public void setUp() throws Exception {
+        hf = TestUtil.createFullHeapFile(PAGES, null);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** Reads a page, deletes its first tuple and returns it. */
+    private HeapPage modifiedPage(int pgNo) throws Exception {
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pgNo));
+        page.deleteTuple(page.iterator().next());
+        return page;
+    }
+
+    private int emptySlotsOnDisk(int pgNo) {
+        return ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), pgNo))).getNumEmptySlots();
+    }
+
+    /**
+     * Adjacent pages are merged into single writes, whatever order they
+     * come in.
+     */
+    @Test
+    public void writeOrderedCoalesces() throws Exception {
+        List<Page> pages = new ArrayList<>();
+        for (int pgNo : new int[] { 6, 1, 0, 5, 2 })
+            pages.add(modifiedPage(pgNo));
+
+        // runs 0-2 and 5-6
+        assertEquals(2, PageCleaner.writeOrdered(pages));
+        for (int pgNo : new int[] { 0, 1, 2, 5, 6 })
+            assertEquals(1, emptySlotsOnDisk(pgNo));
+        assertEquals(0, emptySlotsOnDisk(3));
+    }
+
+    /**
+     * The cleaner writes back pages left dirty by a finished transaction and
+     * leaves pages of running transactions alone.
+     */
+    @Test
+    public void cleansFinishedTransactionsOnly() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId finished = new TransactionId();
+        TransactionId running = new TransactionId();
+
+        for (int pgNo = 0; pgNo < 2; pgNo++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), pgNo);
+            HeapPage page = (HeapPage) bp.getPage(finished, pid, Permissions.READ_WRITE);
+            page.deleteTuple(page.iterator().next());
+            page.markDirty(true, finished);
+            bp.unsafeReleasePage(finished, pid);
+        }
+        HeapPage busy = (HeapPage) bp.getPage(running, new HeapPageId(hf.getId(), 3), Permissions.READ_WRITE);
+        busy.deleteTuple(busy.iterator().next());
+        busy.markDirty(true, running);
+
+        PageCleaner cleaner = bp.getPageCleaner();
+        assertEquals(2, cleaner.clean());
+        assertEquals(2, cleaner.getPagesWritten());
+        assertEquals(1, cleaner.getWrites());
+        assertEquals(0, cleaner.getBacklog());
+
+        assertEquals(1, emptySlotsOnDisk(0));
+        assertEquals(1, emptySlotsOnDisk(1));
+        assertEquals(0, emptySlotsOnDisk(3));
+        assertEquals(running, busy.isDirty());
+        assertEquals(0, cleaner.clean());
+
+        bp.transactionComplete(running, false);
+    }
+
+    /**
+     * A full pool of pages left dirty by finished transactions does not
+     * make getPage fail: the pages are written back and evicted.
+     */
+    @Test
+    public void evictionFallsBackToCleaning() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId orphan = new TransactionId();
+        for (int pgNo = 0; pgNo < 4; pgNo++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), pgNo);
+            bp.getPage(orphan, pid, Permissions.READ_WRITE).markDirty(true, orphan);
+            bp.unsafeReleasePage(orphan, pid);
+        }
+
+        TransactionId tid = new TransactionId();
+        assertNotNull(bp.getPage(tid, new HeapPageId(hf.getId(), 4), Permissions.READ_ONLY));
+        assertTrue(bp.getPageCleaner().getPagesWritten() > 0);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
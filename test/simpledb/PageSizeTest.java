@@ -0,0 +1,145 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageSizeTest extends SimpleDbTestBase {
+    private static final int BIG = 4 * BufferPool.getPageSize();
+    private static final int BIG_TUPLES_PER_PAGE = 2016; // two int columns
+
+    private static HeapFile heapFile(String name, HeapFile.Format format, int pageSize) throws Exception {
+        File f = File.createTempFile(name, ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.sideFile(f).deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), false, format, pageSize);
+        Database.getCatalog().addTable(hf, name);
+        return hf;
+    }
+
+    /**
+     * Tables with large and default pages share one buffer pool, and each
+     * file is laid out in pages of its own size.
+     */
+    @Test public void mixedPageSizes() throws Exception {
+        HeapFile big = heapFile("big", HeapFile.Format.FIXED, BIG);
+        HeapFile pax = heapFile("bigpax", HeapFile.Format.PAX, BIG);
+        HeapFile small = heapFile("small", HeapFile.Format.FIXED, 0);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(BIG, Database.getCatalog().getPageSize(big.getId()));
+        assertEquals(BufferPool.getPageSize(), Database.getCatalog().getPageSize(small.getId()));
+
+        List<List<Integer>> tuples = new ArrayList<>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3000; i++) {
+            for (HeapFile hf : new HeapFile[] { big, pax, small })
+                Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { i, -i }));
+            tuples.add(Arrays.asList(i, -i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        // 504 tuples fit on a default page, four times as many on a big one
+        assertEquals(2, big.numPages());
+        assertEquals(2L * BIG, big.getFile().length());
+        assertEquals(2, pax.numPages());
+        assertEquals(6, small.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(big, tuples);
+        SystemTestUtil.matchTuples(pax, tuples);
+        SystemTestUtil.matchTuples(small, tuples);
+    }
+
+    /**
+     * A large page takes as many frames of the pool as default pages of the
+     * same size would.
+     */
+    @Test public void largePagesTakeSeveralFrames() throws Exception {
+        HeapFile big = heapFile("big", HeapFile.Format.FIXED, BIG);
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        Database.resetBufferPool(8);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2 * BIG_TUPLES_PER_PAGE; i++)
+            Database.getBufferPool().insertTuple(tid, big.getId(), Utility.getHeapTuple(new int[] { i, i }));
+        assertEquals(2, big.numPages());
+
+        // the two dirty big pages fill the pool
+        try {
+            Database.getBufferPool().getPage(tid, new HeapPageId(small.getId(), 0), Permissions.READ_ONLY);
+            fail("read a page into a full pool");
+        } catch (DbException e) {
+            // expected
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A B+ tree with large pages splits and scans like one with default pages.
+     */
+    @Test public void btreeLargePages() throws Exception {
+        File f = File.createTempFile("btree", ".dat");
+        f.deleteOnExit();
+        BTreeFile bf = new BTreeFile(f, 0, Utility.getTupleDesc(2), BIG);
+        Database.getCatalog().addTable(bf, "bigtree");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        List<List<Integer>> tuples = new ArrayList<>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 5000; i++) {
+            int key = (i * 7919) % 5000;
+            Database.getBufferPool().insertTuple(tid, bf.getId(), Utility.getHeapTuple(new int[] { key, i }));
+            tuples.add(Arrays.asList(key, i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        // root pointer page, root, and a few leaves of BIG bytes each
+        assertTrue(bf.numPages() < 6);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(bf, tuples);
+    }
+
+    /**
+     * The catalog file can give a table its page size.
+     */
+    @Test public void loadSchemaPageSize() throws Exception {
+        File catalog = File.createTempFile("catalog", ".txt");
+        catalog.deleteOnExit();
+        try (FileWriter w = new FileWriter(catalog)) {
+            w.write("wide (a int, b int) pax pagesize=" + BIG + "\n");
+            w.write("narrow (a int, b int)\n");
+        }
+        for (String name : new String[] { "wide", "narrow" }) {
+            new File(catalog.getParent(), name + ".dat").deleteOnExit();
+            FreeSpaceMap.sideFile(new File(catalog.getParent(), name + ".dat")).deleteOnExit();
+        }
+        Database.getCatalog().loadSchema(catalog.getPath());
+        assertEquals(BIG, Database.getCatalog().getPageSize(Database.getCatalog().getTableId("wide")));
+        assertEquals(BufferPool.getPageSize(),
+                Database.getCatalog().getPageSize(Database.getCatalog().getTableId("narrow")));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxPageTest extends SimpleDbTestBase {
+    private static final int SLOTS = 337; // three int columns
+    private static final int HEADER = 43;
+
+    private HeapFile hf;
+
+    @Before
+    public void setUp() throws Exception {
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.sideFile(f).deleteOnExit();
+        hf = new HeapFile(f, Utility.getTupleDesc(3), HeapFile.Format.PAX);
+        Database.getCatalog().addTable(hf, "pax");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private PaxPage emptyPage() throws Exception {
+        return new PaxPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+    }
+
+    /**
+     * The values of each field are stored together, after the header.
+     */
+    @Test public void layout() throws Exception {
+        PaxPage page = emptyPage();
+        for (int i = 0; i < SLOTS; i++)
+            page.insertTuple(Utility.getHeapTuple(new int[] { i, 1000 + i, 2000 + i }));
+        try {
+            page.insertTuple(Utility.getHeapTuple(new int[] { 0, 0, 0 }));
+            fail("inserted into a full page");
+        } catch (DbException e) {
+            // expected
+        }
+
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        for (int i = 0; i < SLOTS; i++) {
+            assertEquals(i, data.getInt(HEADER + 4 * i));
+            assertEquals(1000 + i, data.getInt(HEADER + 4 * SLOTS + 4 * i));
+            assertEquals(2000 + i, data.getInt(HEADER + 8 * SLOTS + 4 * i));
+        }
+    }
+
+    /**
+     * Deleted slots are skipped by both iterators and reused by inserts, and
+     * the page data reads back as the same page.
+     */
+    @Test public void deleteAndIterate() throws Exception {
+        PaxPage page = emptyPage();
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, -i, i * i });
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        for (int i = 0; i < 100; i += 3)
+            page.deleteTuple(tuples.get(i));
+        assertEquals(SLOTS - 66, page.getNumEmptySlots());
+
+        Tuple t = Utility.getHeapTuple(new int[] { 7, 7, 7 });
+        page.insertTuple(t);
+        assertEquals(0, t.getRecordId().getTupleNumber());
+
+        PaxPage copy = new PaxPage(page.getId(), page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        Iterator<Field> column = copy.columnIterator(2);
+        assertEquals(Arrays.asList(7, 7, 7), SystemTestUtil.tupleToList(it.next()));
+        assertEquals(new IntField(7), column.next());
+        for (int i = 1; i < 100; i++) {
+            if (i % 3 == 0)
+                continue;
+            Tuple next = it.next();
+            assertEquals(i, next.getRecordId().getTupleNumber());
+            assertEquals(Arrays.asList(i, -i, i * i), SystemTestUtil.tupleToList(next));
+            assertEquals(new IntField(i * i), column.next());
+        }
+        assertFalse(it.hasNext());
+        assertFalse(column.hasNext());
+    }
+
+    /**
+     * A PAX table works through the buffer pool and bulk loads, and its
+     * column iterator returns one field of every tuple.
+     */
+    @Test public void paxHeapFile() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { i, 0, i % 7 }));
+            tuples.add(Arrays.asList(i, 0, i % 7));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        BulkLoader loader = new BulkLoader(tid, hf);
+        for (int i = 0; i < 1000; i++) {
+            loader.add(Utility.getHeapTuple(new int[] { i, 1, i % 5 }));
+            tuples.add(Arrays.asList(i, 1, i % 5));
+        }
+        loader.finish();
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        List<Integer> expected = new ArrayList<>();
+        for (List<Integer> t : tuples)
+            expected.add(t.get(2));
+        List<Integer> found = new ArrayList<>();
+        tid = new TransactionId();
+        DbFileIterator it = hf.columnIterator(tid, 2);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(1, t.getTupleDesc().numFields());
+            found.add(((IntField) t.getField(0)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Collections.sort(expected);
+        Collections.sort(found);
+        assertEquals(expected, found);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
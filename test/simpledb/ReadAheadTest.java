@@ -0,0 +1,91 @@
+package simpledb;
+
+import simpledb.TestUtil.CountingHeapFile;
+import simpledb.common.Database;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static simpledb.TestUtil.TUPLES_PER_PAGE;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+    private static final int PAGES = 10;
+
+    private CountingHeapFile hf;
+    private TransactionId tid;
+
+    @Before
+    public void setUp() throws Exception {
+        hf = TestUtil.createCountingHeapFile(PAGES, "readahead");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A sequential scan makes read-ahead load the following pages in the
+     * background, and still returns every tuple once, in order.
+     */
+    @Test
+    public void sequentialScanReadsAhead() throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+
+        int count = 0;
+        // the second page makes the scan sequential
+        for (; count < TUPLES_PER_PAGE + 1; count++) {
+            assertTrue(it.hasNext());
+            it.next();
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (hf.backgroundReads.get() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue(hf.backgroundReads.get() > 0);
+
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(count / TUPLES_PER_PAGE, t.getRecordId().getPageId().getPageNumber());
+            count++;
+        }
+        assertEquals(PAGES * TUPLES_PER_PAGE, count);
+        it.close();
+    }
+
+    /**
+     * A pool too small to read ahead in does not break scans.
+     */
+    @Test
+    public void tinyPoolScan() throws Exception {
+        Database.resetBufferPool(3);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        assertEquals(PAGES * TUPLES_PER_PAGE, count);
+        assertEquals(0, hf.backgroundReads.get());
+        it.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import simpledb.storage.ClockReplacementPolicy;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LruKReplacementPolicy;
+import simpledb.storage.PageId;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    /**
+     * Fills a pool of the given capacity with one hot page that is hit
+     * repeatedly and then streams scan pages through it, evicting as a
+     * BufferPool would. Returns true if the hot page is still resident.
+     */
+    private static boolean hotPageSurvivesScan(ReplacementPolicy policy, int capacity) {
+        PageId hot = new HeapPageId(1, 0);
+        policy.pageAdded(hot);
+        for (int i = 0; i < 10; i++)
+            policy.pageAccessed(hot);
+
+        int resident = 1;
+        for (int i = 0; i < capacity * 4; i++) {
+            if (resident == capacity) {
+                PageId victim = policy.chooseVictim(pid -> true);
+                if (victim.equals(hot))
+                    return false;
+                policy.pageRemoved(victim);
+                resident--;
+            }
+            policy.pageAdded(new HeapPageId(2, i));
+            resident++;
+            // keep the hot page warm, as an index root would be
+            if (i % (capacity / 2) == 0)
+                policy.pageAccessed(hot);
+        }
+        return true;
+    }
+
+    /**
+     * Unit test for scan resistance of ClockReplacementPolicy
+     */
+    @Test public void clockScanResistance() {
+        assertTrue(hotPageSurvivesScan(new ClockReplacementPolicy(16), 16));
+    }
+
+    /**
+     * Unit test for scan resistance of LruKReplacementPolicy
+     */
+    @Test public void lruKScanResistance() {
+        assertTrue(hotPageSurvivesScan(new LruKReplacementPolicy(16), 16));
+    }
+
+    /**
+     * Unit test that pages rejected by the evictable predicate are never chosen
+     */
+    @Test public void skipsUnevictablePages() {
+        for (ReplacementPolicy policy : new ReplacementPolicy[] {
+                new ClockReplacementPolicy(4), new LruKReplacementPolicy(4) }) {
+            PageId dirty = new HeapPageId(1, 0);
+            PageId clean = new HeapPageId(1, 1);
+            policy.pageAdded(dirty);
+            policy.pageAdded(clean);
+            policy.pageAccessed(clean);
+            assertEquals(clean, policy.chooseVictim(pid -> !pid.equals(dirty)));
+            assertNull(policy.chooseVictim(pid -> false));
+        }
+    }
+
+    /**
+     * Unit test that removed pages are no longer candidates
+     */
+    @Test public void removedPagesAreForgotten() {
+        for (ReplacementPolicy policy : new ReplacementPolicy[] {
+                new ClockReplacementPolicy(2), new LruKReplacementPolicy(2) }) {
+            PageId p0 = new HeapPageId(1, 0);
+            PageId p1 = new HeapPageId(1, 1);
+            policy.pageAdded(p0);
+            policy.pageAdded(p1);
+            policy.pageRemoved(p0);
+            assertEquals(p1, policy.chooseVictim(pid -> true));
+            policy.pageRemoved(p1);
+            assertNull(policy.chooseVictim(pid -> true));
+        }
+    }
+
+    /**
+     * Unit test that the clock grows when more pages than its capacity are resident
+     */
+    @Test public void clockGrows() {
+        ReplacementPolicy policy = new ClockReplacementPolicy(1);
+        for (int i = 0; i < 5; i++)
+            policy.pageAdded(new HeapPageId(1, i));
+        PageId keep = new HeapPageId(1, 4);
+        PageId victim = policy.chooseVictim(pid -> !pid.equals(keep));
+        assertNotNull(victim);
+        assertNotEquals(keep, victim);
+    }
+
+    /**
+     * Unit test that both policies rank a repeatedly hit page hottest and
+     * the next victim coldest
+     */
+    @Test public void hottestFirst() {
+        for (ReplacementPolicy policy : new ReplacementPolicy[] {
+                new ClockReplacementPolicy(4), new LruKReplacementPolicy(4) }) {
+            PageId hot = new HeapPageId(1, 0);
+            policy.pageAdded(hot);
+            for (int i = 1; i < 4; i++)
+                policy.pageAdded(new HeapPageId(1, i));
+            for (int i = 0; i < 3; i++)
+                policy.pageAccessed(hot);
+
+            List<PageId> hottest = policy.hottest();
+            assertEquals(4, hottest.size());
+            assertEquals(hot, hottest.get(0));
+            assertEquals(policy.chooseVictim(pid -> true), hottest.get(3));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
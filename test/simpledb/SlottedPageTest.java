@@ -0,0 +1,222 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private HeapFile hf;
+
+    @Before
+    public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE }, new String[] { "id", "name" });
+        hf = createFile(HeapFile.Format.SLOTTED);
+        Database.getCatalog().addTable(hf, "slotted");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private HeapFile createFile(HeapFile.Format format) throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.sideFile(f).deleteOnExit();
+        return new HeapFile(f, td, format);
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN, Type.VARCHAR_TYPE));
+        return t;
+    }
+
+    private static String name(int i) {
+        return "name" + i;
+    }
+
+    private SlottedPage emptyPage() throws Exception {
+        return new SlottedPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+    }
+
+    /** Maps the id of each tuple on a page to its name. */
+    private static Map<Integer, String> contents(Iterator<Tuple> it) {
+        Map<Integer, String> found = new HashMap<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            found.put(((IntField) t.getField(0)).getValue(), ((StringField) t.getField(1)).getValue());
+        }
+        return found;
+    }
+
+    /**
+     * A VARCHAR takes only as many bytes as it has characters, so many more
+     * short tuples fit on a slotted page than there are HeapPage slots.
+     */
+    @Test public void fillPage() throws Exception {
+        SlottedPage page = emptyPage();
+        int inserted = 0;
+        try {
+            while (true) {
+                Tuple t = tuple(inserted, name(inserted));
+                page.insertTuple(t);
+                assertEquals(inserted, t.getRecordId().getTupleNumber());
+                inserted++;
+            }
+        } catch (DbException e) {
+            // the page is full
+        }
+        int fixedSlots = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        assertTrue(inserted > 5 * fixedSlots);
+        assertEquals(0, page.getNumEmptySlots());
+
+        Map<Integer, String> found = contents(page.iterator());
+        assertEquals(inserted, found.size());
+        for (int i = 0; i < inserted; i++)
+            assertEquals(name(i), found.get(i));
+
+        // the page data reads back as the same page
+        SlottedPage copy = new SlottedPage(page.getId(), page.getPageData());
+        assertEquals(found, contents(copy.iterator()));
+    }
+
+    /**
+     * Deleted tuples free their space, which is reused once the page data
+     * is compacted, and the remaining tuples keep their record ids.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedPage page = emptyPage();
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Tuple t = tuple(i, "" + i);
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        for (int i = 0; i < 50; i += 2)
+            page.deleteTuple(tuples.get(i));
+        try {
+            page.deleteTuple(tuples.get(0));
+            fail("deleted a tuple twice");
+        } catch (DbException e) {
+            // expected
+        }
+
+        // long tuples only fit into the gaps after compaction
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Type.STRING_LEN; i++)
+            sb.append('x');
+        int inserted = 0;
+        try {
+            while (true) {
+                Tuple t = tuple(1000 + inserted, sb.toString());
+                page.insertTuple(t);
+                inserted++;
+            }
+        } catch (DbException e) {
+            // the page is full
+        }
+        assertTrue(inserted > 0);
+
+        Iterator<Tuple> it = page.iterator();
+        int odd = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            if (id < 1000) {
+                assertEquals(1, id % 2);
+                assertEquals(id, t.getRecordId().getTupleNumber());
+                assertEquals("" + id, ((StringField) t.getField(1)).getValue());
+                odd++;
+            } else {
+                assertEquals(sb.toString(), ((StringField) t.getField(1)).getValue());
+            }
+        }
+        assertEquals(25, odd);
+    }
+
+    /**
+     * A slotted table works through the buffer pool, and takes far fewer
+     * pages than the same tuples in the fixed format.
+     */
+    @Test public void slottedHeapFile() throws Exception {
+        HeapFile fixed = createFile(HeapFile.Format.FIXED);
+        Database.getCatalog().addTable(fixed, "fixed");
+        Database.resetBufferPool(200); // holds all dirty pages of the fixed table
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, name(i)));
+            Database.getBufferPool().insertTuple(tid, fixed.getId(), tuple(i, name(i)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(hf.numPages() * 5 < fixed.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        List<Tuple> toDelete = new ArrayList<>();
+        Map<Integer, String> found = new HashMap<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            found.put(id, ((StringField) t.getField(1)).getValue());
+            if (id % 2 == 0)
+                toDelete.add(t);
+        }
+        it.close();
+        assertEquals(2000, found.size());
+        assertEquals(name(1234), found.get(1234));
+
+        for (Tuple t : toDelete)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        it = hf.iterator(tid);
+        it.open();
+        int remaining = 0;
+        while (it.hasNext()) {
+            assertEquals(1, ((IntField) it.next().getField(0)).getValue() % 2);
+            remaining++;
+        }
+        it.close();
+        assertEquals(1000, remaining);
+
+        // VARCHAR fields work in fixed-format pages too
+        it = fixed.iterator(tid);
+        it.open();
+        found.clear();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            found.put(((IntField) t.getField(0)).getValue(), ((StringField) t.getField(1)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2000, found.size());
+        assertEquals(name(1234), found.get(1234));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
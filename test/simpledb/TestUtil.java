@@ -3,15 +3,20 @@ package simpledb;
 import simpledb.common.*;
 import simpledb.execution.OpIterator;
 import simpledb.storage.*;
+import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
 public class TestUtil {
+    /** The number of tuples of two int columns that fit on a page of the default size */
+    public static final int TUPLES_PER_PAGE = 504;
+
     /**
      * @return an IntField with value n
      */
@@ -241,6 +246,48 @@ public class TestUtil {
 		}
     }
 
+    /**
+     * HeapFile that counts its page reads, and separately those done by the
+     * buffer pool's background I/O threads.
+     */
+    public static class CountingHeapFile extends HeapFile {
+        public final AtomicInteger reads = new AtomicInteger(0);
+        public final AtomicInteger backgroundReads = new AtomicInteger(0);
+
+        public CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            if (Thread.currentThread().getName().startsWith("simpledb-io-"))
+                backgroundReads.incrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * Creates a table of two int columns of random values that fills the
+     * given number of pages, and adds it to the catalog.
+     *
+     * @param tuples if not null, filled in with the tuples of the table
+     */
+    public static HeapFile createFullHeapFile(int pages, List<List<Integer>> tuples) throws IOException {
+        return SystemTestUtil.createRandomHeapFile(2, pages * TUPLES_PER_PAGE, null, tuples);
+    }
+
+    /**
+     * Creates a table like {@link #createFullHeapFile} that counts its page
+     * reads, and adds it to the catalog under the given name.
+     */
+    public static CountingHeapFile createCountingHeapFile(int pages, String name) throws IOException {
+        HeapFile full = createFullHeapFile(pages, null);
+        CountingHeapFile hf = new CountingHeapFile(full.getFile(), Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, name);
+        return hf;
+    }
+
     /**
      * Mock SeqScan class for unit testing.
      */
@@ -378,6 +425,7 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            FreeSpaceMap.sideFile(emptyFile).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
@@ -3,8 +3,11 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import junit.framework.JUnit4TestAdapter;
 
+import java.nio.ByteBuffer;
+
 import org.junit.Test;
 
+import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -59,6 +62,73 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for Tuple(TupleDesc, byte[]): fields are decoded from their
+     * encoding, and setField overrides the encoded value.
+     */
+    @Test public void encodedFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        ByteBuffer buf = ByteBuffer.allocate(td.getSize());
+        new IntField(7).serialize(buf);
+        new StringField("seven", Type.STRING_LEN).serialize(buf);
+        new IntField(-7).serialize(buf);
+
+        Tuple tup = new Tuple(td, buf.array());
+        assertEquals(new IntField(-7), tup.getField(2));
+        assertEquals(new StringField("seven", Type.STRING_LEN), tup.getField(1));
+
+        tup.setField(0, new IntField(8));
+        assertEquals(new IntField(8), tup.getField(0));
+        assertEquals("8\tseven\t-7", tup.toString());
+    }
+
+    /**
+     * Unit test for Tuple.getInt() and Tuple.getString(): they read encoded
+     * fields, including ones after a VARCHAR, and fields set as objects.
+     */
+    @Test public void typedAccessors() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE, Type.INT_TYPE });
+        ByteBuffer buf = ByteBuffer.allocate(td.getSize());
+        new IntField(7).serialize(buf);
+        new StringField("seven", Type.STRING_LEN, Type.VARCHAR_TYPE).serialize(buf);
+        new IntField(-7).serialize(buf);
+
+        Tuple tup = new Tuple(td, buf.array());
+        assertEquals(7, tup.getInt(0));
+        assertEquals("seven", tup.getString(1));
+        assertEquals(-7, tup.getInt(2));
+
+        tup.setField(2, new IntField(8));
+        assertEquals(8, tup.getInt(2));
+    }
+
+    /**
+     * Unit test for the joining and projecting Tuple constructors: their
+     * fields come from the tuples they are made of, through every accessor.
+     */
+    @Test public void joinAndProject() {
+        Tuple left = Utility.getHeapTuple(new int[] { 1, 2 });
+        TupleDesc rightTd = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        Tuple right = new Tuple(rightTd);
+        right.setField(0, new StringField("three", Type.STRING_LEN));
+        right.setField(1, new IntField(4));
+
+        Tuple joined = new Tuple(TupleDesc.merge(left.getTupleDesc(), rightTd), left, right);
+        assertEquals(2, joined.getInt(1));
+        assertEquals("three", joined.getString(2));
+        assertEquals(new IntField(4), joined.getField(3));
+        assertEquals("1\t2\tthree\t4", joined.toString());
+
+        RecordId rid = new RecordId(new HeapPageId(-1, 0), 5);
+        joined.setRecordId(rid);
+        Tuple projected = new Tuple(new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE }),
+                joined, new int[] { 3, 0 });
+        assertEquals(rid, projected.getRecordId());
+        assertEquals(4, projected.getInt(0));
+        assertEquals(new IntField(1), projected.getField(1));
+        assertEquals("4\t1", projected.toString());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,71 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import simpledb.TestUtil;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Compares reading pages into an empty buffer pool one getPage call at a
+ * time with asking for all of them at once through getPagesAsync, which
+ * keeps several reads in flight on the pool's I/O threads and merges reads
+ * of adjacent pages. The pages are either all pages of a table in order, as
+ * a scan reads them, or a random tenth of them. Pages come from the OS page
+ * cache, so this measures system calls and CPU, not disk latency, which
+ * overlapping reads would hide best.
+ * Run with: ant runbench -Dbench=AsyncReadBenchmark
+ */
+public class AsyncReadBenchmark {
+    private static final int PAGES = 4096;
+    private static final int REPEATS = 20;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile hf = TestUtil.createFullHeapFile(PAGES, null);
+        hf.getFile().deleteOnExit();
+
+        List<PageId> scan = new ArrayList<>();
+        for (int i = 0; i < PAGES; i++)
+            scan.add(new HeapPageId(hf.getId(), i));
+        List<PageId> random = new ArrayList<>();
+        Random r = new Random(42);
+        for (int i = 0; i < PAGES / 10; i++)
+            random.add(new HeapPageId(hf.getId(), r.nextInt(PAGES)));
+
+        for (int round = 0; round < 2; round++) {
+            String label = round == 0 ? "warm-up" : "measured";
+            for (boolean async : new boolean[] { false, true }) {
+                run(label, "scan", scan, async);
+                run(label, "random", random, async);
+            }
+        }
+    }
+
+    private static void run(String label, String name, List<PageId> pids, boolean async) throws Exception {
+        long nanos = 0;
+        for (int i = 0; i < REPEATS; i++) {
+            Database.resetBufferPool(2 * PAGES);
+            BufferPool pool = Database.getBufferPool();
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            if (async) {
+                pool.getPagesAsync(tid, pids, Permissions.READ_ONLY).get();
+            } else {
+                for (PageId pid : pids)
+                    pool.getPage(tid, pid, Permissions.READ_ONLY);
+            }
+            nanos += System.nanoTime() - start;
+            pool.transactionComplete(tid);
+        }
+        System.out.printf("%s %-6s %-8s: %5d pages in %6.1f ms, %5.1f us per page%n", label, name,
+                async ? "async" : "getPage", pids.size(), nanos / 1e6 / REPEATS,
+                nanos / 1e3 / REPEATS / pids.size());
+    }
+}
@@ -0,0 +1,63 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BulkLoader;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Compares loading rows into an empty table one tuple at a time through
+ * BufferPool.insertTuple, as the Insert operator does, against appending
+ * them with a BulkLoader. Both loads commit, so their pages are on disk
+ * when the time is taken; the bulk load also recomputes table statistics.
+ * Run with: ant runbench -Dbench=BulkLoadBenchmark
+ */
+public class BulkLoadBenchmark {
+    private static final int COLUMNS = 4;
+    private static final int ROWS = 1_000_000;
+    private static final int POOL_PAGES = 8192; // holds a whole tuple-at-a-time load
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < 2; round++) {
+            String label = round == 0 ? "warm-up" : "measured";
+            run(label, false);
+            run(label, true);
+        }
+    }
+
+    private static void run(String label, boolean bulk) throws Exception {
+        File f = File.createTempFile("bulk", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.sideFile(f).deleteOnExit();
+        HeapFile hf = Utility.openHeapFile(COLUMNS, f);
+        Database.resetBufferPool(POOL_PAGES);
+
+        int[] values = new int[COLUMNS];
+        long start = System.nanoTime();
+        TransactionId tid = new TransactionId();
+        if (bulk) {
+            BulkLoader loader = new BulkLoader(tid, hf);
+            for (int i = 0; i < ROWS; i++) {
+                values[0] = i;
+                loader.add(Utility.getHeapTuple(values));
+            }
+            loader.finish();
+        } else {
+            for (int i = 0; i < ROWS; i++) {
+                values[0] = i;
+                Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(values));
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%s %-14s: %6.2f s, %8.0f rows/s, %6.1f MB/s written%n",
+                label, bulk ? "bulk load" : "insertTuple", seconds, ROWS / seconds,
+                f.length() / 1e6 / seconds);
+        f.delete();
+    }
+}
@@ -0,0 +1,92 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.BulkLoader;
+import simpledb.storage.CompressedHeapFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Compares a plain HeapFile against CompressedHeapFiles at the fastest and
+ * the default deflate level, on a history-like table of four int columns:
+ * an id, an increasing timestamp, a category of 20 values and an amount.
+ * Reports the compression ratio, the time to bulk load (which includes
+ * compressing), and the throughput of a scan through an empty buffer pool
+ * (which includes decompressing). The scan reads from the OS page cache, so
+ * it shows the CPU cost of decompression; the I/O saved on a cold disk is
+ * proportional to the ratio.
+ * Run with: ant runbench -Dbench=CompressedHeapFileBenchmark
+ */
+public class CompressedHeapFileBenchmark {
+    private static final int ROWS = 1_000_000;
+    /** Level argument of run() for a plain HeapFile. */
+    private static final int PLAIN = Integer.MIN_VALUE;
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < 2; round++) {
+            String label = round == 0 ? "warm-up" : "measured";
+            run(label, PLAIN);
+            run(label, Deflater.BEST_SPEED);
+            run(label, Deflater.DEFAULT_COMPRESSION);
+        }
+    }
+
+    private static void run(String label, int level) throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.sideFile(f).deleteOnExit();
+        CompressedHeapFile.mapFile(f).deleteOnExit();
+        HeapFile hf = level == PLAIN
+                ? new HeapFile(f, Utility.getTupleDesc(4))
+                : new CompressedHeapFile(f, Utility.getTupleDesc(4), HeapFile.Format.FIXED, level);
+        Database.getCatalog().addTable(hf, "history");
+
+        Random rand = new Random(42);
+        int[] values = new int[4];
+        long start = System.nanoTime();
+        TransactionId tid = new TransactionId();
+        BulkLoader loader = new BulkLoader(tid, hf);
+        for (int i = 0; i < ROWS; i++) {
+            values[0] = i;
+            values[1] = 1_600_000_000 + i * 3 + rand.nextInt(3);
+            values[2] = rand.nextInt(20);
+            values[3] = rand.nextInt(10_000);
+            loader.add(Utility.getHeapTuple(values));
+        }
+        loader.finish();
+        Database.getBufferPool().transactionComplete(tid);
+        double loadSeconds = (System.nanoTime() - start) / 1e9;
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        start = System.nanoTime();
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        long sum = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            sum += ((IntField) t.getField(3)).getValue();
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        double scanSeconds = (System.nanoTime() - start) / 1e9;
+
+        long logical = (long) hf.numPages() * BufferPool.getPageSize();
+        System.out.printf("%s %-13s: %6.1f MB on disk, ratio %4.2f, load %5.2f s, scan %5.2f s = %5.0f MB/s of pages (sum %d)%n",
+                label, level == PLAIN ? "plain"
+                        : level == Deflater.DEFAULT_COMPRESSION ? "level default" : "level " + level, f.length() / 1e6,
+                (double) logical / f.length(), loadSeconds, scanSeconds, logical / 1e6 / scanSeconds, sum);
+        f.delete();
+        CompressedHeapFile.mapFile(f).delete();
+    }
+}
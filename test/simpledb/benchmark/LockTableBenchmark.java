@@ -0,0 +1,75 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import simpledb.TestUtil;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures BufferPool.getPage throughput against the number of threads when
+ * every call goes through the lock table. Each thread runs short read-only
+ * transactions over resident pages of a table that fits in the pool: a
+ * transaction locks PAGES_PER_TXN random pages, each read twice, and then
+ * commits, so the calls take new shared locks, find locks already held and
+ * release them, rather than only the pool's hit path that PageHitBenchmark
+ * measures. No two transactions conflict.
+ * Run with: ant runbench -Dbench=LockTableBenchmark
+ */
+public class LockTableBenchmark {
+    private static final int PAGES = 1024;
+    private static final int PAGES_PER_TXN = 16;
+    private static final int TXNS = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile hf = TestUtil.createFullHeapFile(PAGES, null);
+        hf.getFile().deleteOnExit();
+        Database.resetBufferPool(2 * PAGES);
+
+        for (int round = 0; round < 2; round++) {
+            String label = round == 0 ? "warm-up" : "measured";
+            for (int threads : new int[] { 1, 2, 4, 8 })
+                run(label, hf, threads);
+        }
+    }
+
+    private static void run(String label, HeapFile hf, int threads) throws Exception {
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            workers.add(new Thread(() -> {
+                BufferPool pool = Database.getBufferPool();
+                try {
+                    for (int i = 0; i < TXNS / threads; i++) {
+                        TransactionId tid = new TransactionId();
+                        for (int j = 0; j < PAGES_PER_TXN; j++) {
+                            HeapPageId pid = new HeapPageId(hf.getId(), random.nextInt(PAGES));
+                            pool.getPage(tid, pid, Permissions.READ_ONLY);
+                            pool.getPage(tid, pid, Permissions.READ_ONLY);
+                        }
+                        pool.transactionComplete(tid);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        long nanos = System.nanoTime() - start;
+
+        long calls = (long) TXNS / threads * threads * PAGES_PER_TXN * 2;
+        System.out.printf("%s %d threads: %6.2f M getPage/s, %6.1f ns per getPage%n",
+                label, threads, calls / (nanos / 1e3), (double) nanos / calls);
+    }
+}
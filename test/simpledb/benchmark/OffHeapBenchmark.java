@@ -0,0 +1,97 @@
+package simpledb.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import simpledb.common.Database;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Compares the heap footprint and garbage-collection cost of a buffer pool
+ * holding heap-file pages on the heap against one holding them in an
+ * off-heap arena. For each mode it:
+ * <ul>
+ * <li> scans a table into a pool large enough to hold all of it and reports
+ *      the heap retained by the resident pages,
+ * <li> times a full collection with the pool full,
+ * <li> runs repeated scans over the resident pages and reports the number of
+ *      collections and the total time spent in them.
+ * </ul>
+ * Run with: ant runbench -Dbench=OffHeapBenchmark
+ */
+public class OffHeapBenchmark {
+    private static final int PAGES = 8192;
+    private static final int COLUMNS = 4;
+    private static final int TUPLES_PER_PAGE = 254; // four int columns, 4 KB pages
+    private static final int SCANS = 10;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(COLUMNS, PAGES * TUPLES_PER_PAGE, null, null);
+        hf.getFile().deleteOnExit();
+
+        for (int round = 0; round < 2; round++) {
+            String label = round == 0 ? "warm-up" : "measured";
+            run(label, hf, false);
+            run(label, hf, true);
+        }
+    }
+
+    private static void run(String label, HeapFile hf, boolean offHeap) throws Exception {
+        String mode = offHeap ? "off-heap" : "heap    ";
+        Database.resetBufferPool(1);
+        long empty = SystemTestUtil.getMemoryFootprint();
+
+        System.setProperty(BufferPool.OFF_HEAP_PROPERTY, Boolean.toString(offHeap));
+        try {
+            Database.resetBufferPool(PAGES);
+        } finally {
+            System.clearProperty(BufferPool.OFF_HEAP_PROPERTY);
+        }
+        scan(hf);
+        long full = SystemTestUtil.getMemoryFootprint();
+
+        long start = System.nanoTime();
+        System.gc();
+        double fullGcMillis = (System.nanoTime() - start) / 1e6;
+
+        long count = gcCount();
+        long millis = gcMillis();
+        start = System.nanoTime();
+        for (int i = 0; i < SCANS; i++)
+            scan(hf);
+        double scanMillis = (System.nanoTime() - start) / 1e6 / SCANS;
+
+        System.out.printf("%s %s: resident heap %7.1f MB, full GC %6.1f ms, "
+                        + "scan %7.1f ms, %4d GCs taking %6d ms over %d scans%n",
+                label, mode, (full - empty) / 1e6, fullGcMillis, scanMillis,
+                gcCount() - count, gcMillis() - millis, SCANS);
+    }
+
+    private static void scan(HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "", false);
+        scan.open();
+        while (scan.hasNext())
+            scan.next();
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            total += gc.getCollectionCount();
+        return total;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            total += gc.getCollectionTime();
+        return total;
+    }
+}
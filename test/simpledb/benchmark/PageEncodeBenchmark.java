@@ -0,0 +1,87 @@
+package simpledb.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import simpledb.common.Type;
+import simpledb.index.BTreeEntry;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeFileEncoder;
+import simpledb.index.BTreeHeaderPage;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the bytes allocated on the heap, and the time taken, per page
+ * written by DbFile.writePage and per Page.setBeforeImage call, for each
+ * kind of page a HeapFile or a BTreeFile holds. Allocation is read from the
+ * per-thread counter of com.sun.management.ThreadMXBean, so the numbers
+ * count every object the calls create, including short-lived ones that
+ * never survive a collection. The writes go to the OS page cache.
+ * Run with: ant runbench -Dbench=PageEncodeBenchmark
+ */
+public class PageEncodeBenchmark {
+    private static final int WRITES = 50_000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(4, 1000, null, null);
+        hf.getFile().deleteOnExit();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10_000, null, null, 0);
+        int tableId = bf.getId();
+
+        Page heap = hf.readPage(new HeapPageId(hf.getId(), 0));
+        Page leaf = BTreeUtility.createRandomLeafPage(new BTreePageId(tableId, 1, BTreePageId.LEAF),
+                2, 0, 0, BTreeUtility.MAX_RAND_VALUE);
+        List<BTreeEntry> entries = BTreeUtility.generateRandomEntries(BTreeUtility.getNumEntriesPerPage(),
+                tableId, BTreePageId.LEAF, 0, BTreeUtility.MAX_RAND_VALUE, 1);
+        Page internal = new BTreeInternalPage(new BTreePageId(tableId, 2, BTreePageId.INTERNAL),
+                BTreeFileEncoder.convertToInternalPage(entries, BufferPool.getPageSize(), Type.INT_TYPE,
+                        BTreePageId.LEAF), 0);
+        BTreeHeaderPage header = new BTreeHeaderPage(new BTreePageId(tableId, 3, BTreePageId.HEADER),
+                BTreeHeaderPage.createEmptyPageData());
+        header.init();
+        Page rootPtr = new BTreeRootPtrPage(BTreeRootPtrPage.getId(tableId),
+                BTreeFileEncoder.convertToRootPtrPage(2, BTreePageId.INTERNAL, 3));
+
+        for (int round = 0; round < 2; round++) {
+            String label = round == 0 ? "warm-up" : "measured";
+            run(label, "HeapPage", hf, heap);
+            run(label, "BTreeLeafPage", bf, leaf);
+            run(label, "BTreeInternalPage", bf, internal);
+            run(label, "BTreeHeaderPage", bf, header);
+            run(label, "BTreeRootPtrPage", bf, rootPtr);
+        }
+    }
+
+    private static void run(String label, String kind, DbFile file, Page page) throws Exception {
+        long thread = Thread.currentThread().getId();
+
+        long bytes = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < WRITES; i++)
+            file.writePage(page);
+        double writeNanos = (double) (System.nanoTime() - start) / WRITES;
+        double writeBytes = (double) (THREADS.getThreadAllocatedBytes(thread) - bytes) / WRITES;
+
+        bytes = THREADS.getThreadAllocatedBytes(thread);
+        start = System.nanoTime();
+        for (int i = 0; i < WRITES; i++)
+            page.setBeforeImage();
+        double imageNanos = (double) (System.nanoTime() - start) / WRITES;
+        double imageBytes = (double) (THREADS.getThreadAllocatedBytes(thread) - bytes) / WRITES;
+
+        System.out.printf("%s %-17s: writePage %7.0f B/op %6.0f ns/op, setBeforeImage %7.0f B/op %6.0f ns/op%n",
+                label, kind, writeBytes, writeNanos, imageBytes, imageNanos);
+    }
+}
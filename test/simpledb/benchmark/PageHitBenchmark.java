@@ -0,0 +1,72 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.TestUtil;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures the cost of BufferPool.getPage when the page is resident, with 1,
+ * 4 and 8 threads reading shared pages of a table that fits in the pool.
+ * Each thread runs one transaction, so after its first pass over the table
+ * it already holds every lock and the calls measure the pool's own hit path:
+ * the partition latch, the replacement policy and the pool's counters.
+ * Run with: ant runbench -Dbench=PageHitBenchmark
+ */
+public class PageHitBenchmark {
+    private static final int PAGES = 256;
+    private static final int OPS = 2_000_000;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile hf = TestUtil.createFullHeapFile(PAGES, null);
+        hf.getFile().deleteOnExit();
+        Database.resetBufferPool(2 * PAGES);
+
+        for (int round = 0; round < 2; round++) {
+            String label = round == 0 ? "warm-up" : "measured";
+            for (int threads : new int[] { 1, 4, 8 })
+                run(label, hf, threads);
+        }
+    }
+
+    private static void run(String label, HeapFile hf, int threads) throws Exception {
+        AtomicLong checksum = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * 17;
+            workers.add(new Thread(() -> {
+                TransactionId tid = new TransactionId();
+                long sum = 0;
+                try {
+                    for (int i = 0; i < OPS; i++) {
+                        HeapPageId pid = new HeapPageId(hf.getId(), (i + offset) % PAGES);
+                        sum += Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY)
+                                .getId().getPageNumber();
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    Database.getBufferPool().transactionComplete(tid);
+                }
+                checksum.addAndGet(sum);
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        long nanos = System.nanoTime() - start;
+
+        System.out.printf("%s %d threads: %6.1f ns per getPage in each thread, %6.2f M getPage/s (checksum %d)%n",
+                label, threads, (double) nanos / OPS,
+                (double) OPS * threads / nanos * 1e3, checksum.get());
+    }
+}
@@ -0,0 +1,111 @@
+package simpledb.benchmark;
+
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileChannel;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Micro-benchmark of page-miss latency. Builds a heap file that fits in the
+ * OS page cache and measures, after a warm-up round:
+ * <ul>
+ * <li> raw 4 KB page reads that open, seek, read and close a RandomAccessFile
+ *      per page (the old HeapFile I/O path), against positional reads through
+ *      a long-lived DbFileChannel,
+ * <li> HeapFile.readPage of random pages,
+ * <li> HeapFile.writePage of random pages,
+ * <li> BufferPool.getPage through a pool too small to hold the table, so that
+ *      every call is a miss followed by an eviction.
+ * </ul>
+ * Run with: ant runbench -Dbench=PageMissBenchmark
+ */
+public class PageMissBenchmark {
+    private static final int PAGES = 2048;
+    private static final int COLUMNS = 4;
+    private static final int TUPLES_PER_PAGE = 254; // four int columns, 4 KB pages
+    private static final int OPS = 200000;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(COLUMNS, PAGES * TUPLES_PER_PAGE, null, null);
+        hf.getFile().deleteOnExit();
+
+        for (int round = 0; round < 2; round++) {
+            String label = round == 0 ? "warm-up" : "measured";
+            System.out.printf("%s: raw read, RAF     %8.0f ns/page%n", label, rawReadsRandomAccessFile(hf));
+            System.out.printf("%s: raw read, channel %8.0f ns/page%n", label, rawReadsChannel(hf));
+            System.out.printf("%s: readPage          %8.0f ns/page%n", label, readPages(hf));
+            System.out.printf("%s: writePage         %8.0f ns/page%n", label, writePages(hf));
+            System.out.printf("%s: getPage (miss)    %8.0f ns/page%n", label, getPageMisses(hf));
+        }
+    }
+
+    private static double rawReadsRandomAccessFile(HeapFile hf) throws Exception {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        Random r = new Random(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < OPS; i++) {
+            RandomAccessFile raf = new RandomAccessFile(hf.getFile(), "r");
+            raf.seek((long) r.nextInt(PAGES) * BufferPool.getPageSize());
+            raf.read(data);
+            raf.close();
+        }
+        return (System.nanoTime() - start) / (double) OPS;
+    }
+
+    private static double rawReadsChannel(HeapFile hf) throws Exception {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        DbFileChannel channel = new DbFileChannel(hf.getFile());
+        Random r = new Random(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < OPS; i++)
+            channel.read(data, (long) r.nextInt(PAGES) * BufferPool.getPageSize());
+        double elapsed = (System.nanoTime() - start) / (double) OPS;
+        channel.close();
+        return elapsed;
+    }
+
+    private static double readPages(HeapFile hf) {
+        Random r = new Random(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < OPS; i++)
+            hf.readPage(new HeapPageId(hf.getId(), r.nextInt(PAGES)));
+        return (System.nanoTime() - start) / (double) OPS;
+    }
+
+    private static double writePages(HeapFile hf) throws Exception {
+        Page[] pages = new Page[64];
+        for (int i = 0; i < pages.length; i++)
+            pages[i] = hf.readPage(new HeapPageId(hf.getId(), i));
+
+        Random r = new Random(0);
+        int ops = OPS / 4;
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++)
+            hf.writePage(pages[r.nextInt(pages.length)]);
+        return (System.nanoTime() - start) / (double) ops;
+    }
+
+    private static double getPageMisses(HeapFile hf) throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long elapsed = 0;
+        int ops = 0;
+        while (ops < OPS) {
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            for (int i = 0; i < PAGES; i++)
+                bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            elapsed += System.nanoTime() - start;
+            ops += PAGES;
+            bp.transactionComplete(tid);
+        }
+        return elapsed / (double) ops;
+    }
+}
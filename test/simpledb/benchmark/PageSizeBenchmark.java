@@ -0,0 +1,78 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.BulkLoader;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Scans the same table stored in pages of 4 KB, 16 KB and 64 KB through a
+ * buffer pool that is emptied before every scan, so each scan reads the
+ * whole file from the OS page cache, one read call per page. This measures
+ * the per-page cost of a scan: read calls, page decoding and pool
+ * bookkeeping.
+ * Run with: ant runbench -Dbench=PageSizeBenchmark
+ */
+public class PageSizeBenchmark {
+    private static final int COLUMNS = 8;
+    private static final int ROWS = 1_000_000;
+    private static final int POOL_BYTES = 16 << 20;
+    private static final int SCANS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = { BufferPool.getPageSize(), 16 << 10, 64 << 10 };
+        for (int round = 0; round < 2; round++) {
+            String label = round == 0 ? "warm-up" : "measured";
+            for (int size : sizes)
+                run(label, size);
+        }
+    }
+
+    private static void run(String label, int pageSize) throws Exception {
+        File f = File.createTempFile("pagesize", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.sideFile(f).deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(COLUMNS), false, HeapFile.Format.FIXED, pageSize);
+        Database.getCatalog().addTable(hf, "scan");
+        Database.resetBufferPool(POOL_BYTES / BufferPool.getPageSize());
+
+        Random rand = new Random(42);
+        int[] values = new int[COLUMNS];
+        TransactionId tid = new TransactionId();
+        BulkLoader loader = new BulkLoader(tid, hf);
+        for (int i = 0; i < ROWS; i++) {
+            for (int j = 0; j < COLUMNS; j++)
+                values[j] = rand.nextInt(1000);
+            loader.add(Utility.getHeapTuple(values));
+        }
+        loader.finish();
+        Database.getBufferPool().transactionComplete(tid);
+
+        long sum = 0;
+        long nanos = 0;
+        for (int scan = 0; scan < SCANS; scan++) {
+            Database.resetBufferPool(POOL_BYTES / BufferPool.getPageSize());
+            tid = new TransactionId();
+            long start = System.nanoTime();
+            DbFileIterator it = hf.iterator(tid);
+            it.open();
+            while (it.hasNext())
+                sum += it.next().getInt(3);
+            it.close();
+            nanos += System.nanoTime() - start;
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        double seconds = nanos / 1e9 / SCANS;
+
+        System.out.printf("%s %5d B pages: %6d pages, %6.1f ms per scan, %5.1f M rows/s (sum %d)%n",
+                label, pageSize, hf.numPages(), seconds * 1e3, ROWS / seconds / 1e6, sum);
+        f.delete();
+    }
+}
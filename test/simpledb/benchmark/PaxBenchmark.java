@@ -0,0 +1,81 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BulkLoader;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Sums one int column of a 20-column table stored as FIXED and as PAX
+ * pages, once through the ordinary iterator, which hands out whole tuples
+ * that decode only the field asked for, and once through
+ * HeapFile.columnIterator. The table fits in the buffer pool and is scanned
+ * several times, so this measures the CPU and memory cost of a scan, not I/O.
+ * Run with: ant runbench -Dbench=PaxBenchmark
+ */
+public class PaxBenchmark {
+    private static final int COLUMNS = 20;
+    private static final int ROWS = 500_000;
+    private static final int POOL_PAGES = 12_000;
+    private static final int SCANS = 10;
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < 2; round++) {
+            String label = round == 0 ? "warm-up" : "measured";
+            for (HeapFile.Format format : new HeapFile.Format[] { HeapFile.Format.FIXED, HeapFile.Format.PAX })
+                run(label, format);
+        }
+    }
+
+    private static void run(String label, HeapFile.Format format) throws Exception {
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.sideFile(f).deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(COLUMNS), format);
+        Database.getCatalog().addTable(hf, "wide");
+        Database.resetBufferPool(POOL_PAGES);
+
+        Random rand = new Random(42);
+        int[] values = new int[COLUMNS];
+        TransactionId tid = new TransactionId();
+        BulkLoader loader = new BulkLoader(tid, hf);
+        for (int i = 0; i < ROWS; i++) {
+            for (int j = 0; j < COLUMNS; j++)
+                values[j] = rand.nextInt(1000);
+            loader.add(Utility.getHeapTuple(values));
+        }
+        loader.finish();
+        Database.getBufferPool().transactionComplete(tid);
+
+        for (int column = 0; column < 2; column++) {
+            boolean columnScan = column == 1;
+            long sum = 0;
+            long start = 0;
+            tid = new TransactionId();
+            for (int scan = 0; scan <= SCANS; scan++) {
+                // the first scan brings the table into the pool
+                if (scan == 1)
+                    start = System.nanoTime();
+                DbFileIterator it = columnScan ? hf.columnIterator(tid, 7) : hf.iterator(tid);
+                it.open();
+                while (it.hasNext())
+                    sum += ((IntField) it.next().getField(columnScan ? 0 : 7)).getValue();
+                it.close();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9 / SCANS;
+            Database.getBufferPool().transactionComplete(tid);
+
+            System.out.printf("%s %-5s %-15s: %6.1f ms per scan, %5.1f M rows/s (sum %d)%n",
+                    label, format, columnScan ? "columnIterator" : "iterator", seconds * 1e3,
+                    ROWS / seconds / 1e6, sum);
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BulkLoader;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Runs a scan, filter, hash join, projection and grouped aggregate over
+ * tables held in the buffer pool, and reports the time per query and the
+ * bytes allocated per scanned row, read from the per-thread counter of
+ * com.sun.management.ThreadMXBean. This measures how much of the cost of a
+ * query is creating and copying Field objects.
+ * Run with: ant runbench -Dbench=RowFormatBenchmark
+ */
+public class RowFormatBenchmark {
+    private static final int ROWS = 200_000;
+    private static final int DIMENSION_ROWS = 1_000;
+    private static final int COLUMNS = 6;
+    private static final int QUERIES = 10;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        Database.resetBufferPool(2_000);
+        HeapFile facts = create("facts", COLUMNS, ROWS);
+        HeapFile dimension = create("dimension", 2, DIMENSION_ROWS);
+
+        for (int round = 0; round < 2; round++) {
+            String label = round == 0 ? "warm-up" : "measured";
+            long thread = Thread.currentThread().getId();
+            long bytes = THREADS.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            long checksum = 0;
+            for (int i = 0; i < QUERIES; i++)
+                checksum += run(facts, dimension);
+            double seconds = (System.nanoTime() - start) / 1e9 / QUERIES;
+            double perRow = (double) (THREADS.getThreadAllocatedBytes(thread) - bytes) / QUERIES / ROWS;
+            System.out.printf("%s: %6.1f ms per query, %5.0f bytes allocated per row (checksum %d)%n",
+                    label, seconds * 1e3, perRow, checksum);
+        }
+    }
+
+    /**
+     * Creates a table of random ints below DIMENSION_ROWS, the same on every run.
+     */
+    private static HeapFile create(String name, int columns, int rows) throws Exception {
+        File f = File.createTempFile(name, ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.sideFile(f).deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(columns));
+        Database.getCatalog().addTable(hf, name);
+
+        Random rand = new Random(42);
+        int[] values = new int[columns];
+        TransactionId tid = new TransactionId();
+        BulkLoader loader = new BulkLoader(tid, hf);
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++)
+                values[j] = rand.nextInt(DIMENSION_ROWS);
+            loader.add(Utility.getHeapTuple(values));
+        }
+        loader.finish();
+        Database.getBufferPool().transactionComplete(tid);
+        return hf;
+    }
+
+    /**
+     * SELECT d.f1, SUM(f.f3) FROM facts f, dimension d
+     * WHERE f.f0 < 500 AND f.f1 = d.f0 GROUP BY d.f1
+     */
+    private static long run(HeapFile facts, HeapFile dimension) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator scan = new SeqScan(tid, facts.getId(), "f");
+        OpIterator filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(DIMENSION_ROWS / 2)), scan);
+        OpIterator join = new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, dimension.getId(), "d"), filter);
+        OpIterator project = new Project(Arrays.asList(1, 2 + 3), new Type[] { Type.INT_TYPE, Type.INT_TYPE }, join);
+        OpIterator aggregate = new Aggregate(project, 1, 0, Aggregator.Op.SUM);
+
+        long checksum = 0;
+        aggregate.open();
+        while (aggregate.hasNext())
+            checksum += ((IntField) aggregate.next().getField(1)).getValue();
+        aggregate.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return checksum;
+    }
+}
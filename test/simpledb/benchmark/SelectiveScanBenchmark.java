@@ -0,0 +1,140 @@
+package simpledb.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures CPU time and allocation of a filtered scan over a cached heap
+ * file at several selectivities. Each selectivity is run twice: once as is,
+ * where tuples decode only the filtered field unless they pass, and once
+ * decoding every field of every scanned tuple first, as pages used to when
+ * they were read.
+ * Run with: ant runbench -Dbench=SelectiveScanBenchmark
+ */
+public class SelectiveScanBenchmark {
+    private static final int PAGES = 1024;
+    private static final int COLUMNS = 8;
+    private static final int TUPLES_PER_PAGE = 127; // eight int columns, 4 KB pages
+    private static final int MAX_VALUE = 10000;
+    private static final int SCANS = 20;
+    private static final double[] SELECTIVITIES = { 0.001, 0.01, 0.1, 1.0 };
+
+    public static void main(String[] args) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(COLUMNS, PAGES * TUPLES_PER_PAGE, MAX_VALUE, null, null);
+        hf.getFile().deleteOnExit();
+        Database.resetBufferPool(PAGES);
+
+        for (int round = 0; round < 2; round++) {
+            String label = round == 0 ? "warm-up" : "measured";
+            for (double selectivity : SELECTIVITIES) {
+                run(label, hf, selectivity, false);
+                run(label, hf, selectivity, true);
+            }
+        }
+    }
+
+    private static void run(String label, HeapFile hf, double selectivity, boolean eager) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long cpu = threads.getCurrentThreadCpuTime();
+        long matched = 0;
+        for (int i = 0; i < SCANS; i++)
+            matched += scan(hf, selectivity, eager);
+        cpu = threads.getCurrentThreadCpuTime() - cpu;
+        bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+
+        System.out.printf("%s: selectivity %5.1f%% %-6s %7.1f ms/scan %8.1f MB/scan (%d rows)%n",
+                label, selectivity * 100, eager ? "eager" : "lazy", cpu / 1e6 / SCANS,
+                bytes / 1e6 / SCANS, matched / SCANS);
+    }
+
+    private static long scan(HeapFile hf, double selectivity, boolean eager) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator child = new SeqScan(tid, hf.getId(), "", false);
+        if (eager)
+            child = new DecodeAll(child);
+        Field bound = new IntField((int) (MAX_VALUE * selectivity));
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, bound), child);
+
+        long count = 0;
+        filter.open();
+        while (filter.hasNext()) {
+            Tuple t = filter.next();
+            for (int i = 0; i < COLUMNS; i++)
+                t.getField(i);
+            count++;
+        }
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    /** Passes tuples through after decoding all their fields. */
+    private static class DecodeAll extends Operator {
+        private static final long serialVersionUID = 1L;
+        private OpIterator child;
+
+        DecodeAll(OpIterator child) {
+            this.child = child;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            super.open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            child.close();
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        @Override
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (!child.hasNext())
+                return null;
+            Tuple t = child.next();
+            for (Iterator<Field> it = t.fields(); it.hasNext(); )
+                it.next();
+            return t;
+        }
+
+        @Override
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        @Override
+        public OpIterator[] getChildren() {
+            return new OpIterator[] { child };
+        }
+
+        @Override
+        public void setChildren(OpIterator[] children) {
+            child = children[0];
+        }
+    }
+}
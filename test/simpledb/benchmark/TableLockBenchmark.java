@@ -0,0 +1,73 @@
+package simpledb.benchmark;
+
+import simpledb.TestUtil;
+import simpledb.common.Database;
+import simpledb.common.LockManager;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Compares full scans of a resident table that lock every page, with and
+ * without lock escalation, with scans that lock the table once, as the
+ * planner now chooses. Each scan runs in its own transaction, which then
+ * commits, so the time includes taking the locks and releasing them. Prints
+ * the locks a scan held and the time per scan and per page.
+ * Run with: ant runbench -Dbench=TableLockBenchmark
+ */
+public class TableLockBenchmark {
+    private static final int PAGES = 4096;
+    private static final int SCANS = 40;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile hf = TestUtil.createFullHeapFile(PAGES, null);
+        hf.getFile().deleteOnExit();
+
+        for (int round = 0; round < 2; round++) {
+            String label = round == 0 ? "warm-up" : "measured";
+            run(label, hf, "page locks", false, 0);
+            run(label, hf, "escalated", false, LockManager.DEFAULT_ESCALATION_THRESHOLD);
+            run(label, hf, "table lock", true, LockManager.DEFAULT_ESCALATION_THRESHOLD);
+        }
+    }
+
+    private static void run(String label, HeapFile hf, String name, boolean tableLock, int escalationThreshold)
+            throws Exception {
+        System.setProperty(LockManager.ESCALATION_PROPERTY, Integer.toString(escalationThreshold));
+        Database.resetBufferPool(2 * PAGES);
+        System.clearProperty(LockManager.ESCALATION_PROPERTY);
+        scan(hf, tableLock); // bring the table in
+
+        long tuples = 0;
+        int locks = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < SCANS; i++) {
+            TransactionId tid = new TransactionId();
+            tuples += scan(hf, tableLock, tid);
+            locks = Database.getBufferPool().getLockManager().getPids(tid).size();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        long nanos = System.nanoTime() - start;
+
+        System.out.printf("%s %-10s: %5d locks per scan, %7.2f ms per scan, %6.1f ns per page (%d tuples per scan)%n",
+                label, name, locks, nanos / 1e6 / SCANS, (double) nanos / SCANS / PAGES, tuples / SCANS);
+    }
+
+    private static void scan(HeapFile hf, boolean tableLock) throws Exception {
+        TransactionId tid = new TransactionId();
+        scan(hf, tableLock, tid);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static long scan(HeapFile hf, boolean tableLock, TransactionId tid) throws Exception {
+        long tuples = 0;
+        SeqScan scan = new SeqScan(tid, hf.getId(), "", false, tableLock);
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            tuples++;
+        }
+        scan.close();
+        return tuples;
+    }
+}
@@ -0,0 +1,116 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.Future;
+
+import simpledb.TestUtil;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.BufferPoolStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.HotPageList;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures how long a restarted buffer pool takes to reach its steady-state
+ * hit ratio, filling up on demand (cold) or warmed up from the hot-page list
+ * saved before the restart. The workload reads random pages of a table twice
+ * the size of the pool, nine in ten of them from a hot set of three quarters
+ * of the pool scattered over the file. The pool is replaced to simulate the
+ * restart, and the workload starts right away, alongside the warm-up, or
+ * once the warm-up is done (before). Steady state is reached with the first
+ * window of WINDOW reads whose hit ratio is within 2% of the steady one.
+ * Pages come from the OS page cache, so a miss costs a read system call and
+ * decoding the page, not a disk seek; on a cold disk the misses saved count
+ * for much more than the time does here.
+ * Run with: ant runbench -Dbench=WarmRestartBenchmark
+ */
+public class WarmRestartBenchmark {
+    private static final int POOL = 2048;
+    private static final int PAGES = 2 * POOL;
+    private static final int HOT = 3 * POOL / 4;
+    private static final int WINDOW = 2_000;
+    private static final int MAX_WINDOWS = 500;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile hf = TestUtil.createFullHeapFile(PAGES, null);
+        hf.getFile().deleteOnExit();
+        HotPageList list = new HotPageList(File.createTempFile("warmrestart", ".hotpages"));
+        list.getFile().deleteOnExit();
+
+        Random random = new Random(42);
+        Database.resetBufferPool(POOL);
+        double steady = 0;
+        for (int w = 0; w < 200; w++) {
+            double ratio = window(hf, random);
+            if (w >= 100)
+                steady += ratio / 100;
+        }
+        System.out.printf("steady-state hit ratio %.3f, %d pages saved%n", steady,
+                list.save(Database.getBufferPool()));
+
+        for (int round = 0; round < ROUNDS; round++) {
+            String label = round < ROUNDS - 1 ? "warm-up" : "measured";
+            for (String mode : new String[] { "cold", "alongside", "before" })
+                run(label, hf, list, mode, steady, new Random(round));
+        }
+    }
+
+    private static void run(String label, HeapFile hf, HotPageList list, String mode, double steady,
+                            Random random) throws Exception {
+        Database.resetBufferPool(POOL);
+        long start = System.nanoTime();
+        Future<Integer> warming = mode.equals("cold") ? null : list.warm(Database.getBufferPool());
+        long warmNanos = 0;
+        if (mode.equals("before")) {
+            warming.get();
+            warmNanos = System.nanoTime() - start;
+        }
+
+        int windows = 0;
+        long misses = 0;
+        while (windows < MAX_WINDOWS) {
+            long before = Database.getBufferPool().getStats().total().getMisses();
+            double ratio = window(hf, random);
+            misses += Database.getBufferPool().getStats().total().getMisses() - before;
+            windows++;
+            if (ratio >= steady - 0.02)
+                break;
+        }
+        long nanos = System.nanoTime() - start;
+
+        String warmed = "";
+        if (warming != null)
+            warmed = String.format(", %d pages warmed", warming.get());
+        if (warmNanos > 0)
+            warmed += String.format(" in %.1f ms", warmNanos / 1e6);
+        System.out.printf("%s %-9s: steady state after %6.1f ms, %5d reads, %5d misses%s%n",
+                label, mode, nanos / 1e6, windows * WINDOW, misses, warmed);
+    }
+
+    /**
+     * Reads WINDOW pages in one transaction and returns the hit ratio.
+     */
+    private static double window(HeapFile hf, Random random) throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        BufferPoolStats.TableSnapshot before = pool.getStats().total();
+        TransactionId tid = new TransactionId();
+        try {
+            for (int i = 0; i < WINDOW; i++) {
+                int pgNo = random.nextInt(10) < 9
+                        ? (int) ((random.nextInt(HOT) * 7919L) % PAGES)
+                        : random.nextInt(PAGES);
+                pool.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+            }
+        } finally {
+            pool.transactionComplete(tid);
+        }
+        BufferPoolStats.TableSnapshot after = pool.getStats().total();
+        long hits = after.getHits() - before.getHits();
+        return (double) hits / WINDOW;
+    }
+}